@@ -0,0 +1,75 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Receiver of the parsed frames which only consumes the values, so the JIT can not
+ * remove the parsing.
+ */
+class BlackholeListener implements FrameListener {
+
+    private final Blackhole blackhole;
+
+    BlackholeListener(final Blackhole sink) {
+        blackhole = sink;
+    }
+
+    @Override
+    public void result(final int requestId, final Object value, final int frameSize) {
+        blackhole.consume(requestId);
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void error(final int requestId, final String message, final int frameSize) {
+        throw new IllegalStateException("Unexpected error frame: " + message);
+    }
+
+    @Override
+    public void command(final String name, final char signature, final int arg1, final int arg2,
+            final float argF, final String argS, final int frameSize) {
+        blackhole.consume(name);
+        blackhole.consume(arg1);
+        blackhole.consume(arg2);
+        blackhole.consume(argF);
+        blackhole.consume(argS);
+    }
+
+    @Override
+    public void telemetry(final int channel, final long cardTime, final float value) {
+        blackhole.consume(channel);
+        blackhole.consume(cardTime);
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void credit(final int bytes) {
+        blackhole.consume(bytes);
+    }
+
+    @Override
+    public void functionTable(final FunctionTable table) {
+        blackhole.consume(table);
+    }
+
+    @Override
+    public void message(final String message) {
+        blackhole.consume(message);
+    }
+
+    @Override
+    public void frameError(final String reason) {
+        throw new IllegalStateException("Unexpected malformed frame: " + reason);
+    }
+
+    @Override
+    public void binaryAccepted() {
+        throw new IllegalStateException("Unexpected binary protocol acceptance");
+    }
+}
@@ -0,0 +1,90 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of the local methods called by Arduino (executeLocalMethod), one benchmark
+ * for any signature. The connection is not opened: only the method lookup and the
+ * invocation are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private final LocalMethods controller = new LocalMethods();
+
+    public static class LocalMethods extends ArduinoJavaSerialRpc {
+
+        private int calls;
+        private int intSum;
+        private float floatSum;
+        private int stringLengths;
+
+        public LocalMethods() {
+            super(new LoopbackTransport("DispatchBenchmark"));
+        }
+
+        public void voidCallArduinoToPc() {
+            calls++;
+        }
+
+        public void intCallArduinoToPc(final Integer arg1, final Integer arg2) {
+            intSum += arg1 + arg2;
+        }
+
+        public void floatCallArduinoToPc(final Float arg) {
+            floatSum += arg;
+        }
+
+        public void stringCallArduinoToPc(final String arg) {
+            stringLengths += arg.length();
+        }
+    }
+
+    @Benchmark
+    public int dispatchVoid() throws ArduinoRpcJavaFailsException {
+        controller.executeLocalMethod("voidCallArduinoToPc");
+        return controller.calls;
+    }
+
+    @Benchmark
+    public int dispatchIntInt() throws ArduinoRpcJavaFailsException {
+        controller.executeLocalMethod("intCallArduinoToPc", 1, 27);
+        return controller.intSum;
+    }
+
+    @Benchmark
+    public float dispatchFloat() throws ArduinoRpcJavaFailsException {
+        controller.executeLocalMethod("floatCallArduinoToPc", 18.11f);
+        return controller.floatSum;
+    }
+
+    @Benchmark
+    public int dispatchString() throws ArduinoRpcJavaFailsException {
+        controller.executeLocalMethod("stringCallArduinoToPc", "13");
+        return controller.stringLengths;
+    }
+}
@@ -0,0 +1,111 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of the calls sent to Arduino (the former ProtocolToArduino.sendCommand),
+ * one benchmark for any signature and protocol.<br>
+ * The encoded bytes are written into a discarding stream, so only the encoding is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    private final CommandEncoder encoder = new CommandEncoder();
+    private final OutputStream sink = new DiscardingOutputStream();
+
+    private final PendingCall voidCall = PendingCall.voidCall("VoidCallPcToArduino");
+    private final PendingCall intCall = PendingCall.intCall("IntCallPcToArduino", 1234, -5678);
+    private final PendingCall floatCall = PendingCall.floatCall("FloatCallPcToArduino", 3.14f);
+    private final PendingCall stringCall = PendingCall.stringCall("StringCallPcToArduino", "Hello Arduino");
+    private final PendingCall taggedCall = tagged(PendingCall.intCall("IntCallPcToArduino", 1234, -5678));
+
+    @Benchmark
+    public void textVoid() throws IOException {
+        encoder.encodeText(voidCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void textIntInt() throws IOException {
+        encoder.encodeText(intCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void textFloat() throws IOException {
+        encoder.encodeText(floatCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void textString() throws IOException {
+        encoder.encodeText(stringCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void textTaggedIntInt() throws IOException {
+        encoder.encodeText(taggedCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void binaryIntInt() throws IOException {
+        encoder.encodeBinary(intCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void binaryFloat() throws IOException {
+        encoder.encodeBinary(floatCall);
+        encoder.writeTo(sink);
+    }
+
+    @Benchmark
+    public void binaryString() throws IOException {
+        encoder.encodeBinary(stringCall);
+        encoder.writeTo(sink);
+    }
+
+    private static PendingCall tagged(final PendingCall call) {
+        call.setRequestId(42);
+        return call;
+    }
+
+    /**
+     * Stream which accepts and forgets any byte, as a serial driver with an infinite buffer
+     */
+    static final class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int data) {
+        }
+
+        @Override
+        public void write(final byte[] data, final int offset, final int length) {
+        }
+    }
+}
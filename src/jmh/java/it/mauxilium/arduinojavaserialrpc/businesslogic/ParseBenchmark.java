@@ -0,0 +1,141 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the data received from Arduino (the work of UsbReceiverAgent), for the text
+ * rows and the binary frames of results and commands.<br>
+ * Any benchmark parses one complete frame; the decoded values are consumed by a Blackhole.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private TextFrameParser textParser;
+    private BinaryFrameDecoder binaryDecoder;
+
+    private final byte[] textIntResult = text("MArC_res", "I", "-123456");
+    private final byte[] textFloatResult = text("MArC_res", "F", "3.14");
+    private final byte[] textStringResult = text("MArC_res", "S", "Hello from Arduino");
+    private final byte[] textIntIntCommand = text("MArC_cmd", "intCallArduinoToPc", "H", "1", "27");
+    private final byte[] textFloatCommand = text("MArC_cmd", "floatCallArduinoToPc", "F", "18.11");
+    private final byte[] binaryIntResult =
+            frame(BinaryProtocol.FRAME_RESULT, resultPayload(UsbHandler.INT_ARG_PREAMBLE).putInt(-123456).array());
+    private final byte[] binaryFloatResult =
+            frame(BinaryProtocol.FRAME_RESULT, resultPayload(UsbHandler.FLOAT_ARG_PREAMBLE).putFloat(3.14f).array());
+    private final byte[] binaryIntIntCommand = commandFrame();
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        FrameListener listener = new BlackholeListener(blackhole);
+        textParser = new TextFrameParser(new UsbHandler(new LoopbackTransport("ParseBenchmark")), listener);
+        binaryDecoder = new BinaryFrameDecoder(listener);
+    }
+
+    @Benchmark
+    public int textIntResult() {
+        return textParser.feed(textIntResult, 0, textIntResult.length);
+    }
+
+    @Benchmark
+    public int textFloatResult() {
+        return textParser.feed(textFloatResult, 0, textFloatResult.length);
+    }
+
+    @Benchmark
+    public int textStringResult() {
+        return textParser.feed(textStringResult, 0, textStringResult.length);
+    }
+
+    @Benchmark
+    public int textIntIntCommand() {
+        return textParser.feed(textIntIntCommand, 0, textIntIntCommand.length);
+    }
+
+    @Benchmark
+    public int textFloatCommand() {
+        return textParser.feed(textFloatCommand, 0, textFloatCommand.length);
+    }
+
+    @Benchmark
+    public void binaryIntResult() {
+        binaryDecoder.feed(binaryIntResult, 0, binaryIntResult.length);
+    }
+
+    @Benchmark
+    public void binaryFloatResult() {
+        binaryDecoder.feed(binaryFloatResult, 0, binaryFloatResult.length);
+    }
+
+    @Benchmark
+    public void binaryIntIntCommand() {
+        binaryDecoder.feed(binaryIntIntCommand, 0, binaryIntIntCommand.length);
+    }
+
+    /**
+     * Rows as printed by the sketch (println ends them with "\r\n")
+     */
+    private static byte[] text(final String... rows) {
+        StringBuilder frame = new StringBuilder();
+        for (String row : rows) {
+            frame.append(row).append("\r\n");
+        }
+        return frame.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The payload of a result of request 7, with the room for a 4 bytes value
+     */
+    private static ByteBuffer resultPayload(final char dataType) {
+        return ByteBuffer.allocate(2 + 4).order(ByteOrder.LITTLE_ENDIAN).put((byte) 7).put((byte) dataType);
+    }
+
+    private static byte[] commandFrame() {
+        byte[] name = "intCallArduinoToPc".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer payload = ByteBuffer.allocate(2 + name.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put((byte) UsbHandler.INT_INT_ARG_PREAMBLE).put((byte) name.length).put(name).putInt(1).putInt(27);
+        return frame(BinaryProtocol.FRAME_COMMAND, payload.array());
+    }
+
+    private static byte[] frame(final byte frameType, final byte[] payload) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(BinaryProtocol.START_BYTE);
+        frame.write(payload.length);
+        frame.write(frameType);
+        frame.write(payload, 0, payload.length);
+        byte[] bytes = frame.toByteArray();
+        int crc = 0;
+        for (int index = 1; index < bytes.length; index++) {
+            crc = BinaryProtocol.crc8(crc, bytes[index]);
+        }
+        frame.write(crc);
+        return frame.toByteArray();
+    }
+}
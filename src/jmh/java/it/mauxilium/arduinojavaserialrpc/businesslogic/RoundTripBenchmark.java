@@ -0,0 +1,100 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcException;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full synchronous calls (encoding, loopback link, emulated card, parsing and completion of
+ * the waiting call), for any protocol and for the default and the pipelined mode.<br>
+ * The emulated card has no line time and no computing delay, so the measure is the library
+ * overhead plus the thread hand-offs of the link.<br>
+ * Four threads share the connection: with the default depth they wait for each other, with the
+ * pipelined mode their calls are on the wire at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RoundTripBenchmark {
+
+    @Param({"TEXT", "BINARY"})
+    public WireProtocol protocol;
+
+    @Param({"1", "4"})
+    public int pipelineDepth;
+
+    private ArduinoCardEmulator card;
+    private ArduinoJavaSerialRpc rpc;
+
+    public static class Controller extends ArduinoJavaSerialRpc {
+
+        public Controller(final LoopbackTransport link) {
+            super(link);
+        }
+    }
+
+    @Setup
+    public void connect() throws ArduinoRpcException, IOException {
+        LoopbackTransport link = new LoopbackTransport("RoundTripBenchmark");
+        card = new ArduinoCardEmulator("Benchmark");
+        card.registerIntFunction("IntCallPcToArduino", (arg1, arg2) -> arg1 * arg2);
+        card.registerFloatFunction("FloatCallPcToArduino", arg -> arg * 2);
+        card.registerStringFunction("StringCallPcToArduino", arg -> arg);
+        card.attach(link.getCardSide());
+
+        rpc = new Controller(link);
+        rpc.setWireProtocol(protocol);
+        rpc.setPipelineDepth(pipelineDepth);
+        rpc.connect();
+    }
+
+    @TearDown
+    public void disconnect() throws IOException {
+        rpc.disconnect();
+        card.detach();
+    }
+
+    @Benchmark
+    public Integer intCall() throws ArduinoRpcJavaFailsException {
+        return rpc.executeRemoteFunction("IntCallPcToArduino", 6, 7);
+    }
+
+    @Benchmark
+    public float floatCall() throws ArduinoRpcJavaFailsException {
+        return rpc.executeRemoteFunction("FloatCallPcToArduino", 3.14f);
+    }
+
+    @Benchmark
+    public String stringCall() throws ArduinoRpcJavaFailsException {
+        return rpc.executeRemoteFunction("StringCallPcToArduino", "Hello Arduino");
+    }
+}
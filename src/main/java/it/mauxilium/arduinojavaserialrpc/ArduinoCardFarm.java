@@ -0,0 +1,270 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcInitializationError;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.RxtxTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manager of many Arduino cards connected to the same host.<br>
+ * Any card is identified by the name returned by its sketch (see getCardName), instead of the
+ * port name: the numbering of the USB ports changes at any restart, the card names do not.
+ * So the calls are routed by card name:<br>
+ * <blockquote><code>
+ *     ArduinoCardFarm farm = new ArduinoCardFarm(4);<br>
+ *     farm.addCard("/dev/ttyUSB0", ArduinoJavaSerialRpc.DATA_RATE_9600);<br>
+ *     farm.addCard("/dev/ttyUSB1", ArduinoJavaSerialRpc.DATA_RATE_9600);<br>
+ *     float temperature = farm.executeRemoteFunction("Greenhouse", "readTemperature", 1.0f);
+ * </code></blockquote>
+ * The methods called from Arduino are executed by a thread pool shared by all the cards (see
+ * ArduinoJavaSerialRpc.setInboundExecutor), so the number of threads does not grow with the
+ * number of cards; the calls of a method are still executed one at time, in the receiving order.<br>
+ * The Java side of any card (the class with the methods called from Arduino) is created
+ * by a ConnectorFactory; by default it is a plain ArduinoJavaSerialRpc.
+ */
+public class ArduinoCardFarm {
+
+    /**
+     * Maximum number of calls from any card waiting for a thread of the shared pool
+     */
+    public static final int DEFAULT_MAX_WAITING_CALLS = 256;
+
+    /**
+     * Creator of the Java side of a card
+     */
+    public interface ConnectorFactory {
+
+        /**
+         * Creates a not yet connected instance.
+         *
+         * @param transport The byte channel to the card
+         * @return The connector to use for the card
+         */
+        ArduinoJavaSerialRpc create(SerialTransport transport);
+    }
+
+    private final ConnectorFactory factory;
+    private final ExecutorService dispatchPool;
+    private final ConcurrentMap<String, ArduinoJavaSerialRpc> cards = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a farm of plain ArduinoJavaSerialRpc connectors (no methods callable from Arduino).
+     *
+     * @param dispatchThreads Number of threads executing the methods called from all the cards
+     */
+    public ArduinoCardFarm(final int dispatchThreads) {
+        this(dispatchThreads, ArduinoJavaSerialRpc::new);
+    }
+
+    /**
+     * Creates a farm whose connectors are created by the given factory
+     * (i.e. "transport -&gt; new MyController(transport)").
+     *
+     * @param dispatchThreads Number of threads executing the methods called from all the cards
+     * @param connectorFactory Creator of the Java side of any card
+     */
+    public ArduinoCardFarm(final int dispatchThreads, final ConnectorFactory connectorFactory) {
+        if (dispatchThreads < 1) {
+            throw new IllegalArgumentException("The number of dispatching threads must be positive: " + dispatchThreads);
+        }
+        factory = connectorFactory;
+        dispatchPool = Executors.newFixedThreadPool(dispatchThreads, new DispatchThreadFactory());
+    }
+
+    /**
+     * Connects the card on a serial port and adds it to the farm.
+     *
+     * @param portName The name of connection port
+     * @param baudRate The value for Serial port speed
+     * @return The name of the connected card
+     * @throws ArduinoRpcInitializationError If the card can not be connected, or its name is already in use
+     */
+    public String addCard(final String portName, final int baudRate) throws ArduinoRpcInitializationError {
+        return addCard(new RxtxTransport(portName, baudRate));
+    }
+
+    /**
+     * Connects the card on a transport, reads its name and adds it to the farm.
+     *
+     * @param transport The byte channel to the card
+     * @return The name of the connected card
+     * @throws ArduinoRpcInitializationError If the card can not be connected, or its name is already in use
+     */
+    public String addCard(final SerialTransport transport) throws ArduinoRpcInitializationError {
+        ArduinoJavaSerialRpc card = factory.create(transport);
+        card.setInboundExecutor(dispatchPool, DEFAULT_MAX_WAITING_CALLS, InboundOverflowPolicy.BLOCK);
+        card.connect();
+        String cardName;
+        try {
+            cardName = card.getCardName();
+        } catch (ArduinoRpcJavaFailsException ex) {
+            disconnectQuietly(card);
+            throw new ArduinoRpcInitializationError("Reading the name of card on " + transport.getName(), ex);
+        }
+        ArduinoJavaSerialRpc previous = cards.putIfAbsent(cardName, card);
+        if (previous != null) {
+            disconnectQuietly(card);
+            throw new ArduinoRpcInitializationError("The card " + cardName + " on " + transport.getName() +
+                    " is already connected on " + previous.getPortName());
+        }
+        return cardName;
+    }
+
+    /**
+     * Disconnects a card and removes it from the farm.
+     *
+     * @param cardName The name of the card
+     * @throws IOException In any case of closing errors
+     */
+    public void removeCard(final String cardName) throws IOException {
+        ArduinoJavaSerialRpc card = cards.remove(cardName);
+        if (card != null) {
+            card.disconnect();
+        }
+    }
+
+    /**
+     * Returns the names of the connected cards.
+     *
+     * @return The sorted names
+     */
+    public Set<String> getCardNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(cards.keySet()));
+    }
+
+    /**
+     * Returns the connector of a card, to use any feature not routed by the farm
+     * (i.e. asynchronous calls, batches, timeouts or metrics).
+     *
+     * @param cardName The name of the card
+     * @return The connector of the card
+     * @throws ArduinoRpcJavaFailsException If no card has the given name
+     */
+    public ArduinoJavaSerialRpc getCard(final String cardName) throws ArduinoRpcJavaFailsException {
+        ArduinoJavaSerialRpc card = cards.get(cardName);
+        if (card == null) {
+            throw new ArduinoRpcJavaFailsException("No card connected with name: " + cardName);
+        }
+        return card;
+    }
+
+    /**
+     * Executes a function with signature: void <i>functionName</i>(); on the named card.
+     *
+     * @param cardName The name of the card
+     * @param functionName The name of Arduino's function to call.
+     * @throws ArduinoRpcJavaFailsException If the card is unknown, or in any case of communication error
+     */
+    public void executeRemoteFunction(final String cardName, final String functionName)
+            throws ArduinoRpcJavaFailsException {
+        getCard(cardName).executeRemoteFunction(functionName);
+    }
+
+    /**
+     * Executes a function with signature: int <i>functionName</i>(int arg1, int arg2); on the named card.
+     *
+     * @param cardName The name of the card
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param arg1 First value to send.
+     * @param arg2 Second value to send.
+     * @return The value returned by the function
+     * @throws ArduinoRpcJavaFailsException If the card is unknown, or in any case of communication error
+     */
+    public Integer executeRemoteFunction(final String cardName, final String functionName,
+            final int arg1, final int arg2) throws ArduinoRpcJavaFailsException {
+        return getCard(cardName).executeRemoteFunction(functionName, arg1, arg2);
+    }
+
+    /**
+     * Executes a function with signature: String <i>functionName</i>(String arg); on the named card.
+     *
+     * @param cardName The name of the card
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The value to send.
+     * @return The value returned by the function
+     * @throws ArduinoRpcJavaFailsException If the card is unknown, or in any case of communication error
+     */
+    public String executeRemoteFunction(final String cardName, final String functionName,
+            final String argument) throws ArduinoRpcJavaFailsException {
+        return getCard(cardName).executeRemoteFunction(functionName, argument);
+    }
+
+    /**
+     * Executes a function with signature: float <i>functionName</i>(float arg); on the named card.
+     *
+     * @param cardName The name of the card
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The value to send.
+     * @return The value returned by the function
+     * @throws ArduinoRpcJavaFailsException If the card is unknown, or in any case of communication error
+     */
+    public float executeRemoteFunction(final String cardName, final String functionName,
+            final float argument) throws ArduinoRpcJavaFailsException {
+        return getCard(cardName).executeRemoteFunction(functionName, argument);
+    }
+
+    /**
+     * Disconnects all the cards and stops the shared threads.
+     * The farm can not be used anymore.
+     *
+     * @throws IOException The first closing error, after the attempt to close all the cards
+     */
+    public void disconnect() throws IOException {
+        IOException failure = null;
+        for (String cardName : getCardNames()) {
+            try {
+                removeCard(cardName);
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        dispatchPool.shutdown();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void disconnectQuietly(final ArduinoJavaSerialRpc card) {
+        try {
+            card.disconnect();
+        } catch (IOException ignored) {
+            // The card is discarded anyway
+        }
+    }
+
+    /**
+     * Daemon threads, so a farm not disconnected does not block the end of the application
+     */
+    private static class DispatchThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger FARMS = new AtomicInteger();
+        private final int farm = FARMS.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable task) {
+            Thread thread = new Thread(task, "ArduinoRpc-farm" + farm + "-dispatch" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
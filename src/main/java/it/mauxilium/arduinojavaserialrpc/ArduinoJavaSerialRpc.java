@@ -6,17 +6,19 @@
 //  Copyright 2020 Gabriele Maris
 package it.mauxilium.arduinojavaserialrpc;
 
-import gnu.io.NoSuchPortException;
-import gnu.io.PortInUseException;
-import gnu.io.UnsupportedCommOperationException;
 import it.mauxilium.arduinojavaserialrpc.businesslogic.UsbHandler;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcInitializationError;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcTimeoutException;
+import it.mauxilium.arduinojavaserialrpc.metrics.MetricsSnapshot;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryBuffer;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.TooManyListenersException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -62,7 +64,8 @@ import java.util.logging.Logger;
  * <li>Integer <i>methodName</i>(Integer arg1, Integer arg2);</li>
  * <li>Float <i>methodName</i>(Float arg);</li>
  * <li>String <i>methodName</i>(String arg);</li>
- * </ul></li>
+ * </ul>
+ * The primitive arguments (int and float) are accepted too.</li>
  * </ol>
  * </blockquote><br>
  * <br>
@@ -153,8 +156,31 @@ public class ArduinoJavaSerialRpc {
     public static final int DATA_RATE_57600 = 57600;
     public static final int DATA_RATE_115200 = 115200;
 
+    /**
+     * Handler of the Arduino calls with signature: void method(int, int);
+     */
+    public interface IntIntHandler {
+        void handle(int arg1, int arg2);
+    }
+
+    /**
+     * Handler of the Arduino calls with signature: void method(float);
+     */
+    public interface FloatHandler {
+        void handle(float arg);
+    }
+
+    /**
+     * Handler of the Arduino calls with signature: void method(String);
+     */
+    public interface StringHandler {
+        void handle(String arg);
+    }
+
     private final UsbHandler usbHandler;
 
+    private LocalMethodTable localMethods;
+
     /**
      * Creates a connector to Arduino card.<br>
      * The constructor requires two parameters, frequently used values are declared in the PORTs constants (like
@@ -168,13 +194,26 @@ public class ArduinoJavaSerialRpc {
         usbHandler = new UsbHandler(portName, baudRate);
     }
 
+    /**
+     * Creates a connector to Arduino card which uses a specific transport (i.e. NioSerialTransport
+     * on Linux, or TcpTransport for a serial port exported on the network).<br>
+     * As the other constructor, it instantiates the resource only: a "connect()" invocation is required.
+     * @param transport The byte channel to the card (see the "transport" package)
+     */
+    public ArduinoJavaSerialRpc(final SerialTransport transport) {
+        usbHandler = new UsbHandler(transport);
+    }
+
     /**
      * Creates a connection with the Arduino card.<br>
      * After this calls the USB port is locked and no other program can use it.<br>
+     * It returns as soon as the card answers (see setConnectReadiness), so the card is ready
+     * to receive the calls.<br>
      * In order to release the USB port a "disconnect()" call is required.
      *
      * @throws ArduinoRpcInitializationError In any case of connection or
-     * initialization error (i.e. wrong connection port specified).
+     * initialization error (i.e. wrong connection port specified, or a card not answering
+     * within the connect timeout).
      */
     public void connect() throws ArduinoRpcInitializationError {
         // TODO check if it is strongly required or not
@@ -184,10 +223,10 @@ public class ArduinoJavaSerialRpc {
         //            System.setProperty("gnu.io.rxtx.SerialPorts", RASPBERRY_PI_DEFAULT_PORT);
         //        }
 
+        localMethods = LocalMethodTable.of(getClass());
         try {
             usbHandler.initialize(this);
-        } catch (NoSuchPortException | PortInUseException | UnsupportedCommOperationException |
-                IOException | TooManyListenersException ex) {
+        } catch (IOException ex) {
             throw new ArduinoRpcInitializationError(ex);
         }
     }
@@ -203,7 +242,8 @@ public class ArduinoJavaSerialRpc {
     }
 
     /**
-     * Discover the available serial ports in system.
+     * Discover the available serial ports in system.<br>
+     * To know which ports have an ArduinoSerialRpc card (and their card names), see CardDiscovery.
      *
      * @return A list of available serial ports (free and used too).
      */
@@ -227,6 +267,202 @@ public class ArduinoJavaSerialRpc {
         return usbHandler.getBaudRate();
     }
 
+    /**
+     * Enables the pipelined mode, where more calls (from different threads) can wait for their
+     * results at the same time.<br>
+     * Any command is tagged with a short request id and the result sent back from Arduino
+     * completes the matching call, so the idle time of the serial line is used by the other calls.<br>
+     * The sketch must use a version of ArduinoSerialRpc which supports the tagged commands.<br>
+     * It must be called before "connect()".
+     *
+     * @param maxCallsInFlight The maximum number of calls waiting for a result (1 restores the default mode)
+     */
+    public void setPipelineDepth(final int maxCallsInFlight) {
+        usbHandler.setPipelineDepth(maxCallsInFlight);
+    }
+
+    /**
+     * Requests the credit based flow control: the sketch advertises the free space of its serial
+     * receive buffer (64 bytes on the AVR boards) and the calls are sent only while they fit into it.
+     * So many pipelined calls, or long String arguments, do not overrun the buffer at high baud rates.<br>
+     * The sketch must use a version of ArduinoSerialRpc which supports the flow control; with any
+     * other sketch the calls are sent as usual (see isFlowControlActive).<br>
+     * It must be called before "connect()".
+     *
+     * @param enabled true to request the flow control
+     */
+    public void setFlowControl(final boolean enabled) {
+        usbHandler.setFlowControl(enabled);
+    }
+
+    /**
+     * Returns true if the flow control was requested and accepted by the sketch.
+     *
+     * @return false before the connection, or if the sketch does not support the flow control
+     */
+    public boolean isFlowControlActive() {
+        return usbHandler.isFlowControlActive();
+    }
+
+    /**
+     * Requests the numeric function ids: at the connection the sketch lists its functions (with
+     * their signatures) and the Java methods it calls, then both sides send a short id in place
+     * of the names. For short calls most of the bytes on the wire are the names, so the calls
+     * are shorter and faster, mainly at low baud rates.<br>
+     * A function not listed by the sketch fails at once with ArduinoRpcJavaFailsException,
+     * without waiting for the error of the card.<br>
+     * The sketch must use a version of ArduinoSerialRpc which supports the function ids; with any
+     * other sketch the names are sent as usual (see isFunctionIdsActive).<br>
+     * It must be called before "connect()".
+     *
+     * @param enabled true to request the function ids
+     */
+    public void setFunctionIds(final boolean enabled) {
+        usbHandler.setFunctionIds(enabled);
+    }
+
+    /**
+     * Returns true if the function ids were requested and the sketch sent its function table.
+     *
+     * @return false before the connection, or if the sketch does not support the function ids
+     */
+    public boolean isFunctionIdsActive() {
+        return usbHandler.isFunctionIdsActive();
+    }
+
+    /**
+     * Enables the coalesced writes: the commands are written on the port by a dedicated thread,
+     * so the callers (mainly the asynchronous ones) return as soon as the command is queued.<br>
+     * The writing thread waits up to the given delay, or until the pending commands reach the
+     * flush size, and then it sends all of them with a single write: with many calling threads,
+     * many small USB transfers become few larger ones.<br>
+     * It must be called before "connect()".
+     *
+     * @param delay The maximum time a command waits for other commands (i.e. 1 millisecond)
+     * @param unit The unit of delay
+     * @param flushBytes The number of pending bytes written without waiting the delay (i.e. 64)
+     */
+    public void setCoalescedWrites(final long delay, final TimeUnit unit, final int flushBytes) {
+        usbHandler.setCoalescedWrites(delay, unit, flushBytes);
+    }
+
+    /**
+     * Returns the maximum number of calls waiting for their results at the same time.
+     * @return 1 when the pipelined mode is not active
+     */
+    public int getPipelineDepth() {
+        return usbHandler.getPipelineDepth();
+    }
+
+    /**
+     * Requests the protocol to use with the Arduino card.<br>
+     * The BINARY protocol sends compact frames (binary integers and floats, with CRC) instead of text rows;
+     * it is negotiated during "connect()" and it is used only if the sketch accepts it, otherwise
+     * the TEXT protocol is kept.<br>
+     * It must be called before "connect()".
+     *
+     * @param protocol The requested protocol (TEXT is the default)
+     */
+    public void setWireProtocol(final WireProtocol protocol) {
+        usbHandler.setWireProtocol(protocol);
+    }
+
+    /**
+     * Returns the protocol in use with the Arduino card.
+     * @return BINARY only if it was requested and the sketch accepted it during "connect()"
+     */
+    public WireProtocol getWireProtocol() {
+        return usbHandler.getWireProtocol();
+    }
+
+    /**
+     * Sets how "connect()" waits for the card to be ready.<br>
+     * PROBE, the default, asks the card name until the card answers (or until the connect timeout
+     * expires), so "connect()" returns as soon as the sketch is running. FIXED_DELAY waits two seconds,
+     * as the previous versions did.<br>
+     * It must be called before "connect()".
+     *
+     * @param readiness The way to detect the card readiness
+     */
+    public void setConnectReadiness(final ConnectReadiness readiness) {
+        usbHandler.setConnectReadiness(readiness);
+    }
+
+    public ConnectReadiness getConnectReadiness() {
+        return usbHandler.getConnectReadiness();
+    }
+
+    /**
+     * Sets the maximum time allowed to the card to become ready (PROBE readiness), including
+     * the time of the bootloader of the cards reset by the opening of the port.<br>
+     * It must be called before "connect()".
+     *
+     * @param timeout The maximum time (5 seconds by default)
+     * @param unit The unit of timeout
+     */
+    public void setConnectTimeout(final long timeout, final TimeUnit unit) {
+        usbHandler.setConnectTimeout(timeout, unit);
+    }
+
+    public long getConnectTimeout(final TimeUnit unit) {
+        return usbHandler.getConnectTimeout(unit);
+    }
+
+    /**
+     * Opens a telemetry channel: the samples streamed by the sketch on the channel are stored
+     * into a preallocated ring, read in bulk by TelemetryBuffer.drain.<br>
+     * The telemetry is intended for high rate data (thousands of samples per second), where a
+     * method call per value would be too expensive; the samples of channels not opened are discarded.
+     *
+     * @param channel The channel number used by the sketch (0..255)
+     * @param capacity The maximum number of samples not yet read
+     * @param policy The behaviour when the buffer is full
+     * @return The buffer of the channel samples
+     */
+    public TelemetryBuffer openTelemetryChannel(final int channel, final int capacity,
+            final TelemetryOverflowPolicy policy) {
+        return usbHandler.openTelemetry(channel, capacity, policy);
+    }
+
+    public void closeTelemetryChannel(final int channel) {
+        usbHandler.closeTelemetry(channel);
+    }
+
+    /**
+     * Enables the automatic reconnection of the card.<br>
+     * When the link is lost (the port is removed, a command can not be written, or the card misses a
+     * heartbeat) the calls waiting for a result fail at once and the new calls fail until the card is
+     * connected again; meanwhile the port (or the port where the card search finds the same card name)
+     * is opened again with increasing delays. The changes are notified to the LinkStateListeners.<br>
+     * It must be called before "connect()".
+     *
+     * @param policy The reconnection settings; null disables the reconnection (the default)
+     */
+    public void setAutoReconnect(final ReconnectPolicy policy) {
+        usbHandler.setAutoReconnect(policy);
+    }
+
+    /**
+     * Adds a receiver of the link state changes (automatic reconnection only).
+     *
+     * @param listener The receiver of the changes
+     */
+    public void addLinkStateListener(final LinkStateListener listener) {
+        usbHandler.addLinkStateListener(listener);
+    }
+
+    public void removeLinkStateListener(final LinkStateListener listener) {
+        usbHandler.removeLinkStateListener(listener);
+    }
+
+    /**
+     * Returns the state of the link with the card.
+     * @return RECONNECTING while an automatic reconnection is in progress
+     */
+    public LinkState getLinkState() {
+        return usbHandler.getLinkState();
+    }
+
 
     /**
      * Returns the card identification declared into the sketch
@@ -320,6 +556,378 @@ public class ArduinoJavaSerialRpc {
         return usbHandler.executeFunction(functionName, argument);
     }
 
+    /**
+     * Sets the maximum time to wait the result of any remote function called without an
+     * explicit timeout (synchronous, asynchronous and batch calls).<br>
+     * When the time expires the call fails with ArduinoRpcTimeoutException, and the result
+     * received later (if any) is discarded.
+     *
+     * @param timeout The maximum time, from the call to its result (0, the default, waits without limit)
+     * @param unit The unit of timeout
+     */
+    public void setDefaultTimeout(final long timeout, final TimeUnit unit) {
+        usbHandler.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * Returns the maximum time to wait the result of a remote function called without an explicit timeout.
+     * @param unit The unit of returned value
+     * @return 0 if the calls wait without limit
+     */
+    public long getDefaultTimeout(final TimeUnit unit) {
+        return usbHandler.getDefaultTimeout(unit);
+    }
+
+    /**
+     * Sets the sending lane of a remote function: when more calls wait for the serial line, the
+     * calls of CRITICAL functions are sent first and the BULK ones last.<br>
+     * <blockquote><code>
+     *     arduino.setCallPriority("EmergencyStop", CallPriority.CRITICAL);<br>
+     *     arduino.setCallPriority("ReadSensors", CallPriority.BULK);
+     * </code></blockquote>
+     * A lower lane is never starved: after some calls of the higher lanes it sends one of its calls.
+     * The queue depth and the waiting time of any lane are in getMetrics().getLanes().
+     *
+     * @param functionName The name of the function in Arduino sketch
+     * @param priority The lane of its calls (NORMAL by default)
+     */
+    public void setCallPriority(final String functionName, final CallPriority priority) {
+        usbHandler.setCallPriority(functionName, priority);
+    }
+
+    /**
+     * Returns the sending lane of a remote function.
+     *
+     * @param functionName The name of the function in Arduino sketch
+     * @return NORMAL if no priority was set for the function
+     */
+    public CallPriority getCallPriority(final String functionName) {
+        return usbHandler.getCallPriority(functionName);
+    }
+
+    /**
+     * Declares a remote function without side effects (i.e. GetCardName, or the reading of a
+     * calibration constant): for the given time, its result is reused by the calls with the
+     * same arguments, without sending them to Arduino.<br>
+     * <blockquote><code>
+     *     arduino.setCacheable("GetCardName", 1, TimeUnit.HOURS);
+     * </code></blockquote>
+     * The concurrent calls with the same arguments share the result of the first one; the failed
+     * calls are not kept. All the results are discarded when the link is lost or closed.
+     *
+     * @param functionName The name of the function in Arduino sketch (GetCardName for getCardName)
+     * @param timeToLive The time a result is reused
+     * @param unit The unit of time to live
+     */
+    public void setCacheable(final String functionName, final long timeToLive, final TimeUnit unit) {
+        usbHandler.setCacheable(functionName, timeToLive, unit);
+    }
+
+    /**
+     * Sends again any call of the function to Arduino, and discards its cached results.
+     *
+     * @param functionName The name of the function in Arduino sketch
+     */
+    public void setNotCacheable(final String functionName) {
+        usbHandler.setNotCacheable(functionName);
+    }
+
+    /**
+     * Sets the maximum number of cached results (256 by default): when it is reached, the least
+     * recently used result is discarded.
+     *
+     * @param maxResults The maximum number of results, of all the cacheable functions
+     */
+    public void setResultCacheSize(final int maxResults) {
+        usbHandler.setResultCacheSize(maxResults);
+    }
+
+    /**
+     * Discards all the cached results (i.e. after a change of the card state), so the next calls
+     * are sent to Arduino.
+     */
+    public void flushResultCache() {
+        usbHandler.flushResultCache();
+    }
+
+    /**
+     * Returns the statistics of this connection: for any remote function (and any local method
+     * called by Arduino) the number of calls, errors and timeouts, the sent and received bytes
+     * and the latency percentiles.<br>
+     * While the connection is open, the same statistics are published on JMX with name
+     * it.mauxilium.arduinojavaserialrpc:type=Connection,name="port name".
+     *
+     * @return A snapshot of the current statistics
+     */
+    public MetricsSnapshot getMetrics() {
+        return usbHandler.getMetrics();
+    }
+
+    /**
+     * Restarts the statistics of this connection from zero.
+     */
+    public void resetMetrics() {
+        usbHandler.resetMetrics();
+    }
+
+    /**
+     * Executes a function (of Arduino sketch) with signature: void <i>functionName</i>();,
+     * waiting for its end at most the given time.<br>
+     *
+     * @param functionName The name of Arduino's function to call.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @throws ArduinoRpcTimeoutException If Arduino does not end the function in time.
+     * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems.
+     */
+    public void executeRemoteFunction(final String functionName, final long timeout, final TimeUnit unit)
+            throws ArduinoRpcJavaFailsException {
+        usbHandler.executeFunction(functionName, timeout, unit);
+    }
+
+    /**
+     * Executes a function (of Arduino sketch) with signature: int <i>functionName</i>(int arg1, int arg2);,
+     * waiting for its result at most the given time.<br>
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param arg1 First value to send.
+     * @param arg2 Second value to send.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @return The result of called function
+     * @throws ArduinoRpcTimeoutException If the result is not received in time.
+     * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems.
+     */
+    public Integer executeRemoteFunction(final String functionName, final int arg1, final int arg2,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return usbHandler.executeFunction(functionName, arg1, arg2, timeout, unit);
+    }
+
+    /**
+     * Executes a function (of Arduino sketch) with signature: string <i>functionName</i>(string);,
+     * waiting for its result at most the given time.<br>
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @return The result of called function
+     * @throws ArduinoRpcTimeoutException If the result is not received in time.
+     * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems.
+     */
+    public String executeRemoteFunction(final String functionName, final String argument,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return usbHandler.executeFunction(functionName, argument, timeout, unit);
+    }
+
+    /**
+     * Executes a method (of Arduino sketch) with signature: float <i>functionName</i>(float);,
+     * waiting for its result at most the given time.<br>
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @param timeout The maximum time to wait
+     * @param unit The unit of timeout
+     * @return The result of called function
+     * @throws ArduinoRpcTimeoutException If the result is not received in time.
+     * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems
+     */
+    public float executeRemoteFunction(final String functionName, final float argument,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return usbHandler.executeFunction(functionName, argument, timeout, unit);
+    }
+
+    /**
+     * Creates a batch of remote functions, executed together with a single write; the batch
+     * can hold up to the pipeline depth functions (see RemoteBatch).
+     *
+     * @return An empty batch bound to this connection
+     */
+    public RemoteBatch batch() {
+        return new RemoteBatch(usbHandler);
+    }
+
+    /**
+     * Asynchronous version of getCardName().<br>
+     * The calling thread is not blocked: the returned future is completed when the card name is received.<br>
+     * <b>Threading:</b> all the futures of asynchronous calls are completed by the thread which reads
+     * the serial port, so the stages chained with thenApply, thenAccept, whenComplete etc. are executed
+     * by that thread and a slow stage delays the parsing of all the following answers. Chain slow or
+     * blocking work with the *Async variants and an executor, i.e. thenAcceptAsync(action, executor).
+     *
+     * @return The future of registered card identification name; it fails with ArduinoRpcJavaFailsException
+     * in any case of communication error or java side problems.
+     */
+    public CompletableFuture<String> getCardNameAsync() {
+        return usbHandler.getCardNameAsync();
+    }
+
+    /**
+     * Asynchronous version of executeRemoteFunction(functionName).<br>
+     * The calling thread is not blocked: the returned future is completed when Arduino ends the function.<br>
+     * The future is completed by the serial reading thread (see getCardNameAsync()).
+     *
+     * @param functionName The name of Arduino's function to call.
+     * @return The future of function end; it fails with ArduinoRpcJavaFailsException
+     * in any case of communication error or java side problems.
+     */
+    public CompletableFuture<Void> executeRemoteFunctionAsync(final String functionName) {
+        return usbHandler.executeFunctionAsync(functionName);
+    }
+
+    /**
+     * Asynchronous version of executeRemoteFunction(functionName, arg1, arg2).<br>
+     * The calling thread is not blocked: the returned future is completed when the result is received.<br>
+     * The future is completed by the serial reading thread (see getCardNameAsync()).
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param arg1 First value to send.
+     * @param arg2 Second value to send.
+     * @return The future of function result; it fails with ArduinoRpcJavaFailsException
+     * in any case of communication error or java side problems.
+     */
+    public CompletableFuture<Integer> executeRemoteFunctionAsync(final String functionName, final int arg1, final int arg2) {
+        return usbHandler.executeFunctionAsync(functionName, arg1, arg2);
+    }
+
+    /**
+     * Asynchronous version of executeRemoteFunction(functionName, argument) with String argument.<br>
+     * The calling thread is not blocked: the returned future is completed when the result is received.<br>
+     * The future is completed by the serial reading thread (see getCardNameAsync()).
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @return The future of function result; it fails with ArduinoRpcJavaFailsException
+     * in any case of communication error or java side problems.
+     */
+    public CompletableFuture<String> executeRemoteFunctionAsync(final String functionName, final String argument) {
+        return usbHandler.executeFunctionAsync(functionName, argument);
+    }
+
+    /**
+     * Asynchronous version of executeRemoteFunction(functionName, argument) with float argument.<br>
+     * The calling thread is not blocked: the returned future is completed when the result is received.<br>
+     * The future is completed by the serial reading thread (see getCardNameAsync()).
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @return The future of function result; it fails with ArduinoRpcJavaFailsException
+     * in any case of communication error or java side problems.
+     */
+    public CompletableFuture<Float> executeRemoteFunctionAsync(final String functionName, final float argument) {
+        return usbHandler.executeFunctionAsync(functionName, argument);
+    }
+
+    /**
+     * Moves the execution of the methods called from Arduino to an executor (i.e. a bounded thread pool).<br>
+     * By default the called methods are executed by the thread which reads the serial port, so a slow
+     * method delays the reading of following data. With an executor, the reading thread queues the
+     * received call and returns immediately to the serial port.<br>
+     * The failures of queued calls, and the discarded calls, are notified to handlerReceivingException.
+     *
+     * @param executor The executor of received calls; null restores the execution into the reading thread.
+     * @param maxWaitingCalls The maximum number of received calls waiting to be started by the executor.
+     * @param policy The behaviour when the waiting calls reach the maximum; BLOCK stops the serial port
+     * reading (and the receiving of the results) until a waiting call is started.
+     */
+    public void setInboundExecutor(final Executor executor, final int maxWaitingCalls,
+            final InboundOverflowPolicy policy) {
+        usbHandler.setInboundExecutor(executor, maxWaitingCalls, policy);
+    }
+
+    /**
+     * Moves the execution of the methods called from Arduino to an executor, discarding the received
+     * calls when maxWaitingCalls calls are already waiting (DROP_NEWEST policy), so the serial port
+     * reading is never stopped.
+     *
+     * @param executor The executor of received calls; null restores the execution into the reading thread.
+     * @param maxWaitingCalls The maximum number of received calls waiting to be started by the executor.
+     */
+    public void setInboundExecutor(final Executor executor, final int maxWaitingCalls) {
+        setInboundExecutor(executor, maxWaitingCalls, InboundOverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Sets the execution order of the methods called from Arduino, when an executor is used.
+     *
+     * @param ordering The ordering of any method without a specific one (FIFO is the default).
+     */
+    public void setInboundOrdering(final InboundOrdering ordering) {
+        usbHandler.setInboundOrdering(ordering);
+    }
+
+    /**
+     * Sets the execution order of a method called from Arduino, when an executor is used.
+     *
+     * @param methodName The name of method called from Arduino.
+     * @param ordering The ordering of the method calls.
+     */
+    public void setInboundOrdering(final String methodName, final InboundOrdering ordering) {
+        usbHandler.setInboundOrdering(methodName, ordering);
+    }
+
+    /**
+     * Registers the handler of the Arduino calls with signature: void <i>name</i>();<br>
+     * The handlers allow to receive the Arduino calls without extending this class:<br>
+     * <blockquote><code>
+     *     ArduinoJavaSerialRpc rpc = new ArduinoJavaSerialRpc(port, ArduinoJavaSerialRpc.DATA_RATE_9600);<br>
+     *     rpc.onCall("buttonPressed", () -&gt; System.out.println("Pressed"));<br>
+     *     rpc.onCall("position", (x, y) -&gt; moveTo(x, y));<br>
+     *     rpc.onFloatCall("temperature", value -&gt; show(value));<br>
+     *     rpc.onStringCall("status", text -&gt; log(text));
+     * </code></blockquote>
+     * The arguments are received as primitive values (no boxing); the handlers with one argument have
+     * a method for each type (onFloatCall, onStringCall), so the lambdas do not need typed parameters.<br>
+     * A handler takes the place of the method with the same name and signature of the extending class.
+     * The handlers are executed as the methods: into the reading thread, or by the inbound executor.
+     *
+     * @param name The name used by the sketch to call Java
+     * @param handler The code to execute
+     */
+    public void onCall(final String name, final Runnable handler) {
+        usbHandler.onCall(name, handler);
+    }
+
+    /**
+     * Registers the handler of the Arduino calls with signature: void <i>name</i>(int, int);
+     *
+     * @param name The name used by the sketch to call Java
+     * @param handler The code to execute
+     */
+    public void onCall(final String name, final IntIntHandler handler) {
+        usbHandler.onCall(name, handler);
+    }
+
+    /**
+     * Registers the handler of the Arduino calls with signature: void <i>name</i>(float);
+     *
+     * @param name The name used by the sketch to call Java
+     * @param handler The code to execute
+     */
+    public void onFloatCall(final String name, final FloatHandler handler) {
+        usbHandler.onFloatCall(name, handler);
+    }
+
+    /**
+     * Registers the handler of the Arduino calls with signature: void <i>name</i>(String);
+     *
+     * @param name The name used by the sketch to call Java
+     * @param handler The code to execute
+     */
+    public void onStringCall(final String name, final StringHandler handler) {
+        usbHandler.onStringCall(name, handler);
+    }
+
+    /**
+     * Removes the handlers of a name (of any signature): the name is executed again by the
+     * method of the extending class, if any.
+     *
+     * @param name The name used by the sketch to call Java
+     */
+    public void removeCallHandlers(final String name) {
+        usbHandler.removeCallHandlers(name);
+    }
+
     /**
      * Overridable function called when an exception occurs during data reads from Arduino.
      *
@@ -336,18 +944,7 @@ public class ArduinoJavaSerialRpc {
      * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems
      */
     public void executeLocalMethod(final String methodToDo) throws ArduinoRpcJavaFailsException {
-        Method howToRun;
-        try {
-            howToRun = this.getClass().getMethod(methodToDo);
-        } catch (NoSuchMethodException | SecurityException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
-        try {
-            howToRun.invoke(this);
-        } catch (IllegalAccessException | IllegalArgumentException |
-                InvocationTargetException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
+        localMethods().invoke(this, methodToDo);
     }
 
     /**
@@ -359,18 +956,7 @@ public class ArduinoJavaSerialRpc {
      * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems
      */
     public void executeLocalMethod(final String methodToDo, final int arg1, final int arg2) throws ArduinoRpcJavaFailsException {
-        Method howToRun;
-        try {
-            howToRun = this.getClass().getMethod(methodToDo, Integer.class, Integer.class);
-        } catch (NoSuchMethodException | SecurityException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
-        try {
-            howToRun.invoke(this, arg1, arg2);
-        } catch (IllegalAccessException | IllegalArgumentException |
-                InvocationTargetException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
+        localMethods().invoke(this, methodToDo, arg1, arg2);
     }
 
     /**
@@ -381,18 +967,7 @@ public class ArduinoJavaSerialRpc {
      * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems
      */
     public void executeLocalMethod(final String methodToDo, final String arg) throws ArduinoRpcJavaFailsException {
-        Method howToRun;
-        try {
-            howToRun = this.getClass().getMethod(methodToDo, String.class);
-        } catch (NoSuchMethodException | SecurityException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
-        try {
-            howToRun.invoke(this, arg);
-        } catch (IllegalAccessException | IllegalArgumentException |
-                InvocationTargetException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
+        localMethods().invoke(this, methodToDo, arg);
     }
 
     /**
@@ -403,18 +978,20 @@ public class ArduinoJavaSerialRpc {
      * @throws ArduinoRpcJavaFailsException In any case of communication error or java side problems
      */
     public void executeLocalMethod(final String methodToDo, final float arg) throws ArduinoRpcJavaFailsException {
-        Method howToRun;
-        try {
-            howToRun = this.getClass().getMethod(methodToDo, Float.class);
-        } catch (NoSuchMethodException | SecurityException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
-        }
-        try {
-            howToRun.invoke(this, arg);
-        } catch (IllegalAccessException | IllegalArgumentException |
-                InvocationTargetException ex) {
-            throw new ArduinoRpcJavaFailsException(ex);
+        localMethods().invoke(this, methodToDo, arg);
+    }
+
+    /**
+     * Returns the dispatch table of the methods callable from Arduino.
+     * It is built by connect(), or at the first Arduino call if the table is used without a connection.
+     */
+    private LocalMethodTable localMethods() {
+        LocalMethodTable table = localMethods;
+        if (table == null) {
+            table = LocalMethodTable.of(getClass());
+            localMethods = table;
         }
+        return table;
     }
 
     // TODO restore it in case of required use in connect() above
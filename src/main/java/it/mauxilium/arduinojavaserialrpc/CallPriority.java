@@ -0,0 +1,27 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * Sending lane of the calls of a remote function (see ArduinoJavaSerialRpc.setCallPriority).<br>
+ * When the link is free, the next call sent is the oldest one of the highest lane with waiting calls;
+ * a lane passed over too many times sends one call anyway, so the lower lanes are never starved.
+ */
+public enum CallPriority {
+    /**
+     * Safety commands (i.e. an emergency stop): sent before any other waiting call.
+     */
+    CRITICAL,
+    /**
+     * The default lane of the calls.
+     */
+    NORMAL,
+    /**
+     * Polling and bulk transfers, sent when no other call is waiting.
+     */
+    BULK
+}
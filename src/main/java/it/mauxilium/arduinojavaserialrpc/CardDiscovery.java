@@ -0,0 +1,212 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcException;
+import it.mauxilium.arduinojavaserialrpc.transport.RxtxTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the ArduinoSerialRpc cards connected to the serial ports.<br>
+ * Any candidate port is opened and asked for its card name (the GetCardName handshake) with a
+ * short timeout; the ports are probed in parallel, so the discovery of many ports takes about
+ * the time of a single connection instead of the sum of them.<br>
+ * The results are cached: a following discover() probes only the ports added since the previous
+ * one and forgets the removed ones, so the already known cards (and the ports which are not
+ * cards) are not opened again. invalidate() forces a new probe of all the ports.<br>
+ * <br>
+ * For example:<br>
+ * <blockquote><code>
+ *     CardDiscovery discovery = new CardDiscovery(ArduinoJavaSerialRpc.DATA_RATE_9600);<br>
+ *     for (DiscoveredCard card : discovery.discover()) {<br>
+ *     &nbsp;&nbsp;&nbsp;&nbsp;System.out.println(card.getCardName() + " is on " + card.getPortName());<br>
+ *     }
+ * </code></blockquote>
+ */
+public class CardDiscovery {
+
+    /**
+     * Default time allowed to a card to answer to GetCardName
+     */
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 500;
+
+    /**
+     * Default maximum number of ports probed at the same time
+     */
+    public static final int DEFAULT_PARALLELISM = 32;
+
+    /**
+     * Time allowed to the bootloader of the cards reset by the opening of the port
+     */
+    private static final long CARD_BOOT_MILLIS = 2000;
+
+    /**
+     * Source of the candidate port names
+     */
+    public interface PortLister {
+        String[] listPorts();
+    }
+
+    /**
+     * Creator of the (not yet open) transport of a port
+     */
+    public interface TransportFactory {
+        SerialTransport create(String portName);
+    }
+
+    private final PortLister portLister;
+    private final TransportFactory transportFactory;
+    private volatile long handshakeTimeoutMillis = DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+
+    /**
+     * Probed ports: the found card, or null if the port is not an ArduinoSerialRpc card
+     */
+    private final Map<String, DiscoveredCard> probedPorts = new HashMap<>();
+
+    /**
+     * Creates a discovery of the RXTX serial ports.
+     *
+     * @param baudRate The speed used by the sketches (the value of Serial.begin)
+     */
+    public CardDiscovery(final int baudRate) {
+        this(RxtxTransport::portScanner, portName -> new RxtxTransport(portName, baudRate));
+    }
+
+    /**
+     * Creates a discovery of custom ports (i.e. NioSerialTransport on the Linux devices).
+     *
+     * @param lister Source of the candidate port names, called at any discover()
+     * @param factory Creator of the transport of a port
+     */
+    public CardDiscovery(final PortLister lister, final TransportFactory factory) {
+        portLister = lister;
+        transportFactory = factory;
+    }
+
+    public void setHandshakeTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Handshake timeout must be positive: " + timeout);
+        }
+        handshakeTimeoutMillis = Math.max(unit.toMillis(timeout), 1);
+    }
+
+    public void setParallelism(final int maxProbes) {
+        if (maxProbes < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + maxProbes);
+        }
+        parallelism = maxProbes;
+    }
+
+    /**
+     * Returns the cards connected to the candidate ports. The ports not probed yet are
+     * probed in parallel; the results of the other ones come from the cache.
+     *
+     * @return The found cards, sorted by port name
+     */
+    public synchronized List<DiscoveredCard> discover() {
+        Set<String> ports = new HashSet<>(Arrays.asList(portLister.listPorts()));
+        probedPorts.keySet().retainAll(ports);
+        List<String> newPorts = new ArrayList<>();
+        for (String port : ports) {
+            if (probedPorts.containsKey(port) == false) {
+                newPorts.add(port);
+            }
+        }
+        probedPorts.putAll(probeAll(newPorts));
+
+        List<DiscoveredCard> cards = new ArrayList<>();
+        for (DiscoveredCard card : probedPorts.values()) {
+            if (card != null) {
+                cards.add(card);
+            }
+        }
+        cards.sort((card1, card2) -> card1.getPortName().compareTo(card2.getPortName()));
+        return Collections.unmodifiableList(cards);
+    }
+
+    /**
+     * Forgets the cached results, so the next discover() probes all the ports again.
+     */
+    public synchronized void invalidate() {
+        probedPorts.clear();
+    }
+
+    /**
+     * Probes a single port, without using the cache.
+     *
+     * @param portName The port to probe
+     * @return The found card, or null if the port can not be opened or it does not answer as a card
+     */
+    public DiscoveredCard probe(final String portName) {
+        ArduinoJavaSerialRpc connector = new ArduinoJavaSerialRpc(transportFactory.create(portName));
+        try {
+            // A port which is not a card fails here, as soon as its readiness is not possible anymore
+            connector.setConnectTimeout(CARD_BOOT_MILLIS + handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+            connector.connect();
+            connector.setDefaultTimeout(handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            String cardName = connector.getCardName();
+            return new DiscoveredCard(portName, cardName, System.nanoTime() - start);
+        } catch (ArduinoRpcException ex) {
+            return null;
+        } finally {
+            try {
+                connector.disconnect();
+            } catch (IOException ignored) {
+                // The port is not used anymore
+            }
+        }
+    }
+
+    private Map<String, DiscoveredCard> probeAll(final List<String> ports) {
+        Map<String, DiscoveredCard> results = new HashMap<>();
+        if (ports.isEmpty()) {
+            return results;
+        }
+        ExecutorService probes = Executors.newFixedThreadPool(Math.min(ports.size(), parallelism), task -> {
+            Thread thread = new Thread(task, "ArduinoRpc-discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Callable<DiscoveredCard>> tasks = new ArrayList<>();
+            for (String port : ports) {
+                tasks.add(() -> probe(port));
+            }
+            List<Future<DiscoveredCard>> probed = probes.invokeAll(tasks);
+            for (int index = 0; index < ports.size(); index++) {
+                results.put(ports.get(index), probed.get(index).get());
+            }
+        } catch (InterruptedException ex) {
+            // The not completed ports are probed again by the next discover()
+            Thread.currentThread().interrupt();
+            results.clear();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Probing serial ports", ex.getCause());
+        } finally {
+            probes.shutdownNow();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,25 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * The ways used by "connect()" to wait until the Arduino card is ready to receive the calls.
+ */
+public enum ConnectReadiness {
+    /**
+     * The card is asked for its name (GetCardName) until it answers, or until the connection
+     * timeout expires; any frame sent by the sketch (i.e. a message printed at the end of setup)
+     * means the card is ready too. Out of the pipelined mode a probe is sent only when the sketch has
+     * surely taken the previous one as a command (more than a second later). It is the default one.
+     */
+    PROBE,
+    /**
+     * The card is considered ready after a fixed delay of two seconds (the time of the bootloader
+     * of the cards reset by the opening of the port); nothing is sent before the delay.
+     */
+    FIXED_DELAY
+}
@@ -0,0 +1,49 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ArduinoSerialRpc card found by CardDiscovery: the port where it is connected,
+ * the name returned by its sketch and the time of the GetCardName handshake.
+ */
+public class DiscoveredCard {
+
+    private final String portName;
+    private final String cardName;
+    private final long handshakeNanos;
+
+    DiscoveredCard(final String port, final String name, final long latencyNanos) {
+        portName = port;
+        cardName = name;
+        handshakeNanos = latencyNanos;
+    }
+
+    public String getPortName() {
+        return portName;
+    }
+
+    public String getCardName() {
+        return cardName;
+    }
+
+    /**
+     * Returns the time from the GetCardName request to its answer (the connection time excluded).
+     *
+     * @param unit The unit of returned value
+     * @return The handshake latency
+     */
+    public long getHandshakeLatency(final TimeUnit unit) {
+        return unit.convert(handshakeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return cardName + " on " + portName + " (handshake " + (handshakeNanos / 1000) + "us)";
+    }
+}
@@ -0,0 +1,22 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * Execution order of the methods called from Arduino, when they are executed
+ * by an executor (see ArduinoJavaSerialRpc.setInboundExecutor).
+ */
+public enum InboundOrdering {
+    /**
+     * The calls of the same method are executed one at time, in the receiving order.
+     */
+    FIFO,
+    /**
+     * The calls of the same method can be executed at the same time.
+     */
+    PARALLEL
+}
@@ -0,0 +1,28 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * Behaviour of the receiving side when the calls from Arduino, waiting for the
+ * executor (see ArduinoJavaSerialRpc.setInboundExecutor), reach the allowed maximum.
+ */
+public enum InboundOverflowPolicy {
+    /**
+     * The serial port reading waits until a call is started (backpressure up to Arduino).<br>
+     * While it waits nothing else is read: the results of the calls to Arduino are delayed too, and the
+     * calls waiting for them may expire. A call received by an interrupted reading thread is discarded.
+     */
+    BLOCK,
+    /**
+     * The received call is discarded.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest waiting call is discarded to make room for the received one.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,27 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * The states of the link with the Arduino card, when the automatic reconnection is enabled
+ * (see ArduinoJavaSerialRpc.setAutoReconnect).
+ */
+public enum LinkState {
+    /**
+     * The card is connected and it answers the calls.
+     */
+    CONNECTED,
+    /**
+     * The link is lost (i.e. the cable is unplugged, or the card is restarted): the calls fail
+     * at once, while the card is searched again with increasing delays.
+     */
+    RECONNECTING,
+    /**
+     * The link is closed by disconnect(): no more reconnections are attempted.
+     */
+    DISCONNECTED
+}
@@ -0,0 +1,23 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * Receiver of the changes of the link with the Arduino card.<br>
+ * It is called by the supervising thread of the connection, so it must not block for a long time.
+ */
+public interface LinkStateListener {
+
+    /**
+     * Notifies a new state of the link.
+     *
+     * @param state The new state
+     * @param portName The port of the card (the new one, after a reconnection on another port)
+     * @param cause The reason of the link loss (RECONNECTING only), otherwise null
+     */
+    void linkStateChanged(LinkState state, String portName, Exception cause);
+}
@@ -0,0 +1,145 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dispatch table of the methods callable from Arduino, built once for any class
+ * which extends ArduinoJavaSerialRpc.<br>
+ * Any public method with a supported signature is converted into a MethodHandle with
+ * primitive arguments, so an Arduino call is a map lookup and a direct invocation.<br>
+ * When a name has both the boxed (i.e. Integer) and the primitive (i.e. int) version,
+ * the boxed one is used, as the reflective lookup did before.
+ */
+class LocalMethodTable {
+
+    private static final ClassValue<LocalMethodTable> TABLES = new ClassValue<LocalMethodTable>() {
+        @Override
+        protected LocalMethodTable computeValue(final Class<?> type) {
+            return new LocalMethodTable(type);
+        }
+    };
+
+    private static final MethodType VOID_TYPE =
+            MethodType.methodType(void.class, ArduinoJavaSerialRpc.class);
+    private static final MethodType INT_INT_TYPE =
+            MethodType.methodType(void.class, ArduinoJavaSerialRpc.class, int.class, int.class);
+    private static final MethodType FLOAT_TYPE =
+            MethodType.methodType(void.class, ArduinoJavaSerialRpc.class, float.class);
+    private static final MethodType STRING_TYPE =
+            MethodType.methodType(void.class, ArduinoJavaSerialRpc.class, String.class);
+
+    private final String className;
+    private final Map<String, MethodHandle> voidMethods = new HashMap<>();
+    private final Map<String, MethodHandle> intIntMethods = new HashMap<>();
+    private final Map<String, MethodHandle> floatMethods = new HashMap<>();
+    private final Map<String, MethodHandle> stringMethods = new HashMap<>();
+
+    static LocalMethodTable of(final Class<? extends ArduinoJavaSerialRpc> type) {
+        return TABLES.get(type);
+    }
+
+    private LocalMethodTable(final Class<?> type) {
+        className = type.getName();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            Class<?>[] params = method.getParameterTypes();
+            if (params.length == 0) {
+                register(lookup, method, voidMethods, VOID_TYPE, true);
+            } else if ((params.length == 2) && (params[0] == params[1]) &&
+                    ((params[0] == Integer.class) || (params[0] == int.class))) {
+                register(lookup, method, intIntMethods, INT_INT_TYPE, params[0] == Integer.class);
+            } else if ((params.length == 1) && ((params[0] == Float.class) || (params[0] == float.class))) {
+                register(lookup, method, floatMethods, FLOAT_TYPE, params[0] == Float.class);
+            } else if ((params.length == 1) && (params[0] == String.class)) {
+                register(lookup, method, stringMethods, STRING_TYPE, true);
+            }
+        }
+    }
+
+    private static void register(final MethodHandles.Lookup lookup, final Method method,
+            final Map<String, MethodHandle> methods, final MethodType type, final boolean preferred) {
+        if ((preferred == false) && methods.containsKey(method.getName())) {
+            return;
+        }
+        try {
+            // Public methods of not public classes (i.e. nested ones) require it
+            method.setAccessible(true);
+            methods.put(method.getName(), lookup.unreflect(method).asType(type));
+        } catch (IllegalAccessException | RuntimeException ignored) {
+            // Not accessible method: it is not callable from Arduino
+        }
+    }
+
+    void invoke(final ArduinoJavaSerialRpc target, final String methodName) throws ArduinoRpcJavaFailsException {
+        MethodHandle handle = find(voidMethods, methodName, "");
+        try {
+            handle.invokeExact(target);
+        } catch (Throwable ex) {
+            throw failure(ex);
+        }
+    }
+
+    void invoke(final ArduinoJavaSerialRpc target, final String methodName, final int arg1, final int arg2)
+            throws ArduinoRpcJavaFailsException {
+        MethodHandle handle = find(intIntMethods, methodName, "java.lang.Integer, java.lang.Integer");
+        try {
+            handle.invokeExact(target, arg1, arg2);
+        } catch (Throwable ex) {
+            throw failure(ex);
+        }
+    }
+
+    void invoke(final ArduinoJavaSerialRpc target, final String methodName, final float arg)
+            throws ArduinoRpcJavaFailsException {
+        MethodHandle handle = find(floatMethods, methodName, "java.lang.Float");
+        try {
+            handle.invokeExact(target, arg);
+        } catch (Throwable ex) {
+            throw failure(ex);
+        }
+    }
+
+    void invoke(final ArduinoJavaSerialRpc target, final String methodName, final String arg)
+            throws ArduinoRpcJavaFailsException {
+        MethodHandle handle = find(stringMethods, methodName, "java.lang.String");
+        try {
+            handle.invokeExact(target, arg);
+        } catch (Throwable ex) {
+            throw failure(ex);
+        }
+    }
+
+    private MethodHandle find(final Map<String, MethodHandle> methods, final String methodName,
+            final String signature) throws ArduinoRpcJavaFailsException {
+        MethodHandle handle = methods.get(methodName);
+        if (handle == null) {
+            throw new ArduinoRpcJavaFailsException(
+                    new NoSuchMethodException(className + "." + methodName + "(" + signature + ")"));
+        }
+        return handle;
+    }
+
+    private static ArduinoRpcJavaFailsException failure(final Throwable ex) {
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new ArduinoRpcJavaFailsException((Exception) ex);
+    }
+}
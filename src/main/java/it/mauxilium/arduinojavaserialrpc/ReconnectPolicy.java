@@ -0,0 +1,111 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the automatic reconnection of a card (see ArduinoJavaSerialRpc.setAutoReconnect).<br>
+ * The link is considered lost when the transport stops receiving data (i.e. the port is removed),
+ * when a command can not be written, or when the card does not answer a heartbeat.
+ * Then the port is opened again until the same card (the same card name) answers; the delay
+ * between the attempts starts from the first delay and it is doubled up to the maximum one.<br>
+ * When a card search is set, the card is also searched on the other ports, because a card
+ * plugged again may receive a different port name.<br>
+ * <br>
+ * For example:<br>
+ * <blockquote><code>
+ *     ReconnectPolicy policy = new ReconnectPolicy();<br>
+ *     policy.setBackoff(500, 30000, TimeUnit.MILLISECONDS);<br>
+ *     policy.setCardSearch(new CardDiscovery(ArduinoJavaSerialRpc.DATA_RATE_9600),<br>
+ *     &nbsp;&nbsp;&nbsp;&nbsp;port -&gt; new RxtxTransport(port, ArduinoJavaSerialRpc.DATA_RATE_9600));<br>
+ *     rpc.setAutoReconnect(policy);<br>
+ *     rpc.connect();
+ * </code></blockquote>
+ */
+public class ReconnectPolicy {
+
+    public static final long DEFAULT_FIRST_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 5000;
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MILLIS = 1000;
+
+    private long firstDelayMillis = DEFAULT_FIRST_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private long heartbeatIntervalMillis = DEFAULT_HEARTBEAT_INTERVAL_MILLIS;
+    private long heartbeatTimeoutMillis = DEFAULT_HEARTBEAT_TIMEOUT_MILLIS;
+    private CardDiscovery cardSearch;
+    private CardDiscovery.TransportFactory searchTransportFactory;
+
+    /**
+     * Sets the delays between the reconnection attempts.
+     *
+     * @param firstDelay The delay after the first failed attempt
+     * @param maxDelay The maximum delay, reached doubling the previous one
+     * @param unit The unit of delays
+     */
+    public void setBackoff(final long firstDelay, final long maxDelay, final TimeUnit unit) {
+        if ((firstDelay <= 0) || (maxDelay < firstDelay)) {
+            throw new IllegalArgumentException("Backoff delays must be positive, the maximum not lower than the first: " +
+                    firstDelay + ", " + maxDelay);
+        }
+        firstDelayMillis = Math.max(unit.toMillis(firstDelay), 1);
+        maxDelayMillis = Math.max(unit.toMillis(maxDelay), firstDelayMillis);
+    }
+
+    /**
+     * Sets the heartbeat: when the card sends nothing for an interval and no call is waiting for a
+     * result, the card name is requested; no answer within the timeout means the link is lost.
+     *
+     * @param interval The time without data before a heartbeat (0 disables the heartbeat)
+     * @param timeout The time allowed to the heartbeat answer
+     * @param unit The unit of interval and timeout
+     */
+    public void setHeartbeat(final long interval, final long timeout, final TimeUnit unit) {
+        if ((interval < 0) || (timeout <= 0)) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive or zero, timeout must be positive: " +
+                    interval + ", " + timeout);
+        }
+        heartbeatIntervalMillis = (interval == 0) ? 0 : Math.max(unit.toMillis(interval), 1);
+        heartbeatTimeoutMillis = Math.max(unit.toMillis(timeout), 1);
+    }
+
+    /**
+     * Enables the search of the card on the other ports, when its port can not be opened again.
+     *
+     * @param discovery The finder of the cards (its probe results are invalidated at any search)
+     * @param transportFactory Creator of the transport of the port where the card is found
+     */
+    public void setCardSearch(final CardDiscovery discovery, final CardDiscovery.TransportFactory transportFactory) {
+        cardSearch = discovery;
+        searchTransportFactory = transportFactory;
+    }
+
+    public long getFirstDelay(final TimeUnit unit) {
+        return unit.convert(firstDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getMaxDelay(final TimeUnit unit) {
+        return unit.convert(maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getHeartbeatInterval(final TimeUnit unit) {
+        return unit.convert(heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getHeartbeatTimeout(final TimeUnit unit) {
+        return unit.convert(heartbeatTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public CardDiscovery getCardSearch() {
+        return cardSearch;
+    }
+
+    public CardDiscovery.TransportFactory getSearchTransportFactory() {
+        return searchTransportFactory;
+    }
+}
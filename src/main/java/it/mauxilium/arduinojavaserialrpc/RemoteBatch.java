@@ -0,0 +1,129 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+import it.mauxilium.arduinojavaserialrpc.businesslogic.CallBatch;
+import it.mauxilium.arduinojavaserialrpc.businesslogic.UsbHandler;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A list of remote functions executed together, created by ArduinoJavaSerialRpc.batch().<br>
+ * The functions are sent in the same order they are added, and their results are returned
+ * together, in the same order.<br>
+ * All the calls are encoded into a single buffer and sent with a single write, so the batch can not
+ * have more functions than the pipeline depth (see ArduinoJavaSerialRpc.setPipelineDepth): with the
+ * default depth the batch holds a single function. The results of the cacheable functions
+ * (see ArduinoJavaSerialRpc.setCacheable) are taken from memory as for the single calls.<br>
+ * <br>
+ * For example:<br>
+ * <blockquote><code>
+ *     List&lt;Object&gt; results = libraryInstance.batch()
+ *             .executeRemoteFunction("setLightIntensity", 2, 132)
+ *             .executeRemoteFunction("readTemperature", 1.0f)
+ *             .execute();
+ * </code></blockquote>
+ * A batch can be executed more times.
+ */
+public class RemoteBatch {
+
+    private final UsbHandler usbHandler;
+    private final CallBatch calls = new CallBatch();
+
+    RemoteBatch(final UsbHandler handler) {
+        usbHandler = handler;
+    }
+
+    /**
+     * Adds a function with signature: void <i>functionName</i>();
+     *
+     * @param functionName The name of Arduino's function to call.
+     * @return This batch
+     */
+    public RemoteBatch executeRemoteFunction(final String functionName) {
+        calls.addCall(functionName);
+        return this;
+    }
+
+    /**
+     * Adds a function with signature: int <i>functionName</i>(int arg1, int arg2);
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param arg1 First value to send.
+     * @param arg2 Second value to send.
+     * @return This batch
+     */
+    public RemoteBatch executeRemoteFunction(final String functionName, final int arg1, final int arg2) {
+        calls.addCall(functionName, arg1, arg2);
+        return this;
+    }
+
+    /**
+     * Adds a function with signature: string <i>functionName</i>(string);
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @return This batch
+     */
+    public RemoteBatch executeRemoteFunction(final String functionName, final String argument) {
+        calls.addCall(functionName, argument);
+        return this;
+    }
+
+    /**
+     * Adds a function with signature: float <i>functionName</i>(float);
+     *
+     * @param functionName The name of function to call, in Arduino sketch.
+     * @param argument The parameter to send
+     * @return This batch
+     */
+    public RemoteBatch executeRemoteFunction(final String functionName, final float argument) {
+        calls.addCall(functionName, argument);
+        return this;
+    }
+
+    /**
+     * Returns the number of functions into the batch
+     * @return the number of added functions
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Executes all the functions and waits for their results.
+     *
+     * @return The results (Integer, Float, String or null for void functions) in the same order of functions.
+     * @throws ArduinoRpcJavaFailsException If any function fails, if the batch has more functions than the
+     * pipeline depth, or in any case of communication error or java side problems.
+     */
+    public List<Object> execute() throws ArduinoRpcJavaFailsException {
+        try {
+            return executeAsync().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ArduinoRpcJavaFailsException("Waiting results of batch execution", ex);
+        } catch (ExecutionException ex) {
+            throw (ArduinoRpcJavaFailsException) ex.getCause();
+        }
+    }
+
+    /**
+     * Executes all the functions without waiting for their results.<br>
+     * The future is completed by the serial reading thread: chain slow work with the *Async variants
+     * and an executor (see ArduinoJavaSerialRpc.getCardNameAsync()).
+     *
+     * @return The future of results, in the same order of functions; it fails with ArduinoRpcJavaFailsException
+     * if any function fails or if the batch has more functions than the pipeline depth.
+     */
+    public CompletableFuture<List<Object>> executeAsync() {
+        return usbHandler.executeBatchAsync(calls);
+    }
+}
@@ -0,0 +1,21 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc;
+
+/**
+ * The protocols available to communicate with the Arduino card.
+ */
+public enum WireProtocol {
+    /**
+     * Line based text protocol; it is the default one and it is supported by any sketch.
+     */
+    TEXT,
+    /**
+     * Compact binary frames with CRC; it is used only if the sketch accepts it during the connection.
+     */
+    BINARY
+}
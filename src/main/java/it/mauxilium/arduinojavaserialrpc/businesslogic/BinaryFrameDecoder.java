@@ -0,0 +1,201 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental decoder of the binary frames (see BinaryProtocol).<br>
+ * The received bytes can be fed in any fragmentation; any complete and valid frame
+ * is notified to the listener. Frames with a wrong CRC are discarded and the decoder
+ * searches the next start byte.
+ */
+class BinaryFrameDecoder {
+
+    private enum State { START, LENGTH, TYPE, PAYLOAD, CRC }
+
+    private final FrameListener listener;
+    private final byte[] payload = new byte[BinaryProtocol.MAX_PAYLOAD];
+    private final ByteBuffer payloadView = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+    private State state = State.START;
+    private int payloadSize;
+    private int received;
+    private byte frameType;
+    private int crc;
+    private volatile FunctionTable functionTable;
+
+    BinaryFrameDecoder(final FrameListener frameListener) {
+        listener = frameListener;
+    }
+
+    /**
+     * Sets the ids of the Java methods, to decode the COMMAND_ID frames.
+     *
+     * @param table The function table sent by the sketch
+     */
+    void setFunctionTable(final FunctionTable table) {
+        functionTable = table;
+    }
+
+    void feed(final byte[] data, final int offset, final int length) {
+        for (int index = offset; index < offset + length; index++) {
+            feed(data[index]);
+        }
+    }
+
+    private void feed(final byte data) {
+        switch (state) {
+            case START:
+                if (data == BinaryProtocol.START_BYTE) {
+                    state = State.LENGTH;
+                }
+                break;
+            case LENGTH:
+                payloadSize = data & 0xFF;
+                received = 0;
+                crc = BinaryProtocol.crc8(0, data);
+                state = State.TYPE;
+                break;
+            case TYPE:
+                frameType = data;
+                crc = BinaryProtocol.crc8(crc, data);
+                state = (payloadSize > 0) ? State.PAYLOAD : State.CRC;
+                break;
+            case PAYLOAD:
+                payload[received++] = data;
+                crc = BinaryProtocol.crc8(crc, data);
+                if (received == payloadSize) {
+                    state = State.CRC;
+                }
+                break;
+            default:
+                state = State.START;
+                if ((crc & 0xFF) == (data & 0xFF)) {
+                    decodeFrame();
+                } else {
+                    listener.frameError("Discarding binary frame with wrong CRC");
+                }
+        }
+    }
+
+    private void decodeFrame() {
+        payloadView.clear();
+        payloadView.limit(payloadSize);
+        try {
+            switch (frameType) {
+                case BinaryProtocol.FRAME_RESULT:
+                    int requestId = payloadView.get() & 0xFF;
+                    listener.result(requestId, decodeValue((char) payloadView.get()), frameSize());
+                    break;
+                case BinaryProtocol.FRAME_ERROR:
+                    int failedId = payloadView.get() & 0xFF;
+                    listener.error(failedId, remainingString(), frameSize());
+                    break;
+                case BinaryProtocol.FRAME_COMMAND:
+                    decodeCommand(false);
+                    break;
+                case BinaryProtocol.FRAME_COMMAND_ID:
+                    decodeCommand(true);
+                    break;
+                case BinaryProtocol.FRAME_MESSAGE:
+                    listener.message(remainingString());
+                    break;
+                case BinaryProtocol.FRAME_TELEMETRY:
+                    decodeTelemetry();
+                    break;
+                case BinaryProtocol.FRAME_CREDIT:
+                    listener.credit(payloadView.getShort() & 0xFFFF);
+                    break;
+                default:
+                    listener.frameError("Not supported binary frame type: " + frameType);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            listener.frameError("Malformed binary frame of type: " + frameType);
+        }
+    }
+
+    private Object decodeValue(final char dataType) {
+        switch (dataType) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                return null;
+            case UsbHandler.INT_ARG_PREAMBLE:
+                return payloadView.getInt();
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                return payloadView.getFloat();
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                return remainingString();
+            default:
+                throw new IllegalArgumentException("Not supported received data type: " + dataType);
+        }
+    }
+
+    private void decodeCommand(final boolean byId) {
+        char signature = (char) payloadView.get();
+        String name = byId ? methodName(payloadView.get() & 0xFF) : string(payloadView.get() & 0xFF);
+        switch (signature) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                listener.command(name, signature, 0, 0, 0, null, frameSize());
+                break;
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                int arg1 = payloadView.getInt();
+                int arg2 = payloadView.getInt();
+                listener.command(name, signature, arg1, arg2, 0, null, frameSize());
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                listener.command(name, signature, 0, 0, payloadView.getFloat(), null, frameSize());
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                listener.command(name, signature, 0, 0, 0, string(payloadView.get() & 0xFF), frameSize());
+                break;
+            default:
+                throw new IllegalArgumentException("Not supported argument model: " + signature);
+        }
+    }
+
+    /**
+     * An unknown id is kept as name, so its dispatch fails.
+     */
+    private String methodName(final int id) {
+        FunctionTable table = functionTable;
+        String name = (table != null) ? table.methodName(id) : null;
+        return (name != null) ? name : String.valueOf(FunctionTable.ID_PREFIX) + id;
+    }
+
+    private void decodeTelemetry() {
+        int channel = payloadView.get() & 0xFF;
+        if ((payloadView.remaining() % BinaryProtocol.TELEMETRY_SAMPLE_SIZE) != 0) {
+            throw new IllegalArgumentException("Truncated telemetry sample");
+        }
+        while (payloadView.hasRemaining()) {
+            long cardTime = payloadView.getInt() & 0xFFFFFFFFL;
+            listener.telemetry(channel, cardTime, payloadView.getFloat());
+        }
+    }
+
+    /**
+     * Start byte, length, type, payload and CRC
+     */
+    private int frameSize() {
+        return payloadSize + 4;
+    }
+
+    private String remainingString() {
+        return string(payloadView.remaining());
+    }
+
+    private String string(final int size) {
+        if (size > payloadView.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(payload, payloadView.position(), size, StandardCharsets.ISO_8859_1);
+        payloadView.position(payloadView.position() + size);
+        return value;
+    }
+}
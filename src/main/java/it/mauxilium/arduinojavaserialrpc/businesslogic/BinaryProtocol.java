@@ -0,0 +1,126 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact binary framing, alternative to the line based text protocol.<br>
+ * Any frame has the following schema:<br>
+ * <ol>
+ * <li>Start byte (0xA5)</li>
+ * <li>Payload length (unsigned byte)</li>
+ * <li>Frame type (byte)</li>
+ * <li>Payload (bytes)</li>
+ * <li>CRC-8 Dallas/Maxim of length, type and payload (byte)</li>
+ * </ol>
+ * Payloads (integers are int32 little endian, floats are IEEE-754 little endian):<br>
+ * <ul>
+ * <li>CALL (Java to Arduino): request id, signature, name length, name, arguments</li>
+ * <li>RESULT: request id, data type, value</li>
+ * <li>ERROR: request id, message</li>
+ * <li>COMMAND (Arduino to Java): signature, name length, name, arguments</li>
+ * <li>MESSAGE: message</li>
+ * <li>SYNC: empty, sent by Java when it is ready to receive binary frames</li>
+ * <li>TELEMETRY (Arduino to Java): channel (unsigned byte), then up to 31 samples of
+ * card timestamp (uint32 micros) and value (float)</li>
+ * <li>CREDIT (Arduino to Java): bytes (uint16), see CreditWindow</li>
+ * <li>CALL_ID (Java to Arduino): request id, signature, function id (unsigned byte), arguments</li>
+ * <li>COMMAND_ID (Arduino to Java): signature, method id (unsigned byte), arguments</li>
+ * </ul>
+ * Signature and data type bytes are the same chars of the text protocol (i.e. UsbHandler.FLOAT_ARG_PREAMBLE);
+ * String arguments are preceded by their length, String values fill the remaining payload.<br>
+ * The request id is zero when the pipelined mode is not active.<br>
+ * The frames with id replace the ones with name after the negotiation of the ids (see FunctionTable).<br>
+ * The call frames are encoded by CommandEncoder.
+ */
+class BinaryProtocol {
+
+    static final byte START_BYTE = (byte) 0xA5;
+
+    static final byte FRAME_CALL = 0x01;
+    static final byte FRAME_RESULT = 0x02;
+    static final byte FRAME_ERROR = 0x03;
+    static final byte FRAME_COMMAND = 0x04;
+    static final byte FRAME_MESSAGE = 0x05;
+    static final byte FRAME_SYNC = 0x06;
+    static final byte FRAME_TELEMETRY = 0x07;
+    static final byte FRAME_CREDIT = 0x08;
+    static final byte FRAME_CALL_ID = 0x09;
+    static final byte FRAME_COMMAND_ID = 0x0A;
+
+    /**
+     * Bytes of a sample of a TELEMETRY frame: timestamp and value
+     */
+    static final int TELEMETRY_SAMPLE_SIZE = 8;
+
+    static final int MAX_PAYLOAD = 255;
+
+    /**
+     * Void function called (in text mode) to ask the switch to binary protocol
+     */
+    static final String NEGOTIATION_COMMAND = "MArC_bin";
+
+    private static final int HEADER_SIZE = 3;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Sends the frame which confirms to Arduino that Java is reading binary frames.
+     *
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    static void sendSync(final OutputStream output) throws IOException {
+        send(startFrame(FRAME_SYNC, 0), output);
+    }
+
+    /**
+     * Computes the CRC-8 Dallas/Maxim (the same of avr-libc _crc_ibutton_update).
+     *
+     * @param crc The CRC of previous bytes
+     * @param data The next byte
+     * @return The updated CRC
+     */
+    static int crc8(final int crc, final byte data) {
+        int result = (crc ^ data) & 0xFF;
+        for (int bit = 0; bit < 8; bit++) {
+            if ((result & 0x01) != 0) {
+                result = (result >>> 1) ^ 0x8C;
+            } else {
+                result = result >>> 1;
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer startFrame(final byte frameType, final int payloadSize) throws IOException {
+        if (payloadSize > MAX_PAYLOAD) {
+            throw new IOException("Binary frame payload too long: " + payloadSize + " bytes");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payloadSize + 1).order(ByteOrder.LITTLE_ENDIAN);
+        frame.put(START_BYTE);
+        frame.put((byte) payloadSize);
+        frame.put(frameType);
+        return frame;
+    }
+
+    private static void send(final ByteBuffer frame, final OutputStream output) throws IOException {
+        byte[] bytes = frame.array();
+        int crc = 0;
+        for (int index = 1; index < frame.position(); index++) {
+            crc = crc8(crc, bytes[index]);
+        }
+        frame.put((byte) crc);
+        output.write(bytes, 0, frame.position());
+        output.flush();
+    }
+}
@@ -0,0 +1,44 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of remote calls to execute together (see UsbHandler.executeBatchAsync).<br>
+ * The batch keeps the calls description only, so it can be executed more times.
+ */
+public class CallBatch {
+
+    private final List<PendingCall> calls = new ArrayList<>();
+
+    public void addCall(final String commandName) {
+        calls.add(PendingCall.voidCall(commandName));
+    }
+
+    public void addCall(final String commandName, final int arg1, final int arg2) {
+        calls.add(PendingCall.intCall(commandName, arg1, arg2));
+    }
+
+    public void addCall(final String commandName, final float argument) {
+        calls.add(PendingCall.floatCall(commandName, argument));
+    }
+
+    public void addCall(final String commandName, final String argument) {
+        calls.add(PendingCall.stringCall(commandName, argument));
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+    List<PendingCall> getCalls() {
+        return Collections.unmodifiableList(calls);
+    }
+}
@@ -0,0 +1,82 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.metrics.FunctionStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a function (name and signature) in a direction, updated without locks
+ * by the calling, sending and receiving threads.
+ */
+class CallMetrics {
+
+    private final String functionName;
+    private final char signature;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    CallMetrics(final String name, final char sign) {
+        functionName = name;
+        signature = sign;
+    }
+
+    void recordCall() {
+        calls.increment();
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void recordSent(final int bytes) {
+        bytesSent.add(bytes);
+    }
+
+    void recordReceived(final int bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    void recordLatency(final long nanos) {
+        latencies.record(nanos);
+    }
+
+    long getCalls() {
+        return calls.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    FunctionStats toStats(final String direction) {
+        double[] micros = latencies.getMicros();
+        return new FunctionStats(direction, functionName, String.valueOf(signature), getCalls(), getErrors(),
+                getTimeouts(), getBytesSent(), getBytesReceived(), micros[0], micros[1], micros[2], micros[3], micros[4]);
+    }
+}
@@ -0,0 +1,131 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writing thread of a connection, when the coalesced writes are enabled.<br>
+ * The calling threads only append the encoded commands to a lock free queue and return;
+ * the writing thread waits a short delay (or until the pending bytes reach the flush size),
+ * then it gathers all the pending commands into a single write and flush of the port.
+ * So many small USB transfers become few larger ones, and the callers never wait for the port.<br>
+ * A write error is reported to UsbHandler, as the loss of the link.
+ */
+class CoalescingWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final UsbHandler usbH;
+    private final long delayNanos;
+    private final int flushBytes;
+    private final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private volatile Thread writerThread;
+    private volatile boolean running;
+
+    CoalescingWriter(final UsbHandler usbHandler, final long delay, final TimeUnit unit, final int flushSize) {
+        usbH = usbHandler;
+        delayNanos = unit.toNanos(delay);
+        flushBytes = flushSize;
+    }
+
+    void start() {
+        running = true;
+        Thread thread = new Thread(this::run, "ArduinoRpc-writer-" + usbH.getPortName());
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the writing thread; the commands not yet written are discarded.
+     */
+    void stop() {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        discard();
+    }
+
+    /**
+     * Queues encoded commands, to be written by the writing thread.
+     *
+     * @param chunk The encoded commands
+     */
+    void write(final byte[] chunk) {
+        chunks.offer(chunk);
+        int pending = pendingBytes.addAndGet(chunk.length);
+        // The writer is woken by the first pending chunk (it waits the delay by itself) or by a full buffer
+        if ((pending - chunk.length <= 0) || (pending >= flushBytes)) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Discards the commands not yet written (i.e. when the link is down).
+     */
+    void discard() {
+        byte[] chunk;
+        while ((chunk = chunks.poll()) != null) {
+            pendingBytes.addAndGet(-chunk.length);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            if (chunks.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            long deadline = System.nanoTime() + delayNanos;
+            long left;
+            while (running && (pendingBytes.get() < flushBytes) && ((left = deadline - System.nanoTime()) > 0)) {
+                LockSupport.parkNanos(this, left);
+            }
+            if (running) {
+                writePending();
+            }
+        }
+    }
+
+    private void writePending() {
+        int size = 0;
+        byte[] chunk;
+        while ((chunk = chunks.poll()) != null) {
+            pendingBytes.addAndGet(-chunk.length);
+            if (size + chunk.length > buffer.length) {
+                byte[] larger = new byte[Math.max(buffer.length * 2, size + chunk.length)];
+                System.arraycopy(buffer, 0, larger, 0, size);
+                buffer = larger;
+            }
+            System.arraycopy(chunk, 0, buffer, size, chunk.length);
+            size += chunk.length;
+        }
+        if (size == 0) {
+            return;
+        }
+        OutputStream out = usbH.getOutput();
+        try {
+            if (out == null) {
+                throw new IOException("Arduino link is down");
+            }
+            out.write(buffer, 0, size);
+            out.flush();
+        } catch (IOException ex) {
+            usbH.writeFailed(ex);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoder of the calls sent to Arduino, one for each connection.<br>
+ * The calls are written into a reused byte buffer, so more calls can be sent with a single
+ * write; the encoded function names are cached and the numeric arguments are written
+ * digit by digit, so an usual call does not create garbage.<br>
+ * The produced bytes are the same of ProtocolToArduino (text protocol) and
+ * BinaryProtocol (binary protocol). Not thread safe: it is used by the calls queue
+ * while holding its lock.
+ */
+class CommandEncoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int MAX_CACHED_NAMES = 256;
+
+    /**
+     * Floats in this range are written in place, the other ones by Float.toString
+     */
+    private static final double MIN_PLAIN_FLOAT = 1e-3;
+    private static final double MAX_PLAIN_FLOAT = 1e7;
+    private static final int MAX_FLOAT_DECIMALS = 12;
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+        1000000000L, 10000000000L, 100000000000L, 1000000000000L
+    };
+
+    private final Charset charset = Charset.defaultCharset();
+    private final Map<String, byte[]> textNames = new HashMap<>();
+    private final Map<String, byte[]> binaryNames = new HashMap<>();
+    private final byte[] digits = new byte[20];
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size;
+
+    /**
+     * Appends a call encoded for the text protocol.
+     *
+     * @param call The call to encode
+     */
+    void encodeText(final PendingCall call) {
+        encodeText(call, FunctionTable.NO_ID);
+    }
+
+    /**
+     * Appends a call encoded for the text protocol, with the function id in place of the name
+     * (see FunctionTable).
+     *
+     * @param call The call to encode
+     * @param functionId The id of the function, or FunctionTable.NO_ID to send the name
+     */
+    void encodeText(final PendingCall call, final int functionId) {
+        int requestId = call.getRequestId();
+        if (requestId != ProtocolToArduino.NO_REQUEST_ID) {
+            put((byte) ProtocolToArduino.REQUEST_ID_PREFIX);
+            putInt(requestId);
+            put((byte) ' ');
+        }
+        if (functionId != FunctionTable.NO_ID) {
+            put((byte) FunctionTable.ID_PREFIX);
+            putInt(functionId);
+            put((byte) ' ');
+        } else {
+            put(textName(call.getFunctionName()));
+        }
+        put((byte) call.getSignature());
+        switch (call.getSignature()) {
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                putInt(call.getIntArg1());
+                put((byte) ',');
+                putInt(call.getIntArg2());
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                putFloat(call.getFloatArg());
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                putString(call.getStringArg());
+                break;
+            default:
+        }
+        if (requestId != ProtocolToArduino.NO_REQUEST_ID) {
+            put((byte) ProtocolToArduino.TAGGED_COMMAND_END);
+        }
+    }
+
+    /**
+     * Appends a call frame of the binary protocol.
+     *
+     * @param call The call to encode
+     * @throws IOException If the call does not fit into a frame
+     */
+    void encodeBinary(final PendingCall call) throws IOException {
+        encodeBinary(call, FunctionTable.NO_ID);
+    }
+
+    /**
+     * Appends a call frame of the binary protocol: a CALL_ID frame when the function
+     * has an id of one byte, a CALL frame with the name otherwise.
+     *
+     * @param call The call to encode
+     * @param functionId The id of the function, or FunctionTable.NO_ID to send the name
+     * @throws IOException If the call does not fit into a frame
+     */
+    void encodeBinary(final PendingCall call, final int functionId) throws IOException {
+        boolean byId = (functionId >= 0) && (functionId <= FunctionTable.MAX_BINARY_ID);
+        byte[] name = byId ? null : binaryName(call.getFunctionName());
+        String stringArg = call.getStringArg();
+        int argsSize;
+        switch (call.getSignature()) {
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                argsSize = 8;
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                argsSize = 4;
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                argsSize = 1 + stringArg.length();
+                break;
+            default:
+                argsSize = 0;
+        }
+        int payloadSize = 3 + (byId ? 0 : name.length) + argsSize;
+        if (payloadSize > BinaryProtocol.MAX_PAYLOAD) {
+            throw new IOException("Binary frame payload too long: " + payloadSize + " bytes");
+        }
+
+        int frameStart = size;
+        put(BinaryProtocol.START_BYTE);
+        put((byte) payloadSize);
+        put(byId ? BinaryProtocol.FRAME_CALL_ID : BinaryProtocol.FRAME_CALL);
+        put((byte) Math.max(call.getRequestId(), 0));
+        put((byte) call.getSignature());
+        if (byId) {
+            put((byte) functionId);
+        } else {
+            put((byte) name.length);
+            put(name);
+        }
+        switch (call.getSignature()) {
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                putLittleEndian(call.getIntArg1());
+                putLittleEndian(call.getIntArg2());
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                putLittleEndian(Float.floatToIntBits(call.getFloatArg()));
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                put((byte) stringArg.length());
+                for (int index = 0; index < stringArg.length(); index++) {
+                    char ch = stringArg.charAt(index);
+                    put((ch < 0x100) ? (byte) ch : (byte) '?');
+                }
+                break;
+            default:
+        }
+        int crc = 0;
+        for (int index = frameStart + 1; index < size; index++) {
+            crc = BinaryProtocol.crc8(crc, buffer[index]);
+        }
+        put((byte) crc);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of encoded bytes not yet written
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards the last encoded call (i.e. when it does not fit into the flow control window).
+     *
+     * @param encodedSize The size of the buffer before the call was encoded
+     */
+    void truncate(final int encodedSize) {
+        size = encodedSize;
+    }
+
+    /**
+     * Discards the encoded calls (i.e. when the link is down).
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of the encoded calls and empties the buffer.
+     *
+     * @return The encoded bytes
+     */
+    byte[] drainBytes() {
+        byte[] encoded = new byte[size];
+        System.arraycopy(buffer, 0, encoded, 0, size);
+        size = 0;
+        return encoded;
+    }
+
+    /**
+     * Writes the encoded calls and empties the buffer.
+     *
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    void writeTo(final OutputStream output) throws IOException {
+        try {
+            output.write(buffer, 0, size);
+        } finally {
+            size = 0;
+        }
+    }
+
+    private byte[] textName(final String functionName) {
+        byte[] name = textNames.get(functionName);
+        if (name == null) {
+            name = (functionName.trim() + " ").getBytes(charset);
+            cache(textNames, functionName, name);
+        }
+        return name;
+    }
+
+    private byte[] binaryName(final String functionName) {
+        byte[] name = binaryNames.get(functionName);
+        if (name == null) {
+            name = functionName.trim().getBytes(StandardCharsets.ISO_8859_1);
+            cache(binaryNames, functionName, name);
+        }
+        return name;
+    }
+
+    private static void cache(final Map<String, byte[]> names, final String functionName, final byte[] name) {
+        if (names.size() == MAX_CACHED_NAMES) {
+            // Names built at runtime: the cache is restarted instead of growing without limit
+            names.clear();
+        }
+        names.put(functionName, name);
+    }
+
+    private void put(final byte data) {
+        ensureCapacity(1);
+        buffer[size++] = data;
+    }
+
+    private void put(final byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, buffer, size, data.length);
+        size += data.length;
+    }
+
+    private void putLittleEndian(final int value) {
+        put((byte) value);
+        put((byte) (value >>> 8));
+        put((byte) (value >>> 16));
+        put((byte) (value >>> 24));
+    }
+
+    /**
+     * Writes the decimal digits, as String.valueOf(int) does.
+     */
+    private void putInt(final int value) {
+        if (value < 0) {
+            put((byte) '-');
+        }
+        putDigits(Math.abs((long) value), 1);
+    }
+
+    private void putDigits(final long value, final int minDigits) {
+        int count = 0;
+        long remaining = value;
+        do {
+            digits[count++] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while ((remaining > 0) || (count < minDigits));
+        ensureCapacity(count);
+        while (count > 0) {
+            buffer[size++] = digits[--count];
+        }
+    }
+
+    /**
+     * Writes the shortest fixed point text which is read back as the same float
+     * (i.e. "3.14", "1.0"), the same of Float.toString for the usual values.
+     */
+    private void putFloat(final float value) {
+        double absolute = Math.abs((double) value);
+        if ((absolute >= MIN_PLAIN_FLOAT) && (absolute < MAX_PLAIN_FLOAT)) {
+            for (int decimals = 1; decimals <= MAX_FLOAT_DECIMALS; decimals++) {
+                // Half even, as Float.toString: 518997.125f is "518997.12"
+                long scaled = (long) Math.rint(absolute * POWERS_OF_TEN[decimals]);
+                if ((float) ((double) scaled / POWERS_OF_TEN[decimals]) == (float) absolute) {
+                    if (value < 0) {
+                        put((byte) '-');
+                    }
+                    putDigits(scaled / POWERS_OF_TEN[decimals], 1);
+                    put((byte) '.');
+                    putDigits(scaled % POWERS_OF_TEN[decimals], decimals);
+                    return;
+                }
+            }
+        }
+        putString(Float.toString(value));
+    }
+
+    private void putString(final String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int index = 0; index < length; index++) {
+            char ch = value.charAt(index);
+            if (ch >= 0x80) {
+                // Not ASCII text: encoded by the platform charset, as String.getBytes() does
+                put(value.substring(index).getBytes(charset));
+                return;
+            }
+            buffer[size++] = (byte) ch;
+        }
+    }
+
+    private void ensureCapacity(final int required) {
+        if (size + required > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, size + required)];
+            System.arraycopy(buffer, 0, larger, 0, size);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+import it.mauxilium.arduinojavaserialrpc.metrics.ArduinoRpcMetricsMXBean;
+import it.mauxilium.arduinojavaserialrpc.metrics.FunctionStats;
+import it.mauxilium.arduinojavaserialrpc.metrics.LaneStats;
+import it.mauxilium.arduinojavaserialrpc.metrics.MetricsSnapshot;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of a connection: a CallMetrics for any function and signature called
+ * from Java (outbound) or from Arduino (inbound), plus the queue depth and the waiting
+ * time of any sending lane.<br>
+ * The lookup of the counters does not lock and does not create objects, except the first
+ * time a function is used. While the connection is open, the statistics are published
+ * on the platform MBean server.
+ */
+class ConnectionMetrics implements ArduinoRpcMetricsMXBean {
+
+    private static final String JMX_NAME = "it.mauxilium.arduinojavaserialrpc:type=Connection,name=";
+    private static final String SIGNATURES = "" + UsbHandler.VOID_ARG_PREAMBLE + UsbHandler.INT_INT_ARG_PREAMBLE +
+            UsbHandler.FLOAT_ARG_PREAMBLE + UsbHandler.STRING_ARG_PREAMBLE;
+
+    private final String connectionName;
+    private final ConcurrentMap<String, AtomicReferenceArray<CallMetrics>> outbound = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicReferenceArray<CallMetrics>> inbound = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray waitingCalls = new AtomicIntegerArray(CallPriority.values().length);
+    private final AtomicReferenceArray<LaneMetrics> lanes = new AtomicReferenceArray<>(CallPriority.values().length);
+    private ObjectName registeredName;
+
+    ConnectionMetrics(final String name) {
+        connectionName = name;
+        for (int lane = 0; lane < lanes.length(); lane++) {
+            lanes.set(lane, new LaneMetrics());
+        }
+    }
+
+    CallMetrics outbound(final String functionName, final char signature) {
+        return lookup(outbound, functionName, signature);
+    }
+
+    CallMetrics inbound(final String functionName, final char signature) {
+        return lookup(inbound, functionName, signature);
+    }
+
+    private static CallMetrics lookup(final ConcurrentMap<String, AtomicReferenceArray<CallMetrics>> functions,
+            final String functionName, final char signature) {
+        AtomicReferenceArray<CallMetrics> signatures = functions.get(functionName);
+        if (signatures == null) {
+            signatures = functions.computeIfAbsent(functionName, name -> new AtomicReferenceArray<>(SIGNATURES.length()));
+        }
+        int slot = Math.max(SIGNATURES.indexOf(signature), 0);
+        CallMetrics metrics = signatures.get(slot);
+        if (metrics == null) {
+            signatures.compareAndSet(slot, null, new CallMetrics(functionName, signature));
+            metrics = signatures.get(slot);
+        }
+        return metrics;
+    }
+
+    /**
+     * A call enters the waiting queue of its lane.
+     */
+    void laneQueued(final CallPriority priority) {
+        waitingCalls.incrementAndGet(priority.ordinal());
+    }
+
+    /**
+     * A waiting call leaves its lane without being sent (expired or failed).
+     */
+    void laneDiscarded(final CallPriority priority) {
+        waitingCalls.decrementAndGet(priority.ordinal());
+    }
+
+    /**
+     * A waiting call leaves its lane to be sent.
+     *
+     * @param priority The lane of the call
+     * @param waitNanos The time spent into the queue
+     */
+    void laneSent(final CallPriority priority, final long waitNanos) {
+        waitingCalls.decrementAndGet(priority.ordinal());
+        LaneMetrics lane = lanes.get(priority.ordinal());
+        lane.sent.increment();
+        lane.waits.record(waitNanos);
+    }
+
+    MetricsSnapshot getSnapshot() {
+        return new MetricsSnapshot(connectionName, System.currentTimeMillis(),
+                stats(outbound, FunctionStats.OUTBOUND), stats(inbound, FunctionStats.INBOUND), getLanes());
+    }
+
+    /**
+     * Publishes the statistics on the platform MBean server; a second connection on the same
+     * port gets a name with an "instance" key. A failure is reported and ignored, since the
+     * statistics are still available by getSnapshot.
+     */
+    synchronized void register() {
+        if (registeredName != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String baseName = JMX_NAME + ObjectName.quote(connectionName);
+        try {
+            for (int instance = 1; registeredName == null; instance++) {
+                ObjectName name = new ObjectName((instance == 1) ? baseName : baseName + ",instance=" + instance);
+                try {
+                    server.registerMBean(this, name);
+                    registeredName = name;
+                } catch (InstanceAlreadyExistsException ignored) {
+                    // Another connection on the same port: the next instance number is tried
+                }
+            }
+        } catch (JMException ex) {
+            System.err.println("Statistics of " + connectionName + " not published on JMX: " + ex.toString());
+        }
+    }
+
+    synchronized void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ignored) {
+            // Already removed by the application
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public String getConnectionName() {
+        return connectionName;
+    }
+
+    @Override
+    public long getCalls() {
+        long total = 0;
+        for (CallMetrics metrics : all(outbound)) {
+            total += metrics.getCalls();
+        }
+        return total;
+    }
+
+    @Override
+    public long getErrors() {
+        long total = 0;
+        for (CallMetrics metrics : all(outbound)) {
+            total += metrics.getErrors();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTimeouts() {
+        long total = 0;
+        for (CallMetrics metrics : all(outbound)) {
+            total += metrics.getTimeouts();
+        }
+        return total;
+    }
+
+    @Override
+    public long getBytesSent() {
+        long total = 0;
+        for (CallMetrics metrics : all(outbound)) {
+            total += metrics.getBytesSent();
+        }
+        for (CallMetrics metrics : all(inbound)) {
+            total += metrics.getBytesSent();
+        }
+        return total;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        long total = 0;
+        for (CallMetrics metrics : all(outbound)) {
+            total += metrics.getBytesReceived();
+        }
+        for (CallMetrics metrics : all(inbound)) {
+            total += metrics.getBytesReceived();
+        }
+        return total;
+    }
+
+    @Override
+    public long getInboundCalls() {
+        long total = 0;
+        for (CallMetrics metrics : all(inbound)) {
+            total += metrics.getCalls();
+        }
+        return total;
+    }
+
+    @Override
+    public long getInboundErrors() {
+        long total = 0;
+        for (CallMetrics metrics : all(inbound)) {
+            total += metrics.getErrors();
+        }
+        return total;
+    }
+
+    @Override
+    public List<FunctionStats> getOutboundFunctions() {
+        return stats(outbound, FunctionStats.OUTBOUND);
+    }
+
+    @Override
+    public List<FunctionStats> getInboundFunctions() {
+        return stats(inbound, FunctionStats.INBOUND);
+    }
+
+    @Override
+    public List<LaneStats> getLanes() {
+        List<LaneStats> stats = new ArrayList<>(lanes.length());
+        for (CallPriority priority : CallPriority.values()) {
+            LaneMetrics lane = lanes.get(priority.ordinal());
+            double[] micros = lane.waits.getMicros();
+            stats.add(new LaneStats(priority.name(), waitingCalls.get(priority.ordinal()), lane.sent.sum(),
+                    micros[0], micros[1], micros[2], micros[3], micros[4]));
+        }
+        return stats;
+    }
+
+    /**
+     * The calls in progress complete on the old counters, so they are not counted.
+     * The queue depths are not reset, they are the current state of the lanes.
+     */
+    @Override
+    public void reset() {
+        outbound.clear();
+        inbound.clear();
+        for (int lane = 0; lane < lanes.length(); lane++) {
+            lanes.set(lane, new LaneMetrics());
+        }
+    }
+
+    private static List<FunctionStats> stats(final ConcurrentMap<String, AtomicReferenceArray<CallMetrics>> functions,
+            final String direction) {
+        List<FunctionStats> stats = new ArrayList<>();
+        for (CallMetrics metrics : all(functions)) {
+            stats.add(metrics.toStats(direction));
+        }
+        return stats;
+    }
+
+    private static List<CallMetrics> all(final ConcurrentMap<String, AtomicReferenceArray<CallMetrics>> functions) {
+        List<CallMetrics> all = new ArrayList<>();
+        for (AtomicReferenceArray<CallMetrics> signatures : functions.values()) {
+            for (int slot = 0; slot < signatures.length(); slot++) {
+                CallMetrics metrics = signatures.get(slot);
+                if (metrics != null) {
+                    all.add(metrics);
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Counters of a sending lane
+     */
+    private static final class LaneMetrics {
+
+        private final LongAdder sent = new LongAdder();
+        private final LatencyHistogram waits = new LatencyHistogram();
+    }
+}
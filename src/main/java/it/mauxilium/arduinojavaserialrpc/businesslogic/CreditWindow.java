@@ -0,0 +1,87 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flow control window of a connection: the bytes the card can still receive without
+ * overrunning its serial receive buffer (only 64 bytes on the AVR boards).<br>
+ * At the connection the void command "MArC_crd" asks the size of the buffer: a sketch supporting
+ * the flow control answers with a credit frame holding it, any other sketch answers with an error.
+ * Then the sketch sends a credit frame with the number of bytes it has read from the buffer:<br>
+ * <ol>
+ * <li>Row 1: Preamble "MArC_crd" (string)</li>
+ * <li>Row 2: Bytes (integer)</li>
+ * </ol>
+ * In binary mode the same values are sent by a CREDIT frame.<br>
+ * A call is sent only if its bytes fit into the window; a call longer than the whole buffer
+ * is sent when the buffer is empty. When no call is on the wire, the card has read all the
+ * sent bytes, so the window is restored (a lost credit frame can not stop the calls).
+ */
+class CreditWindow {
+
+    /**
+     * Void function called (in text mode) to enable the flow control
+     */
+    static final String NEGOTIATION_COMMAND = "MArC_crd";
+
+    private final int size;
+    private final AtomicInteger available;
+
+    CreditWindow(final int bufferSize) {
+        size = bufferSize;
+        available = new AtomicInteger(bufferSize);
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getAvailable() {
+        return available.get();
+    }
+
+    /**
+     * Takes the room for the bytes of a call.
+     *
+     * @param bytes The size of the encoded call
+     * @return false if the call does not fit into the window now
+     */
+    boolean tryAcquire(final int bytes) {
+        while (true) {
+            int free = available.get();
+            if ((bytes > free) && (free < size)) {
+                return false;
+            }
+            if (available.compareAndSet(free, free - bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the bytes read by the card.
+     *
+     * @param bytes The number of bytes of the credit frame
+     */
+    void release(final int bytes) {
+        while (true) {
+            int free = available.get();
+            if (available.compareAndSet(free, Math.min(size, free + bytes))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Restores the whole window, when all the sent calls were answered.
+     */
+    void restore() {
+        available.set(size);
+    }
+}
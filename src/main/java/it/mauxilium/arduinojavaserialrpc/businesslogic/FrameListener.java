@@ -0,0 +1,76 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+/**
+ * Receiver of the frames decoded from the Arduino data, both text (TextFrameParser)
+ * and binary (BinaryFrameDecoder).
+ */
+interface FrameListener {
+
+    /**
+     * A result of a remote function
+     *
+     * @param requestId The echoed request id (pipelined mode only)
+     * @param value The received value (Integer, Float, String or null for void results)
+     * @param frameSize The received bytes of the whole frame
+     */
+    void result(int requestId, Object value, int frameSize);
+
+    /**
+     * An error notification of a remote function
+     *
+     * @param requestId The echoed request id (pipelined mode only)
+     * @param message The error message
+     * @param frameSize The received bytes of the whole frame
+     */
+    void error(int requestId, String message, int frameSize);
+
+    /**
+     * A call of a local method; frameSize is the number of received bytes of the whole frame
+     */
+    void command(String name, char signature, int arg1, int arg2, float argF, String argS, int frameSize);
+
+    /**
+     * A sample of a telemetry channel (a binary TELEMETRY frame notifies all its samples)
+     *
+     * @param channel The channel number (0..255)
+     * @param cardTime The timestamp of the card (unsigned 32 bits micros)
+     * @param value The sampled value
+     */
+    void telemetry(int channel, long cardTime, float value);
+
+    /**
+     * A flow control credit (see CreditWindow)
+     *
+     * @param bytes The size of the receive buffer (negotiation) or the bytes read by the card
+     */
+    void credit(int bytes);
+
+    /**
+     * The function table sent by the sketch (text only): from now the sketch can send
+     * the ids of the Java methods
+     *
+     * @param table The received ids
+     */
+    void functionTable(FunctionTable table);
+
+    /**
+     * A text message sent from the sketch
+     */
+    void message(String message);
+
+    /**
+     * A frame discarded because it is not valid
+     */
+    void frameError(String reason);
+
+    /**
+     * The sketch accepts the binary protocol (text only): the following bytes are binary frames
+     */
+    void binaryAccepted();
+}
@@ -0,0 +1,137 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numeric ids of the functions registered on the card and of the Java methods called by the sketch.<br>
+ * At the connection the void command "MArC_fid" asks the table: a sketch supporting the ids answers
+ * with the following rows, any other sketch answers with an error:<br>
+ * <ol>
+ * <li>Row 1: Preamble "MArC_fid" (string)</li>
+ * <li>Row 2: Number of card functions (integer)</li>
+ * <li>Any card function: "id,signature,name" (i.e. "3,H,Multiply")</li>
+ * <li>Next row: Number of Java methods called by the sketch (integer)</li>
+ * <li>Any Java method: "id,name"</li>
+ * </ol>
+ * Then a call is sent with its id in place of the name: "@3 H6,7" in text mode, a CALL_ID frame
+ * in binary mode; the sketch does the same with the Java methods of the table ("@2" as name row,
+ * or a COMMAND_ID frame). A function not in the table can not be executed by the card, so its
+ * calls fail without being sent.
+ */
+class FunctionTable {
+
+    /**
+     * Void function called (in text mode) to ask the table
+     */
+    static final String NEGOTIATION_COMMAND = "MArC_fid";
+
+    /**
+     * Prefix of an id sent in place of a name
+     */
+    static final char ID_PREFIX = '@';
+
+    /**
+     * Id of the functions not in the table
+     */
+    static final int NO_ID = -1;
+
+    /**
+     * Above it, the binary frames use the name
+     */
+    static final int MAX_BINARY_ID = 255;
+
+    private static final String[] SIGNATURES = {
+        String.valueOf(UsbHandler.VOID_ARG_PREAMBLE), String.valueOf(UsbHandler.INT_INT_ARG_PREAMBLE),
+        String.valueOf(UsbHandler.FLOAT_ARG_PREAMBLE), String.valueOf(UsbHandler.STRING_ARG_PREAMBLE)
+    };
+
+    /**
+     * Ids of any function name, indexed by signature (see slot)
+     */
+    private final Map<String, int[]> functionIds = new HashMap<>();
+    private final Map<Integer, String> methodNames = new HashMap<>();
+
+    /**
+     * Adds a function of the card.
+     *
+     * @param id The id used by the card
+     * @param signature The signature char (i.e. UsbHandler.INT_INT_ARG_PREAMBLE)
+     * @param name The name of the function
+     * @throws IllegalArgumentException If the id or the signature is not valid
+     */
+    void addFunction(final int id, final char signature, final String name) {
+        int slot = slot(signature);
+        if ((id < 0) || (slot < 0)) {
+            throw new IllegalArgumentException("Not valid function " + name + ": id " + id + ", signature " + signature);
+        }
+        functionIds.computeIfAbsent(name, key -> new int[] {NO_ID, NO_ID, NO_ID, NO_ID})[slot] = id;
+    }
+
+    /**
+     * Adds a Java method called by the card.
+     *
+     * @param id The id used by the card
+     * @param name The name of the method
+     */
+    void addMethod(final int id, final String name) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Not valid id of method " + name + ": " + id);
+        }
+        methodNames.put(id, name);
+    }
+
+    /**
+     * @return The id of the function, or NO_ID if the card does not list it
+     */
+    int functionId(final String name, final char signature) {
+        int[] ids = functionIds.get(name);
+        int slot = slot(signature);
+        return ((ids == null) || (slot < 0)) ? NO_ID : ids[slot];
+    }
+
+    /**
+     * @return The name of the Java method, or null if the id is unknown
+     */
+    String methodName(final int id) {
+        return methodNames.get(id);
+    }
+
+    /**
+     * Describes the signatures listed for a function name, for the error messages.
+     */
+    String describe(final String name) {
+        int[] ids = functionIds.get(name);
+        if (ids == null) {
+            return "not registered on the card";
+        }
+        StringBuilder signatures = new StringBuilder("registered on the card with signature:");
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] != NO_ID) {
+                signatures.append(' ').append(SIGNATURES[slot]);
+            }
+        }
+        return signatures.toString();
+    }
+
+    private static int slot(final char signature) {
+        switch (signature) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                return 0;
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                return 1;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                return 2;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+}
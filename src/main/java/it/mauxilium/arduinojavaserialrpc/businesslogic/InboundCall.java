@@ -0,0 +1,79 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+/**
+ * A decoded call from Arduino, waiting to be executed.
+ */
+class InboundCall {
+
+    private final String name;
+    private final char signature;
+    private final int arg1;
+    private final int arg2;
+    private final float argF;
+    private final String argS;
+    private final InboundHandlerTable.Invoker handler;
+    private final CallMetrics metrics;
+    private final long receivedNanos;
+
+    InboundCall(final String cmdName, final char sign, final int intArg1, final int intArg2,
+            final float floatArg, final String stringArg, final InboundHandlerTable.Invoker callHandler,
+            final CallMetrics callMetrics, final long received) {
+        name = cmdName;
+        signature = sign;
+        arg1 = intArg1;
+        arg2 = intArg2;
+        argF = floatArg;
+        argS = stringArg;
+        handler = callHandler;
+        metrics = callMetrics;
+        receivedNanos = received;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    char getSignature() {
+        return signature;
+    }
+
+    int getArg1() {
+        return arg1;
+    }
+
+    int getArg2() {
+        return arg2;
+    }
+
+    float getArgF() {
+        return argF;
+    }
+
+    String getArgS() {
+        return argS;
+    }
+
+    /**
+     * @return The registered handler, or null if the call is executed by a method of the connector
+     */
+    InboundHandlerTable.Invoker getHandler() {
+        return handler;
+    }
+
+    CallMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The System.nanoTime of reception, the start of the measured latency
+     */
+    long getReceivedNanos() {
+        return receivedNanos;
+    }
+}
@@ -0,0 +1,210 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.InboundOrdering;
+import it.mauxilium.arduinojavaserialrpc.InboundOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes the calls received from Arduino.<br>
+ * Without an executor, any call is executed by the receiving thread (the default behaviour).
+ * With an executor, the receiving thread queues the decoded call and returns to read the
+ * serial port; the executor runs the queued calls respecting the ordering of any method:
+ * <ul>
+ * <li>FIFO: the calls of the same method are executed one at time, in the receiving order.</li>
+ * <li>PARALLEL: the calls are executed as soon as the executor runs them.</li>
+ * </ul>
+ * The number of queued calls is bounded, when the bound is reached the overflow policy is applied
+ * (DROP_NEWEST by default: the BLOCK policy stops the receiving thread, so the results of the calls to
+ * Arduino wait as well).<br>
+ * The handler registered for the name and signature of a call (see InboundHandlerTable) is found
+ * when the call is received; the calls without a handler execute the methods of the connector class.<br>
+ * Any call is measured from its reception to the end of the local method, so the time
+ * spent in the queue is part of the latency.
+ */
+class InboundDispatcher {
+
+    private final ConnectionMetrics metrics;
+    private final InboundHandlerTable handlers = new InboundHandlerTable();
+    private final Map<String, InboundOrdering> orderings = new ConcurrentHashMap<>();
+    private final ArrayDeque<InboundCall> waitingCalls = new ArrayDeque<>();
+    private final Set<String> runningFunctions = new HashSet<>();
+    private volatile ArduinoJavaSerialRpc controller;
+    private volatile Executor executor;
+    private int maxWaitingCalls;
+    private InboundOverflowPolicy overflowPolicy = InboundOverflowPolicy.DROP_NEWEST;
+    private InboundOrdering defaultOrdering = InboundOrdering.FIFO;
+
+    InboundDispatcher(final ConnectionMetrics connectionMetrics) {
+        metrics = connectionMetrics;
+    }
+
+    void setController(final ArduinoJavaSerialRpc ctrl) {
+        controller = ctrl;
+    }
+
+    synchronized void setExecutor(final Executor callExecutor, final int maxWaiting,
+            final InboundOverflowPolicy policy) {
+        if ((callExecutor != null) && (maxWaiting < 1)) {
+            throw new IllegalArgumentException("The maximum number of waiting calls must be positive: " + maxWaiting);
+        }
+        executor = callExecutor;
+        maxWaitingCalls = maxWaiting;
+        overflowPolicy = policy;
+    }
+
+    synchronized void setDefaultOrdering(final InboundOrdering ordering) {
+        defaultOrdering = ordering;
+    }
+
+    void setOrdering(final String functionName, final InboundOrdering ordering) {
+        orderings.put(functionName, ordering);
+    }
+
+    InboundHandlerTable getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * Executes (or queues, if an executor is configured) a call received from Arduino.
+     *
+     * @param frameSize The received bytes of the call
+     * @throws ArduinoRpcJavaFailsException In case of synchronous execution only, if the called method fails
+     */
+    void dispatch(final String name, final char signature, final int arg1, final int arg2,
+            final float argF, final String argS, final int frameSize) throws ArduinoRpcJavaFailsException {
+        long receivedNanos = System.nanoTime();
+        CallMetrics callMetrics = metrics.inbound(name, signature);
+        callMetrics.recordCall();
+        callMetrics.recordReceived(frameSize);
+        InboundHandlerTable.Invoker handler = handlers.find(name, signature);
+        Executor callExecutor = executor;
+        if (callExecutor == null) {
+            boolean executed = false;
+            try {
+                execute(handler, name, signature, arg1, arg2, argF, argS);
+                executed = true;
+            } finally {
+                measure(callMetrics, receivedNanos, executed);
+            }
+            return;
+        }
+        if (enqueue(new InboundCall(name, signature, arg1, arg2, argF, argS, handler, callMetrics, receivedNanos))) {
+            try {
+                callExecutor.execute(this::executeWaitingCalls);
+            } catch (RejectedExecutionException ex) {
+                controller.handlerReceivingException(ex);
+            }
+        }
+    }
+
+    private synchronized boolean enqueue(final InboundCall call) {
+        while (waitingCalls.size() >= maxWaitingCalls) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    dropped(call);
+                    return false;
+                case DROP_OLDEST:
+                    dropped(waitingCalls.pollFirst());
+                    break;
+                default:
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        dropped(call);
+                        return false;
+                    }
+            }
+        }
+        waitingCalls.addLast(call);
+        return true;
+    }
+
+    /**
+     * Executes the waiting calls which are not blocked by a running call of the same FIFO method.
+     * Any task continues with the next executable call, so a call unblocked by the end of the
+     * previous one is executed even if its own task has found nothing to do.
+     */
+    private void executeWaitingCalls() {
+        InboundCall call;
+        while ((call = nextExecutableCall()) != null) {
+            boolean executed = false;
+            try {
+                execute(call.getHandler(), call.getName(), call.getSignature(),
+                        call.getArg1(), call.getArg2(), call.getArgF(), call.getArgS());
+                executed = true;
+            } catch (ArduinoRpcJavaFailsException | RuntimeException ex) {
+                controller.handlerReceivingException(ex);
+            } finally {
+                executed(call);
+                measure(call.getMetrics(), call.getReceivedNanos(), executed);
+            }
+        }
+    }
+
+    private void execute(final InboundHandlerTable.Invoker handler, final String name, final char signature,
+            final int arg1, final int arg2, final float argF, final String argS) throws ArduinoRpcJavaFailsException {
+        if (handler != null) {
+            InboundHandlerTable.invoke(handler, arg1, arg2, argF, argS);
+        } else {
+            ProtocolFromArduino.executeCommand(controller, name, signature, arg1, arg2, argF, argS);
+        }
+    }
+
+    private static void measure(final CallMetrics callMetrics, final long receivedNanos, final boolean executed) {
+        callMetrics.recordLatency(System.nanoTime() - receivedNanos);
+        if (executed == false) {
+            callMetrics.recordError();
+        }
+    }
+
+    private synchronized InboundCall nextExecutableCall() {
+        Iterator<InboundCall> waiting = waitingCalls.iterator();
+        while (waiting.hasNext()) {
+            InboundCall call = waiting.next();
+            if (isFifo(call.getName()) == false) {
+                waiting.remove();
+                notifyAll();
+                return call;
+            }
+            if (runningFunctions.add(call.getName())) {
+                waiting.remove();
+                notifyAll();
+                return call;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void executed(final InboundCall call) {
+        if (isFifo(call.getName())) {
+            runningFunctions.remove(call.getName());
+        }
+    }
+
+    private boolean isFifo(final String name) {
+        return orderings.getOrDefault(name, defaultOrdering) == InboundOrdering.FIFO;
+    }
+
+    private void dropped(final InboundCall call) {
+        call.getMetrics().recordError();
+        controller.handlerReceivingException(
+                new ArduinoRpcJavaFailsException("Inbound call discarded by overflow policy: " + call.getName()));
+    }
+}
@@ -0,0 +1,92 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the handlers of the calls from Arduino, registered with ArduinoJavaSerialRpc.onCall
+ * (and onFloatCall, onStringCall).<br>
+ * Any handler is adapted at registration to an Invoker receiving all the decoded (primitive) arguments,
+ * so the receiving path finds it with a single lookup per frame and calls it without boxing.
+ */
+class InboundHandlerTable {
+
+    /**
+     * Uniform view of a typed handler
+     */
+    interface Invoker {
+        void invoke(int arg1, int arg2, float argF, String argS);
+    }
+
+    private final Map<String, Invoker> voidHandlers = new ConcurrentHashMap<>();
+    private final Map<String, Invoker> intIntHandlers = new ConcurrentHashMap<>();
+    private final Map<String, Invoker> floatHandlers = new ConcurrentHashMap<>();
+    private final Map<String, Invoker> stringHandlers = new ConcurrentHashMap<>();
+
+    void register(final String name, final Runnable handler) {
+        voidHandlers.put(name, (arg1, arg2, argF, argS) -> handler.run());
+    }
+
+    void register(final String name, final ArduinoJavaSerialRpc.IntIntHandler handler) {
+        intIntHandlers.put(name, (arg1, arg2, argF, argS) -> handler.handle(arg1, arg2));
+    }
+
+    void registerFloat(final String name, final ArduinoJavaSerialRpc.FloatHandler handler) {
+        floatHandlers.put(name, (arg1, arg2, argF, argS) -> handler.handle(argF));
+    }
+
+    void registerString(final String name, final ArduinoJavaSerialRpc.StringHandler handler) {
+        stringHandlers.put(name, (arg1, arg2, argF, argS) -> handler.handle(argS));
+    }
+
+    /**
+     * Removes the handlers of all the signatures of a name.
+     */
+    void remove(final String name) {
+        voidHandlers.remove(name);
+        intIntHandlers.remove(name);
+        floatHandlers.remove(name);
+        stringHandlers.remove(name);
+    }
+
+    /**
+     * Returns the handler of a received call.
+     *
+     * @return The handler, or null if the call is executed by a method of the connector class
+     */
+    Invoker find(final String name, final char signature) {
+        switch (signature) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                return voidHandlers.get(name);
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                return intIntHandlers.get(name);
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                return floatHandlers.get(name);
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                return stringHandlers.get(name);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Calls a handler, converting its failure as the failures of the connector methods.
+     */
+    static void invoke(final Invoker invoker, final int arg1, final int arg2, final float argF, final String argS)
+            throws ArduinoRpcJavaFailsException {
+        try {
+            invoker.invoke(arg1, arg2, argF, argS);
+        } catch (RuntimeException ex) {
+            throw new ArduinoRpcJavaFailsException(ex);
+        }
+    }
+}
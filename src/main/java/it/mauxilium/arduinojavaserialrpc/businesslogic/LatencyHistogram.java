@@ -0,0 +1,97 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds.<br>
+ * Any power of two range is divided into 16 linear buckets, so a recorded value is known
+ * with an error below 1/16 using about 600 counters, from 1ns up to more than one hour
+ * (greater values are counted as the maximum).<br>
+ * Recording is a single atomic increment (plus two adders); the percentiles are computed
+ * from a copy of the counters, so a reading concurrent with the recording is approximated.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 41;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(final long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketOf(value));
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the statistics in microseconds: mean, 50th, 99th and 99.9th percentile, maximum.
+     *
+     * @return Five values, all 0 when nothing was recorded
+     */
+    double[] getMicros() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int bucket = 0; bucket < copy.length; bucket++) {
+            copy[bucket] = counts.get(bucket);
+            count += copy[bucket];
+        }
+        double[] micros = new double[5];
+        if (count == 0) {
+            return micros;
+        }
+        long maxValue = max.get();
+        micros[0] = total.sum() / (count * 1000.0);
+        micros[1] = Math.min(valueAt(copy, count, 0.5), maxValue) / 1000.0;
+        micros[2] = Math.min(valueAt(copy, count, 0.99), maxValue) / 1000.0;
+        micros[3] = Math.min(valueAt(copy, count, 0.999), maxValue) / 1000.0;
+        micros[4] = maxValue / 1000.0;
+        return micros;
+    }
+
+    /**
+     * Returns the highest value of the bucket holding the given percentile.
+     */
+    private static long valueAt(final long[] copy, final long count, final double percentile) {
+        long rank = Math.max((long) Math.ceil(percentile * count), 1);
+        long seen = 0;
+        for (int bucket = 0; bucket < copy.length; bucket++) {
+            seen += copy[bucket];
+            if (seen >= rank) {
+                return highestValueOf(bucket);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            // Small values have a bucket each
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return ((shift + 1) * SUB_BUCKETS) + subBucket;
+    }
+
+    static long highestValueOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket / SUB_BUCKETS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (bucket % SUB_BUCKETS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
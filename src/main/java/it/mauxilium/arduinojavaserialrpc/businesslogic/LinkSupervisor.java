@@ -0,0 +1,156 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.LinkState;
+import it.mauxilium.arduinojavaserialrpc.LinkStateListener;
+import it.mauxilium.arduinojavaserialrpc.ReconnectPolicy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Supervisor of the link with a card, when the automatic reconnection is enabled.<br>
+ * A single thread sends the heartbeats and executes the reconnection, so a lost link is
+ * recovered once, whatever is the number of threads detecting the loss (receiving thread,
+ * callers writing a command, heartbeat).<br>
+ * During the reconnection the waiting calls have already failed and the new ones fail at once;
+ * the attempts are repeated with exponential backoff until the card answers again or the
+ * connection is closed.
+ */
+class LinkSupervisor {
+
+    private final UsbHandler usbH;
+    private final List<LinkStateListener> listeners;
+    private final long firstDelayMillis;
+    private final long maxDelayMillis;
+    private final long heartbeatIntervalNanos;
+    private final long heartbeatTimeoutMillis;
+    private final AtomicReference<LinkState> state = new AtomicReference<>(LinkState.CONNECTED);
+    private final ScheduledExecutorService supervisorThread;
+    private volatile long lastFrameNanos = System.nanoTime();
+    private volatile String cardName;
+
+    LinkSupervisor(final UsbHandler usbHandler, final ReconnectPolicy policy,
+            final List<LinkStateListener> stateListeners) {
+        usbH = usbHandler;
+        listeners = stateListeners;
+        firstDelayMillis = policy.getFirstDelay(TimeUnit.MILLISECONDS);
+        maxDelayMillis = policy.getMaxDelay(TimeUnit.MILLISECONDS);
+        heartbeatIntervalNanos = policy.getHeartbeatInterval(TimeUnit.NANOSECONDS);
+        heartbeatTimeoutMillis = policy.getHeartbeatTimeout(TimeUnit.MILLISECONDS);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "ArduinoRpc-supervisor-" + usbHandler.getPortName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        supervisorThread = executor;
+    }
+
+    /**
+     * Starts the supervision of a connected card.
+     *
+     * @param connectedCardName The name of the card, searched again after a link loss
+     */
+    void start(final String connectedCardName) {
+        cardName = connectedCardName;
+        if (heartbeatIntervalNanos > 0) {
+            long period = Math.max(TimeUnit.NANOSECONDS.toMillis(heartbeatIntervalNanos) / 2, 1);
+            supervisorThread.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the supervision; a reconnection in progress is abandoned.
+     */
+    void stop() {
+        LinkState previous = state.getAndSet(LinkState.DISCONNECTED);
+        supervisorThread.shutdownNow();
+        if (previous != LinkState.DISCONNECTED) {
+            publish(LinkState.DISCONNECTED, null);
+        }
+    }
+
+    LinkState getState() {
+        return state.get();
+    }
+
+    long getHeartbeatTimeout() {
+        return heartbeatTimeoutMillis;
+    }
+
+    void frameReceived() {
+        lastFrameNanos = System.nanoTime();
+    }
+
+    /**
+     * Notifies a link failure; only the first notification of a connected link starts the reconnection.
+     *
+     * @param cause The detected failure
+     */
+    void linkLost(final Exception cause) {
+        if (state.compareAndSet(LinkState.CONNECTED, LinkState.RECONNECTING)) {
+            supervisorThread.execute(() -> reconnect(cause));
+        }
+    }
+
+    private void heartbeat() {
+        if ((state.get() != LinkState.CONNECTED) || (System.nanoTime() - lastFrameNanos < heartbeatIntervalNanos)) {
+            return;
+        }
+        // A call waiting for its result is controlled by its own timeout
+        if (usbH.hasPendingCalls()) {
+            return;
+        }
+        usbH.sendHeartbeat(heartbeatTimeoutMillis).whenComplete((name, ex) -> {
+            if (ex != null) {
+                linkLost(new IOException("Missed heartbeat of the card on " + usbH.getPortName(), ex));
+            }
+        });
+    }
+
+    private void reconnect(final Exception cause) {
+        publish(LinkState.RECONNECTING, cause);
+        usbH.linkDown(cause);
+        long delay = firstDelayMillis;
+        while (state.get() == LinkState.RECONNECTING) {
+            if (usbH.reopenLink(cardName)) {
+                lastFrameNanos = System.nanoTime();
+                if (state.compareAndSet(LinkState.RECONNECTING, LinkState.CONNECTED)) {
+                    publish(LinkState.CONNECTED, null);
+                } else {
+                    // Closed during the last attempt
+                    usbH.linkDown(cause);
+                }
+                return;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                // Supervision stopped
+                return;
+            }
+            delay = Math.min(delay * 2, maxDelayMillis);
+        }
+    }
+
+    private void publish(final LinkState newState, final Exception cause) {
+        String portName = usbH.getPortName();
+        for (LinkStateListener listener : listeners) {
+            try {
+                listener.linkStateChanged(newState, portName, cause);
+            } catch (RuntimeException ex) {
+                System.err.println("Link state listener failure: " + ex.getMessage());
+            }
+        }
+    }
+}
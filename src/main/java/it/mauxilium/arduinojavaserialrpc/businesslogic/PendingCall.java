@@ -0,0 +1,323 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcTimeoutException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A remote function call waiting to be sent to Arduino, or already sent and
+ * waiting for its result.<br>
+ * The call keeps its arguments until it is sent, and it is completed by the
+ * receiving side when the matching result (or error) arrives.
+ */
+class PendingCall {
+
+    private final String functionName;
+    private final char signature;
+    private final int intArg1;
+    private final int intArg2;
+    private final float floatArg;
+    private final String stringArg;
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    private int requestId = ProtocolToArduino.NO_REQUEST_ID;
+    private long timeoutMillis = 0;
+    private CallPriority priority = CallPriority.NORMAL;
+    private long queuedNanos;
+    private volatile Future<?> timeoutTask;
+    private volatile boolean answeredByError = false;
+    private CallMetrics metrics;
+    private long startNanos;
+
+    private PendingCall(final String name, final char sign, final int arg1, final int arg2,
+            final float argF, final String argS) {
+        functionName = name;
+        signature = sign;
+        intArg1 = arg1;
+        intArg2 = arg2;
+        floatArg = argF;
+        stringArg = argS;
+    }
+
+    static PendingCall voidCall(final String name) {
+        return new PendingCall(name, UsbHandler.VOID_ARG_PREAMBLE, 0, 0, 0, null);
+    }
+
+    static PendingCall intCall(final String name, final int arg1, final int arg2) {
+        return new PendingCall(name, UsbHandler.INT_INT_ARG_PREAMBLE, arg1, arg2, 0, null);
+    }
+
+    static PendingCall floatCall(final String name, final float arg) {
+        return new PendingCall(name, UsbHandler.FLOAT_ARG_PREAMBLE, 0, 0, arg, null);
+    }
+
+    static PendingCall stringCall(final String name, final String arg) {
+        return new PendingCall(name, UsbHandler.STRING_ARG_PREAMBLE, 0, 0, 0, arg);
+    }
+
+    /**
+     * Creates a new call with the same function and arguments, not yet sent.
+     *
+     * @return A new pending call
+     */
+    PendingCall renew() {
+        PendingCall call = new PendingCall(functionName, signature, intArg1, intArg2, floatArg, stringArg);
+        call.setTimeout(timeoutMillis);
+        call.setPriority(priority);
+        return call;
+    }
+
+    String getFunctionName() {
+        return functionName;
+    }
+
+    char getSignature() {
+        return signature;
+    }
+
+    int getIntArg1() {
+        return intArg1;
+    }
+
+    int getIntArg2() {
+        return intArg2;
+    }
+
+    float getFloatArg() {
+        return floatArg;
+    }
+
+    String getStringArg() {
+        return stringArg;
+    }
+
+    int getRequestId() {
+        return requestId;
+    }
+
+    void setRequestId(final int id) {
+        requestId = id;
+    }
+
+    /**
+     * Milliseconds allowed to the call, from its submission to its result.
+     *
+     * @return 0 if the call waits without limit
+     */
+    long getTimeout() {
+        return timeoutMillis;
+    }
+
+    void setTimeout(final long millis) {
+        timeoutMillis = millis;
+    }
+
+    CallPriority getPriority() {
+        return priority;
+    }
+
+    void setPriority(final CallPriority lane) {
+        priority = lane;
+    }
+
+    /**
+     * @return The time the call entered the waiting queue (System.nanoTime)
+     */
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    void setQueuedNanos(final long nanos) {
+        queuedNanos = nanos;
+    }
+
+    void setTimeoutTask(final Future<?> task) {
+        timeoutTask = task;
+        if (result.isDone()) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Starts the measure of the call: the latency is the time from now to the result.
+     *
+     * @param callMetrics The counters of the called function
+     */
+    void startMetrics(final CallMetrics callMetrics) {
+        metrics = callMetrics;
+        startNanos = System.nanoTime();
+        callMetrics.recordCall();
+    }
+
+    /**
+     * Records the bytes of the encoded call (it is called by the sending thread).
+     */
+    void recordSent(final int bytes) {
+        CallMetrics callMetrics = metrics;
+        if (callMetrics != null) {
+            callMetrics.recordSent(bytes);
+        }
+    }
+
+    String getDescription() {
+        switch (signature) {
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                return functionName + "(" + intArg1 + "," + intArg2 + ")";
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                return functionName + "(" + floatArg + ")";
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                return functionName + "(" + stringArg + ")";
+            default:
+                return functionName;
+        }
+    }
+
+    void complete(final Object value) {
+        complete(value, 0);
+    }
+
+    /**
+     * Completes the call with the received value.
+     *
+     * @param value The received value
+     * @param receivedBytes The size of the received frame
+     */
+    void complete(final Object value, final int receivedBytes) {
+        if (result.complete(value) && (metrics != null)) {
+            metrics.recordLatency(System.nanoTime() - startNanos);
+            metrics.recordReceived(receivedBytes);
+        }
+        cancelTimeout();
+    }
+
+    /**
+     * Completes the call without value after an error of Arduino (not pipelined mode, where
+     * the error is notified to the error handler instead of failing the call).
+     *
+     * @param receivedBytes The size of the received error frame
+     */
+    void completeAfterError(final int receivedBytes) {
+        answeredByError = true;
+        if (result.complete(null) && (metrics != null)) {
+            metrics.recordError();
+            metrics.recordLatency(System.nanoTime() - startNanos);
+            metrics.recordReceived(receivedBytes);
+        }
+        cancelTimeout();
+    }
+
+    /**
+     * Fails the call. The reason is always reported as ArduinoRpcJavaFailsException,
+     * both to the synchronous and to the asynchronous callers.
+     *
+     * @param ex The reason of failure
+     */
+    void fail(final Exception ex) {
+        fail(ex, 0);
+    }
+
+    /**
+     * Fails the call; an error received from Arduino is measured as a result.
+     *
+     * @param ex The reason of failure
+     * @param receivedBytes The size of the received error frame (0 for the local failures)
+     */
+    void fail(final Exception ex, final int receivedBytes) {
+        boolean failed;
+        if (ex instanceof ArduinoRpcJavaFailsException) {
+            failed = result.completeExceptionally(ex);
+        } else {
+            failed = result.completeExceptionally(new ArduinoRpcJavaFailsException("Executing " + getDescription(), ex));
+        }
+        if (failed && (metrics != null)) {
+            if (ex instanceof ArduinoRpcTimeoutException) {
+                metrics.recordTimeout();
+            } else {
+                metrics.recordError();
+            }
+            if (receivedBytes > 0) {
+                metrics.recordLatency(System.nanoTime() - startNanos);
+                metrics.recordReceived(receivedBytes);
+            }
+        }
+        cancelTimeout();
+    }
+
+    /**
+     * Completes the call with the result of another call (i.e. a cached result), without
+     * any command sent to the card.
+     *
+     * @param source The result of the other call
+     */
+    void completeFrom(final CompletableFuture<?> source) {
+        copyResult(source, result);
+    }
+
+    /**
+     * @return true if the call was completed without value after an error of Arduino
+     */
+    boolean isAnsweredByError() {
+        return answeredByError;
+    }
+
+    boolean isDone() {
+        return result.isDone();
+    }
+
+    private void cancelTimeout() {
+        Future<?> task = timeoutTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Returns a copy of the future completed by the receiving side: the caller can cancel or
+     * complete it, without changing the result of the call.
+     *
+     * @param <T> The type of result expected for the call signature
+     * @return The future of call result
+     */
+    <T> CompletableFuture<T> getFuture() {
+        CompletableFuture<T> copy = new CompletableFuture<>();
+        copyResult(result, copy);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void copyResult(final CompletableFuture<?> source, final CompletableFuture<T> target) {
+        source.whenComplete((value, ex) -> {
+            if (ex == null) {
+                target.complete((T) value);
+            } else {
+                target.completeExceptionally(ex);
+            }
+        });
+    }
+
+    /**
+     * Waits until the call is completed by the receiving side.
+     *
+     * @return The value sent back from Arduino (null for void functions)
+     * @throws ArduinoRpcJavaFailsException If the call fails or the waiting is interrupted
+     */
+    Object await() throws ArduinoRpcJavaFailsException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ArduinoRpcJavaFailsException("Waiting result from called Arduino function", ex);
+        } catch (ExecutionException ex) {
+            throw (ArduinoRpcJavaFailsException) ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcTimeoutException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of the remote calls of a connection.<br>
+ * The submitted calls wait into the queue until the number of calls on the wire
+ * is lower than the allowed maximum; then they are sent and they wait for a result.<br>
+ * No thread is blocked by the queue: the next waiting call is sent by the thread which
+ * submits a call or by the receiving thread which completes the previous one.<br>
+ * All the calls which can be sent together are encoded into the sending buffer and
+ * written on the wire with a single write.<br>
+ * The waiting calls are kept into a lane for any CallPriority: the next call sent is the oldest
+ * of the highest lane with waiting calls, but a lane passed over MAX_PASSED_OVER times in a row
+ * sends its oldest call anyway, so the lower lanes are slowed down and never starved.<br>
+ * When the sender refuses a call (flow control), the call keeps its place and the sending is
+ * resumed by the next credit received from the card.
+ * <ul>
+ * <li>Not tagged mode: one call at time, any result completes the oldest call on the wire.</li>
+ * <li>Tagged mode: any call receives a request id, the result completes the matching call.</li>
+ * </ul>
+ * A call with a timeout fails with ArduinoRpcTimeoutException when its result is not received in time.
+ * If the expired call is already on the wire, it keeps its place (and its request id) for one more
+ * timeout period, so its late result is discarded instead of completing another call.
+ */
+class PendingCallQueue {
+
+    /**
+     * Highest request id used in tagged mode; the ids are reused cyclically.
+     */
+    static final int MAX_REQUEST_ID = 255;
+
+    /**
+     * Calls of higher lanes sent while a lane is waiting, before the lane sends a call.
+     */
+    static final int MAX_PASSED_OVER = 8;
+
+    /**
+     * Physical send of the calls
+     */
+    interface Sender {
+        /**
+         * Encodes the call into the sending buffer
+         *
+         * @return false if the call can not be sent now (the flow control window is full)
+         */
+        boolean send(PendingCall call) throws IOException;
+
+        /**
+         * Writes the sending buffer on the wire
+         */
+        void flush() throws IOException;
+
+        /**
+         * No call is on the wire: all the sent bytes have been read by the card
+         */
+        void lineIdle();
+    }
+
+    /**
+     * Timer of the call timeouts, shared by all the connections
+     */
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final List<Deque<PendingCall>> lanes = new ArrayList<>();
+    private final int[] passedOver = new int[CallPriority.values().length];
+    private final Map<Integer, PendingCall> inFlightCalls = new LinkedHashMap<>();
+    private final int maxInFlight;
+    private final Sender sender;
+    private final ConnectionMetrics metrics;
+    private final List<PendingCall> sendingCalls = new ArrayList<>();
+    private int waitingCount = 0;
+    private int lastRequestId = 0;
+
+    PendingCallQueue(final int maxCallsInFlight, final Sender callSender, final ConnectionMetrics connectionMetrics) {
+        maxInFlight = maxCallsInFlight;
+        sender = callSender;
+        metrics = connectionMetrics;
+        for (int lane = 0; lane < passedOver.length; lane++) {
+            lanes.add(new ArrayDeque<>());
+        }
+    }
+
+    boolean isTagged() {
+        return maxInFlight > 1;
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    void submit(final PendingCall call) {
+        synchronized (this) {
+            enqueue(call);
+        }
+        scheduleTimeout(call);
+        sendWaitingCalls();
+    }
+
+    /**
+     * Submits more calls at once: when the wire has room for all of them,
+     * they are sent with a single write.<br>
+     * The calls are queued into the lane of the highest priority among them, so they keep their order.
+     *
+     * @param calls The calls to send, in sending order
+     */
+    void submitAll(final List<PendingCall> calls) {
+        CallPriority priority = CallPriority.BULK;
+        for (PendingCall call : calls) {
+            if (call.getPriority().compareTo(priority) < 0) {
+                priority = call.getPriority();
+            }
+        }
+        synchronized (this) {
+            for (PendingCall call : calls) {
+                call.setPriority(priority);
+                enqueue(call);
+            }
+        }
+        calls.forEach(this::scheduleTimeout);
+        sendWaitingCalls();
+    }
+
+    /**
+     * Sends the waiting calls, after the flow control window is enlarged.
+     */
+    void resume() {
+        sendWaitingCalls();
+    }
+
+    /**
+     * Completes the call identified by the request id.
+     * Results of unknown (or already completed) requests are discarded.
+     *
+     * @param requestId The request id echoed back by Arduino
+     * @param result The received value
+     * @param frameSize The size of the received frame
+     */
+    void complete(final int requestId, final Object result, final int frameSize) {
+        PendingCall call;
+        synchronized (this) {
+            call = inFlightCalls.remove(requestId);
+        }
+        if (call != null) {
+            sendWaitingCalls();
+            call.complete(result, frameSize);
+        }
+    }
+
+    /**
+     * Completes the oldest call on the wire (not tagged mode).
+     *
+     * @param result The received value
+     * @param frameSize The size of the received frame
+     */
+    void completeOldest(final Object result, final int frameSize) {
+        PendingCall call = removeOldest();
+        if (call != null) {
+            sendWaitingCalls();
+            call.complete(result, frameSize);
+        }
+    }
+
+    /**
+     * Completes without value the oldest call on the wire, after an error of Arduino (not tagged mode).
+     *
+     * @param frameSize The size of the received error frame
+     */
+    void completeOldestAfterError(final int frameSize) {
+        PendingCall call = removeOldest();
+        if (call != null) {
+            sendWaitingCalls();
+            call.completeAfterError(frameSize);
+        }
+    }
+
+    /**
+     * Fails the call identified by the request id.
+     *
+     * @param requestId The request id echoed back by Arduino
+     * @param ex The reason of failure
+     * @param frameSize The size of the received error frame
+     */
+    void fail(final int requestId, final Exception ex, final int frameSize) {
+        PendingCall call;
+        synchronized (this) {
+            call = inFlightCalls.remove(requestId);
+        }
+        if (call != null) {
+            sendWaitingCalls();
+            call.fail(ex, frameSize);
+        }
+    }
+
+    synchronized boolean isIdle() {
+        return inFlightCalls.isEmpty() && (waitingCount == 0);
+    }
+
+    /**
+     * Fails any call waiting or on the wire.
+     *
+     * @param ex The reason of failure
+     */
+    void failAll(final Exception ex) {
+        List<PendingCall> failing;
+        synchronized (this) {
+            failing = new ArrayList<>(inFlightCalls.values());
+            inFlightCalls.clear();
+            for (Deque<PendingCall> lane : lanes) {
+                for (PendingCall call : lane) {
+                    metrics.laneDiscarded(call.getPriority());
+                    failing.add(call);
+                }
+                lane.clear();
+            }
+            waitingCount = 0;
+        }
+        for (PendingCall call : failing) {
+            call.fail(ex);
+        }
+    }
+
+    private void scheduleTimeout(final PendingCall call) {
+        if (call.getTimeout() > 0) {
+            call.setTimeoutTask(TIMER.schedule(() -> expire(call), call.getTimeout(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Fails a call not completed within its timeout.
+     *
+     * @param call The expired call
+     */
+    void expire(final PendingCall call) {
+        boolean onWire;
+        synchronized (this) {
+            onWire = (removeWaiting(call) == false) && (inFlightCalls.get(call.getRequestId()) == call);
+        }
+        call.fail(new ArduinoRpcTimeoutException("Executing " + call.getDescription() +
+                ": no result within " + call.getTimeout() + " ms"));
+        if (onWire) {
+            TIMER.schedule(() -> release(call), call.getTimeout(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Frees the place of an expired call whose result was never received.
+     *
+     * @param call The expired call
+     */
+    private void release(final PendingCall call) {
+        boolean released;
+        synchronized (this) {
+            released = inFlightCalls.remove(call.getRequestId(), call);
+        }
+        if (released) {
+            sendWaitingCalls();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "ArduinoRpc-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private void enqueue(final PendingCall call) {
+        call.setQueuedNanos(System.nanoTime());
+        lanes.get(call.getPriority().ordinal()).add(call);
+        waitingCount++;
+        metrics.laneQueued(call.getPriority());
+    }
+
+    private boolean removeWaiting(final PendingCall call) {
+        if (lanes.get(call.getPriority().ordinal()).remove(call) == false) {
+            return false;
+        }
+        waitingCount--;
+        metrics.laneDiscarded(call.getPriority());
+        return true;
+    }
+
+    /**
+     * Returns the lane of the next call to send: the highest lane, unless a lower lane
+     * was passed over too many times.
+     */
+    private int nextLane() {
+        int chosen = -1;
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            if (lanes.get(lane).isEmpty()) {
+                continue;
+            }
+            if (chosen < 0) {
+                chosen = lane;
+            } else if (passedOver[lane] >= MAX_PASSED_OVER) {
+                chosen = lane;
+                break;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Takes the oldest call of the lane, to send it.
+     */
+    private void pollWaiting(final int chosen) {
+        for (int lane = 0; lane < lanes.size(); lane++) {
+            if (lane == chosen) {
+                passedOver[lane] = 0;
+            } else if (lanes.get(lane).isEmpty() == false) {
+                passedOver[lane]++;
+            }
+        }
+        PendingCall call = lanes.get(chosen).poll();
+        waitingCount--;
+        metrics.laneSent(call.getPriority(), System.nanoTime() - call.getQueuedNanos());
+    }
+
+    private synchronized PendingCall removeOldest() {
+        Iterator<PendingCall> oldest = inFlightCalls.values().iterator();
+        if (oldest.hasNext() == false) {
+            return null;
+        }
+        PendingCall call = oldest.next();
+        oldest.remove();
+        return call;
+    }
+
+    /**
+     * Sends the waiting calls while the wire has room for them.
+     * The sending is performed holding the queue lock in order to keep the
+     * commands unbroken on the wire.
+     */
+    private void sendWaitingCalls() {
+        Map<PendingCall, IOException> failed = null;
+        synchronized (this) {
+            if (inFlightCalls.isEmpty()) {
+                sender.lineIdle();
+            }
+            while ((inFlightCalls.size() < maxInFlight) && (waitingCount > 0)) {
+                int lane = nextLane();
+                PendingCall call = lanes.get(lane).peek();
+                if (isTagged()) {
+                    call.setRequestId(nextRequestId());
+                }
+                try {
+                    if (sender.send(call) == false) {
+                        // No room on the card: the call keeps its place until the next credit
+                        break;
+                    }
+                    pollWaiting(lane);
+                    inFlightCalls.put(call.getRequestId(), call);
+                    sendingCalls.add(call);
+                } catch (IOException ex) {
+                    pollWaiting(lane);
+                    failed = addFailure(failed, call, ex);
+                }
+            }
+            if (sendingCalls.isEmpty() == false) {
+                try {
+                    sender.flush();
+                } catch (IOException ex) {
+                    for (PendingCall call : sendingCalls) {
+                        inFlightCalls.remove(call.getRequestId());
+                        failed = addFailure(failed, call, ex);
+                    }
+                }
+                sendingCalls.clear();
+            }
+        }
+        // The callers are notified out of the lock, they may submit other calls
+        if (failed != null) {
+            for (Map.Entry<PendingCall, IOException> failure : failed.entrySet()) {
+                failure.getKey().fail(failure.getValue());
+            }
+        }
+    }
+
+    private static Map<PendingCall, IOException> addFailure(final Map<PendingCall, IOException> failed,
+            final PendingCall call, final IOException ex) {
+        Map<PendingCall, IOException> result = (failed == null) ? new LinkedHashMap<>() : failed;
+        result.put(call, ex);
+        return result;
+    }
+
+    private int nextRequestId() {
+        // A free id always exists because the calls on the wire are bounded by maxInFlight
+        do {
+            lastRequestId = (lastRequestId % MAX_REQUEST_ID) + 1;
+        } while (inFlightCalls.containsKey(lastRequestId));
+        return lastRequestId;
+    }
+}
@@ -9,35 +9,31 @@ package it.mauxilium.arduinojavaserialrpc.businesslogic;
 import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-
 class ProtocolFromArduino {
 
-    public static void receiveCommand(final BufferedReader inChannel, final ArduinoJavaSerialRpc controller)
-            throws IOException, ArduinoRpcJavaFailsException {
-        String cmdName = inChannel.readLine();
-        String argType = inChannel.readLine();
-        switch (argType.charAt(0)) {
+    /**
+     * Executes a command already decoded (from a text or a binary frame).
+     */
+    public static void executeCommand(final ArduinoJavaSerialRpc controller, final String cmdName,
+            final char signature, final int arg1, final int arg2, final float argF, final String argS)
+            throws ArduinoRpcJavaFailsException {
+        switch (signature) {
             case UsbHandler.VOID_ARG_PREAMBLE:
                 controller.executeLocalMethod(cmdName);
                 break;
             case UsbHandler.INT_INT_ARG_PREAMBLE:
-                int arg1 = Integer.parseInt(inChannel.readLine());
-                int arg2 = Integer.parseInt(inChannel.readLine());
                 controller.executeLocalMethod(cmdName, arg1, arg2);
                 break;
             case UsbHandler.STRING_ARG_PREAMBLE:
-                controller.executeLocalMethod(cmdName, inChannel.readLine());
+                controller.executeLocalMethod(cmdName, argS);
                 break;
             case UsbHandler.FLOAT_ARG_PREAMBLE:
-                float argF = Float.parseFloat(inChannel.readLine());
                 controller.executeLocalMethod(cmdName, argF);
                 break;
             default:
                 throw new ArduinoRpcJavaFailsException(
                         "Error in Arduino request to execute: " + cmdName +
-                        "; Not supported argument model: " + argType);
+                        "; Not supported argument model: " + signature);
         }
     }
 }
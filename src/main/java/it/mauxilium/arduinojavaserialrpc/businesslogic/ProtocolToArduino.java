@@ -18,9 +18,20 @@ import java.io.OutputStream;
  * <li>Send command with float parameter</li>
  * <li>Send command with String parameter</li>
  * </ul>
+ * Any command may be tagged with a request id (pipelined mode); a tagged command is
+ * sent as "#<i>id</i> <i>command</i>" and it is terminated by a new line, so more commands
+ * can be queued into the Arduino receiving buffer at the same time.
  */
 public class ProtocolToArduino {
 
+    /**
+     * Request id used for the not tagged (one call at time) commands
+     */
+    public static final int NO_REQUEST_ID = -1;
+
+    static final char REQUEST_ID_PREFIX = '#';
+    static final char TAGGED_COMMAND_END = '\n';
+
     /**
      * Sends a command model: void method();
      *
@@ -30,9 +41,7 @@ public class ProtocolToArduino {
      */
     public static void sendCommand(final String cmd, final OutputStream output)
             throws IOException {
-        String command = cmd.trim() + " " + UsbHandler.VOID_ARG_PREAMBLE;
-        output.write(command.getBytes());
-        output.flush();
+        sendCommand(NO_REQUEST_ID, cmd, output);
     }
 
     /**
@@ -46,9 +55,7 @@ public class ProtocolToArduino {
      */
     public static void sendCommand(final String cmd, final int arg1,
             final int arg2, final OutputStream output) throws IOException {
-        String command = cmd.trim() + " " + UsbHandler.INT_INT_ARG_PREAMBLE + arg1 + "," + arg2;
-        output.write(command.getBytes());
-        output.flush();
+        sendCommand(NO_REQUEST_ID, cmd, arg1, arg2, output);
     }
 
     /**
@@ -61,9 +68,7 @@ public class ProtocolToArduino {
      */
     public static void sendCommand(final String cmd, final float arg1,
             final OutputStream output) throws IOException {
-        String command = cmd.trim() + " " + UsbHandler.FLOAT_ARG_PREAMBLE + arg1;
-        output.write(command.getBytes());
-        output.flush();
+        sendCommand(NO_REQUEST_ID, cmd, arg1, output);
     }
 
     /**
@@ -76,8 +81,72 @@ public class ProtocolToArduino {
      */
     public static void sendCommand(final String cmd, final String arg1,
             final OutputStream output) throws IOException {
-        String command = cmd.trim() + " " + UsbHandler.STRING_ARG_PREAMBLE + arg1;
-        output.write(command.getBytes());
+        sendCommand(NO_REQUEST_ID, cmd, arg1, output);
+    }
+
+    /**
+     * Sends a tagged command model: void method();
+     *
+     * @param requestId Request id echoed back by Arduino, or NO_REQUEST_ID
+     * @param cmd Command name
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    public static void sendCommand(final int requestId, final String cmd, final OutputStream output)
+            throws IOException {
+        send(requestId, cmd.trim() + " " + UsbHandler.VOID_ARG_PREAMBLE, output);
+    }
+
+    /**
+     * Sends a tagged command model: int method(int, int);
+     *
+     * @param requestId Request id echoed back by Arduino, or NO_REQUEST_ID
+     * @param cmd Command name
+     * @param arg1 First argument
+     * @param arg2 Second Argument
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    public static void sendCommand(final int requestId, final String cmd, final int arg1,
+            final int arg2, final OutputStream output) throws IOException {
+        send(requestId, cmd.trim() + " " + UsbHandler.INT_INT_ARG_PREAMBLE + arg1 + "," + arg2, output);
+    }
+
+    /**
+     * Sends a tagged command model: float method(float);
+     *
+     * @param requestId Request id echoed back by Arduino, or NO_REQUEST_ID
+     * @param cmd Command name
+     * @param arg1 Command argument
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    public static void sendCommand(final int requestId, final String cmd, final float arg1,
+            final OutputStream output) throws IOException {
+        send(requestId, cmd.trim() + " " + UsbHandler.FLOAT_ARG_PREAMBLE + arg1, output);
+    }
+
+    /**
+     * Sends a tagged command model: String method(String);
+     *
+     * @param requestId Request id echoed back by Arduino, or NO_REQUEST_ID
+     * @param cmd Command name
+     * @param arg1 Command argument
+     * @param output Sending channel
+     * @throws IOException In case of any sending error
+     */
+    public static void sendCommand(final int requestId, final String cmd, final String arg1,
+            final OutputStream output) throws IOException {
+        send(requestId, cmd.trim() + " " + UsbHandler.STRING_ARG_PREAMBLE + arg1, output);
+    }
+
+    private static void send(final int requestId, final String command, final OutputStream output)
+            throws IOException {
+        String row = command;
+        if (requestId != NO_REQUEST_ID) {
+            row = REQUEST_ID_PREFIX + String.valueOf(requestId) + " " + command + TAGGED_COMMAND_END;
+        }
+        output.write(row.getBytes());
         output.flush();
     }
 }
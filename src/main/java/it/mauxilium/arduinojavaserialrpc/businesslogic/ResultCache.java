@@ -0,0 +1,160 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory of the results of the remote functions declared cacheable (i.e. pure lookups of the sketch,
+ * as GetCardName or calibration constants).<br>
+ * The results are kept by function name and arguments, for the time to live of the function; the
+ * number of results is bounded and the least recently used one is evicted first.<br>
+ * The cache keeps the future of the call: an equal call received while the first one is still on the
+ * wire shares its result, instead of sending a second command. A failed call, or a call completed without
+ * value after an error of Arduino (not pipelined mode), is removed, so it is executed again by the next
+ * equal call.
+ */
+class ResultCache {
+
+    static final int DEFAULT_MAX_RESULTS = 256;
+
+    private final Map<String, Long> timesToLive = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Key, Result> results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Result> eldest) {
+            return size() > maxResults;
+        }
+    };
+    private int maxResults = DEFAULT_MAX_RESULTS;
+
+    void setCacheable(final String functionName, final long timeToLiveNanos) {
+        timesToLive.put(functionName, timeToLiveNanos);
+    }
+
+    synchronized void setNotCacheable(final String functionName) {
+        timesToLive.remove(functionName);
+        results.keySet().removeIf(key -> key.functionName.equals(functionName));
+    }
+
+    synchronized void setMaxResults(final int maximum) {
+        if (maximum < 1) {
+            throw new IllegalArgumentException("The cache size must be positive: " + maximum);
+        }
+        maxResults = maximum;
+        while (results.size() > maxResults) {
+            results.remove(results.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Returns the result of an equal call; if there is none, the result of the given call is
+     * kept for the following ones.
+     *
+     * @param call The call to execute
+     * @return The (maybe not yet completed) result of an equal call, or null if the call must be sent
+     */
+    CompletableFuture<Object> share(final PendingCall call) {
+        Long timeToLive = timesToLive.get(call.getFunctionName());
+        if (timeToLive == null) {
+            return null;
+        }
+        Key key = new Key(call);
+        long now = System.nanoTime();
+        CompletableFuture<Object> future = call.getFuture();
+        synchronized (this) {
+            Result cached = results.get(key);
+            if ((cached != null) && (now - cached.expiration < 0) && (cached.isFailed() == false)) {
+                return cached.future;
+            }
+            results.put(key, new Result(call, now + timeToLive));
+        }
+        future.whenComplete((value, ex) -> {
+            if ((ex != null) || call.isAnsweredByError()) {
+                remove(key, future);
+            }
+        });
+        return null;
+    }
+
+    synchronized void flush() {
+        results.clear();
+    }
+
+    private synchronized void remove(final Key key, final CompletableFuture<Object> future) {
+        Result cached = results.get(key);
+        if ((cached != null) && (cached.future == future)) {
+            results.remove(key);
+        }
+    }
+
+    private static final class Result {
+
+        private final PendingCall call;
+        private final CompletableFuture<Object> future;
+        private final long expiration;
+
+        Result(final PendingCall resultCall, final long expirationNanos) {
+            call = resultCall;
+            future = resultCall.getFuture();
+            expiration = expirationNanos;
+        }
+
+        /**
+         * The result may be not yet removed: the removal runs after the callers of the call are resumed
+         */
+        boolean isFailed() {
+            return future.isCompletedExceptionally() || call.isAnsweredByError();
+        }
+    }
+
+    /**
+     * Function name and arguments of a call
+     */
+    private static final class Key {
+
+        private final String functionName;
+        private final char signature;
+        private final int intArg1;
+        private final int intArg2;
+        private final int floatBits;
+        private final String stringArg;
+
+        Key(final PendingCall call) {
+            functionName = call.getFunctionName();
+            signature = call.getSignature();
+            intArg1 = call.getIntArg1();
+            intArg2 = call.getIntArg2();
+            floatBits = Float.floatToIntBits(call.getFloatArg());
+            stringArg = call.getStringArg();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if ((other instanceof Key) == false) {
+                return false;
+            }
+            Key key = (Key) other;
+            return functionName.equals(key.functionName) && (signature == key.signature) &&
+                    (intArg1 == key.intArg1) && (intArg2 == key.intArg2) && (floatBits == key.floatBits) &&
+                    Objects.equals(stringArg, key.stringArg);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = functionName.hashCode();
+            hash = 31 * hash + signature;
+            hash = 31 * hash + intArg1;
+            hash = 31 * hash + intArg2;
+            hash = 31 * hash + floatBits;
+            return 31 * hash + Objects.hashCode(stringArg);
+        }
+    }
+}
@@ -0,0 +1,551 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental parser of the text protocol, fed with the raw bytes received from Arduino.<br>
+ * The rows are collected into a reused buffer and decoded by a state machine: preambles are
+ * matched byte by byte, integers and floats are parsed in place and the command names are
+ * taken from a small cache, so a received frame does not create garbage. A String is created
+ * only for the values which are Strings (and for the text messages).<br>
+ * Rows can end with "\n" or "\r\n" (the Arduino println).
+ */
+class TextFrameParser {
+
+    private static final byte[] CMD_PREAMBLE = ascii("MArC_cmd");
+    private static final byte[] RESULT_PREAMBLE = ascii("MArC_res");
+    private static final byte[] ERROR_PREAMBLE = ascii("MArC_err");
+    private static final byte[] MESSAGE_PREAMBLE = ascii("MArC_msg");
+    private static final byte[] TELEMETRY_PREAMBLE = ascii("MArC_tlm");
+    private static final byte[] CREDIT_PREAMBLE = ascii(CreditWindow.NEGOTIATION_COMMAND);
+    private static final byte[] FUNCTION_TABLE_PREAMBLE = ascii(FunctionTable.NEGOTIATION_COMMAND);
+    private static final byte[] BINARY_PREAMBLE = ascii(BinaryProtocol.NEGOTIATION_COMMAND);
+
+    private static final byte[] ARDUINO_NAN = ascii("nan");
+    private static final byte[] ARDUINO_INFINITY = ascii("inf");
+    private static final byte[] ARDUINO_NEGATIVE_INFINITY = ascii("-inf");
+
+    private static final int INITIAL_ROW_SIZE = 128;
+    private static final int NAME_CACHE_SIZE = 64;
+
+    /**
+     * Exact powers of ten, to scale the parsed float mantissa
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    /**
+     * Above it, the mantissa could be not exactly represented by a double
+     */
+    private static final long MAX_EXACT_MANTISSA = (1L << 53) / 10;
+
+    private enum Row {
+        PREAMBLE,
+        CMD_NAME, CMD_SIGNATURE, CMD_INT1, CMD_INT2, CMD_FLOAT, CMD_STRING,
+        RES_ID, RES_TYPE, RES_INT, RES_FLOAT, RES_STRING,
+        ERR_ID, ERR_MESSAGE,
+        TLM_CHANNEL, TLM_TIME, TLM_VALUE,
+        CREDIT,
+        FID_FUNCTIONS, FID_FUNCTION, FID_METHODS, FID_METHOD,
+        MESSAGE
+    }
+
+    private final UsbHandler usbH;
+    private final FrameListener listener;
+    private final Charset charset = Charset.defaultCharset();
+    private byte[] row = new byte[INITIAL_ROW_SIZE];
+    private int rowSize;
+    private int frameSize;
+    private Row expected = Row.PREAMBLE;
+    private boolean malformed;
+
+    private final byte[][] cachedNameBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+
+    private String commandName;
+    private int commandArg1;
+    private int requestId;
+    private int telemetryChannel;
+    private long telemetryTime;
+    private int tableRows;
+    private FunctionTable receivingTable;
+    private FunctionTable functionTable;
+
+    TextFrameParser(final UsbHandler usbHandler, final FrameListener frameListener) {
+        usbH = usbHandler;
+        listener = frameListener;
+    }
+
+    /**
+     * Parses the received bytes. The parsing stops after the row which accepts the binary
+     * protocol, since the following bytes are binary frames.
+     *
+     * @param data The received bytes
+     * @param offset Index of first byte to parse
+     * @param length Number of bytes to parse
+     * @return The number of parsed bytes
+     */
+    int feed(final byte[] data, final int offset, final int length) {
+        for (int index = offset; index < offset + length; index++) {
+            byte received = data[index];
+            frameSize++;
+            if (received == '\n') {
+                boolean binary = parseRow();
+                rowSize = 0;
+                if (expected == Row.PREAMBLE) {
+                    // The frame is complete (or discarded): the next row starts a new one
+                    frameSize = 0;
+                }
+                if (binary) {
+                    return index + 1 - offset;
+                }
+            } else if (received != '\r') {
+                if (rowSize == row.length) {
+                    byte[] larger = new byte[row.length * 2];
+                    System.arraycopy(row, 0, larger, 0, rowSize);
+                    row = larger;
+                }
+                row[rowSize++] = received;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a complete row.
+     *
+     * @return true if the row switches the communication to the binary protocol
+     */
+    private boolean parseRow() {
+        malformed = false;
+        switch (expected) {
+            case PREAMBLE:
+                return parsePreamble();
+            case CMD_NAME:
+                commandName = commandName();
+                expected = Row.CMD_SIGNATURE;
+                break;
+            case CMD_SIGNATURE:
+                parseCommandSignature();
+                break;
+            case CMD_INT1:
+                commandArg1 = parseInt();
+                expected = malformed ? Row.PREAMBLE : Row.CMD_INT2;
+                break;
+            case CMD_INT2:
+                int commandArg2 = parseInt();
+                expected = Row.PREAMBLE;
+                if (malformed == false) {
+                    listener.command(commandName, UsbHandler.INT_INT_ARG_PREAMBLE, commandArg1, commandArg2,
+                            0, null, frameSize);
+                }
+                break;
+            case CMD_FLOAT:
+                float commandArgF = parseFloat();
+                expected = Row.PREAMBLE;
+                if (malformed == false) {
+                    listener.command(commandName, UsbHandler.FLOAT_ARG_PREAMBLE, 0, 0, commandArgF, null, frameSize);
+                }
+                break;
+            case CMD_STRING:
+                expected = Row.PREAMBLE;
+                listener.command(commandName, UsbHandler.STRING_ARG_PREAMBLE, 0, 0, 0, rowString(), frameSize);
+                break;
+            case RES_ID:
+                requestId = parseInt();
+                expected = malformed ? Row.PREAMBLE : Row.RES_TYPE;
+                break;
+            case RES_TYPE:
+                parseResultType();
+                break;
+            case RES_INT:
+                int intResult = parseInt();
+                expected = Row.PREAMBLE;
+                if (malformed) {
+                    // The waiting call is failed, instead of leaving it without result
+                    listener.error(requestId, "Malformed received value: " + rowString(), frameSize);
+                    return false;
+                }
+                listener.result(requestId, intResult, frameSize);
+                break;
+            case RES_FLOAT:
+                float floatResult = parseFloat();
+                expected = Row.PREAMBLE;
+                if (malformed) {
+                    listener.error(requestId, "Malformed received value: " + rowString(), frameSize);
+                    return false;
+                }
+                listener.result(requestId, floatResult, frameSize);
+                break;
+            case RES_STRING:
+                expected = Row.PREAMBLE;
+                listener.result(requestId, rowString(), frameSize);
+                break;
+            case ERR_ID:
+                requestId = parseInt();
+                expected = malformed ? Row.PREAMBLE : Row.ERR_MESSAGE;
+                break;
+            case ERR_MESSAGE:
+                expected = Row.PREAMBLE;
+                listener.error(requestId, rowString(), frameSize);
+                break;
+            case TLM_CHANNEL:
+                telemetryChannel = parseInt();
+                expected = malformed ? Row.PREAMBLE : Row.TLM_TIME;
+                break;
+            case TLM_TIME:
+                telemetryTime = parseUnsignedLong();
+                expected = malformed ? Row.PREAMBLE : Row.TLM_VALUE;
+                break;
+            case TLM_VALUE:
+                float sample = parseFloat();
+                expected = Row.PREAMBLE;
+                if (malformed == false) {
+                    listener.telemetry(telemetryChannel, telemetryTime, sample);
+                }
+                break;
+            case CREDIT:
+                int credit = parseInt();
+                expected = Row.PREAMBLE;
+                if (malformed == false) {
+                    listener.credit(credit);
+                }
+                break;
+            case FID_FUNCTIONS:
+            case FID_METHODS:
+                tableRows = parseInt();
+                parseTableEnd();
+                break;
+            case FID_FUNCTION:
+            case FID_METHOD:
+                parseTableEntry();
+                break;
+            default:
+                expected = Row.PREAMBLE;
+                listener.message(rowString());
+        }
+        if (malformed) {
+            listener.frameError("Malformed received value: " + rowString());
+        }
+        return false;
+    }
+
+    private boolean parsePreamble() {
+        requestId = ProtocolToArduino.NO_REQUEST_ID;
+        if (rowEquals(CMD_PREAMBLE)) {
+            expected = Row.CMD_NAME;
+        } else if (rowEquals(RESULT_PREAMBLE)) {
+            expected = usbH.isPipelined() ? Row.RES_ID : Row.RES_TYPE;
+        } else if (rowEquals(ERROR_PREAMBLE)) {
+            // The answer to the protocol negotiation requests is never tagged
+            expected = (usbH.isPipelined() && (usbH.isNegotiating() == false)) ? Row.ERR_ID : Row.ERR_MESSAGE;
+        } else if (rowEquals(TELEMETRY_PREAMBLE)) {
+            expected = Row.TLM_CHANNEL;
+        } else if (rowEquals(CREDIT_PREAMBLE)) {
+            expected = Row.CREDIT;
+        } else if (rowEquals(FUNCTION_TABLE_PREAMBLE)) {
+            receivingTable = new FunctionTable();
+            expected = Row.FID_FUNCTIONS;
+        } else if (rowEquals(MESSAGE_PREAMBLE)) {
+            expected = Row.MESSAGE;
+        } else if (rowEquals(BINARY_PREAMBLE)) {
+            // Last text row: Arduino waits for the SYNC frame before to send binary frames
+            listener.binaryAccepted();
+            return true;
+        } else if (rowSize > 0) {
+            System.out.println("Ignoring fragmented command: " + rowString());
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a row of the function table: "id,signature,name" or "id,name".
+     */
+    private void parseTableEntry() {
+        int idEnd = indexOf(',', 0);
+        int rowEnd = rowSize;
+        rowSize = Math.max(idEnd, 0);
+        int id = parseInt();
+        rowSize = rowEnd;
+        if (malformed == false) {
+            try {
+                if (expected == Row.FID_FUNCTION) {
+                    int signatureEnd = indexOf(',', idEnd + 1);
+                    if (signatureEnd != idEnd + 2) {
+                        throw new IllegalArgumentException("Missing signature");
+                    }
+                    receivingTable.addFunction(id, (char) row[idEnd + 1], rowString(signatureEnd + 1));
+                } else {
+                    receivingTable.addMethod(id, rowString(idEnd + 1));
+                }
+            } catch (IllegalArgumentException ex) {
+                malformed = true;
+            }
+        }
+        tableRows--;
+        parseTableEnd();
+    }
+
+    /**
+     * Moves to the next section of the function table, when the current one is complete.
+     */
+    private void parseTableEnd() {
+        if (malformed) {
+            // The whole table is discarded: the ids are not used
+            expected = Row.PREAMBLE;
+            receivingTable = null;
+            return;
+        }
+        boolean functions = (expected == Row.FID_FUNCTIONS) || (expected == Row.FID_FUNCTION);
+        if (tableRows > 0) {
+            expected = functions ? Row.FID_FUNCTION : Row.FID_METHOD;
+        } else if (functions) {
+            expected = Row.FID_METHODS;
+        } else {
+            expected = Row.PREAMBLE;
+            // From now the sketch can send the ids of the Java methods
+            functionTable = receivingTable;
+            receivingTable = null;
+            listener.functionTable(functionTable);
+        }
+    }
+
+    private void parseCommandSignature() {
+        expected = Row.PREAMBLE;
+        switch (firstChar()) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                listener.command(commandName, UsbHandler.VOID_ARG_PREAMBLE, 0, 0, 0, null, frameSize);
+                break;
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                expected = Row.CMD_INT1;
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                expected = Row.CMD_FLOAT;
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                expected = Row.CMD_STRING;
+                break;
+            default:
+                listener.frameError("Error in Arduino request to execute: " + commandName +
+                        "; Not supported argument model: " + rowString());
+        }
+    }
+
+    private void parseResultType() {
+        expected = Row.PREAMBLE;
+        switch (firstChar()) {
+            case UsbHandler.VOID_ARG_PREAMBLE:
+                listener.result(requestId, null, frameSize);
+                break;
+            case UsbHandler.INT_ARG_PREAMBLE:
+                expected = Row.RES_INT;
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                expected = Row.RES_FLOAT;
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                expected = Row.RES_STRING;
+                break;
+            default:
+                listener.error(requestId, "Not supported received data type: " + rowString(), frameSize);
+        }
+    }
+
+    private char firstChar() {
+        return (rowSize > 0) ? (char) row[0] : 0;
+    }
+
+    private boolean rowEquals(final byte[] expectedBytes) {
+        if (rowSize != expectedBytes.length) {
+            return false;
+        }
+        for (int index = 0; index < rowSize; index++) {
+            if (row[index] != expectedBytes[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String rowString() {
+        return new String(row, 0, rowSize, charset);
+    }
+
+    private String rowString(final int start) {
+        return new String(row, start, rowSize - start, charset);
+    }
+
+    private int indexOf(final char separator, final int start) {
+        for (int index = start; index < rowSize; index++) {
+            if (row[index] == separator) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name of the called method: the id of the function table ("@2") is
+     * replaced by its name, an unknown id is kept as name (so its dispatch fails).
+     */
+    private String commandName() {
+        FunctionTable table = functionTable;
+        if ((table != null) && (rowSize > 1) && (row[0] == FunctionTable.ID_PREFIX)) {
+            int id = 0;
+            for (int index = 1; (index < rowSize) && (id >= 0); index++) {
+                int digit = row[index] - '0';
+                id = ((digit < 0) || (digit > 9) || (id > (Integer.MAX_VALUE - digit) / 10)) ? -1 : id * 10 + digit;
+            }
+            String name = (id >= 0) ? table.methodName(id) : null;
+            if (name != null) {
+                return name;
+            }
+        }
+        return cachedName();
+    }
+
+    /**
+     * Returns the command name of current row, creating a new String only
+     * the first time the name is received.
+     */
+    private String cachedName() {
+        int hash = 0;
+        for (int index = 0; index < rowSize; index++) {
+            hash = 31 * hash + row[index];
+        }
+        int slot = hash & (NAME_CACHE_SIZE - 1);
+        if ((cachedNameBytes[slot] == null) || (rowEquals(cachedNameBytes[slot]) == false)) {
+            byte[] nameBytes = new byte[rowSize];
+            System.arraycopy(row, 0, nameBytes, 0, rowSize);
+            cachedNameBytes[slot] = nameBytes;
+            cachedNames[slot] = rowString();
+        }
+        return cachedNames[slot];
+    }
+
+    private int parseInt() {
+        int index = 0;
+        boolean negative = false;
+        if ((rowSize > 0) && ((row[0] == '-') || (row[0] == '+'))) {
+            negative = (row[0] == '-');
+            index++;
+        }
+        if (index == rowSize) {
+            malformed = true;
+            return 0;
+        }
+        // Accumulated as negative value, to parse also Integer.MIN_VALUE
+        long value = 0;
+        for (; index < rowSize; index++) {
+            int digit = row[index] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                malformed = true;
+                return 0;
+            }
+            value = value * 10 - digit;
+            if (value < Integer.MIN_VALUE) {
+                malformed = true;
+                return 0;
+            }
+        }
+        if (negative) {
+            return (int) value;
+        }
+        if (value == Integer.MIN_VALUE) {
+            malformed = true;
+            return 0;
+        }
+        return (int) -value;
+    }
+
+    /**
+     * Parses an unsigned number (i.e. the unsigned long micros() of the card).
+     */
+    private long parseUnsignedLong() {
+        if (rowSize == 0) {
+            malformed = true;
+            return 0;
+        }
+        long value = 0;
+        for (int index = 0; index < rowSize; index++) {
+            int digit = row[index] - '0';
+            if ((digit < 0) || (digit > 9) || (value > (Long.MAX_VALUE - digit) / 10)) {
+                malformed = true;
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the float in place when it has the usual Arduino format (i.e. "-12.34");
+     * any other format (i.e. with exponent) is delegated to Float.parseFloat.
+     */
+    private float parseFloat() {
+        int index = 0;
+        boolean negative = false;
+        if ((rowSize > 0) && ((row[0] == '-') || (row[0] == '+'))) {
+            negative = (row[0] == '-');
+            index++;
+        }
+        long mantissa = 0;
+        int decimals = 0;
+        boolean digits = false;
+        boolean dot = false;
+        for (; index < rowSize; index++) {
+            byte received = row[index];
+            if ((received == '.') && (dot == false)) {
+                dot = true;
+            } else if ((received >= '0') && (received <= '9') && (mantissa < MAX_EXACT_MANTISSA)) {
+                mantissa = mantissa * 10 + (received - '0');
+                digits = true;
+                if (dot) {
+                    decimals++;
+                }
+            } else {
+                return parseFloatString();
+            }
+        }
+        if (digits == false) {
+            malformed = true;
+            return 0;
+        }
+        if (decimals >= POWERS_OF_TEN.length) {
+            return parseFloatString();
+        }
+        // Both operands are exact doubles: the division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return (float) (negative ? -value : value);
+    }
+
+    private float parseFloatString() {
+        // Arduino Print writes "nan", "inf" and "-inf"
+        if (rowEquals(ARDUINO_NAN)) {
+            return Float.NaN;
+        } else if (rowEquals(ARDUINO_INFINITY)) {
+            return Float.POSITIVE_INFINITY;
+        } else if (rowEquals(ARDUINO_NEGATIVE_INFINITY)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        try {
+            return Float.parseFloat(rowString());
+        } catch (NumberFormatException ex) {
+            malformed = true;
+            return 0;
+        }
+    }
+
+    private static byte[] ascii(final String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -6,18 +6,39 @@
 //  Copyright 2020 Gabriele Maris
 package it.mauxilium.arduinojavaserialrpc.businesslogic;
 
-import gnu.io.*;
 import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+import it.mauxilium.arduinojavaserialrpc.CardDiscovery;
+import it.mauxilium.arduinojavaserialrpc.ConnectReadiness;
+import it.mauxilium.arduinojavaserialrpc.DiscoveredCard;
+import it.mauxilium.arduinojavaserialrpc.InboundOrdering;
+import it.mauxilium.arduinojavaserialrpc.InboundOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.LinkState;
+import it.mauxilium.arduinojavaserialrpc.LinkStateListener;
+import it.mauxilium.arduinojavaserialrpc.ReconnectPolicy;
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.metrics.MetricsSnapshot;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryBuffer;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.transport.RxtxTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.TooManyListenersException;
-import java.util.concurrent.Semaphore;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Protocol manager for send and receive commands
@@ -44,6 +65,79 @@ import java.util.concurrent.Semaphore;
  * <li>Row 2: Failed command name (string)</li>
  * <li>Row 3: Error message (string)</li>
  * </ol>
+ * <br>
+ * Any call is queued into a PendingCallQueue: the synchronous calls wait for the result
+ * of the queued call, the asynchronous calls return its future.<br>
+ * A call can have a timeout (explicit or the connection default): it starts when the call is
+ * queued, and the expired call fails with ArduinoRpcTimeoutException.<br>
+ * <br>
+ * Pipelined mode:<br>
+ * When the pipeline depth is greater than one, any command is tagged with a request id
+ * (see ProtocolToArduino) and up to "pipeline depth" calls can wait for their result at the same time.
+ * Arduino echoes the request id as the row following the result or error preamble, so the
+ * received result completes the matching pending call:<br>
+ * <ol>
+ * <li>Row 1: Preamble (string)</li>
+ * <li>Row 2: Request id (string)</li>
+ * <li>Row 3..: Rows of the not pipelined result or error</li>
+ * </ol>
+ * <br>
+ * Binary protocol:<br>
+ * When the binary protocol is requested, the void command "MArC_bin" is sent after the connection.
+ * A sketch able to use the binary frames (see BinaryProtocol) answers with the row "MArC_bin" and then
+ * it waits for the SYNC frame; any other sketch answers with an error and the text protocol is kept.<br>
+ * <br>
+ * Card readiness:<br>
+ * Many cards are reset by the opening of the port, and the bytes sent while the bootloader is
+ * running are lost. So the connection sends the "GetCardName" command (tagged with the request id 0 in
+ * pipelined mode, an id never used by the calls) every few hundred milliseconds, until the card answers
+ * or the connection timeout expires; any other frame of the card (i.e. a message printed at the end of
+ * the sketch setup) means ready too. In not pipelined mode the answers are not tagged: when more probes were
+ * sent, the answers still on the way would complete the wrong calls. So after the first answer the void command
+ * "MArC_rdy" (not registered in any sketch, so answered with an error) is sent, and all the frames are consumed
+ * by the probe until its error arrives: the answers of the card keep the order of the commands.<br>
+ * <br>
+ * Telemetry:<br>
+ * The sketch can stream samples of numbered channels (0..255) without waiting for any call:<br>
+ * <ol>
+ * <li>Row 1: Preamble "MArC_tlm" (string)</li>
+ * <li>Row 2: Channel (integer)</li>
+ * <li>Row 3: Card timestamp, micros() (unsigned integer)</li>
+ * <li>Row 4: Value (float)</li>
+ * </ol>
+ * In binary mode a TELEMETRY frame carries many samples of a channel. The samples are stored into the
+ * TelemetryBuffer of their channel (the samples of not opened channels are discarded), without the
+ * reflective dispatch of the calls.<br>
+ * <br>
+ * Automatic reconnection:<br>
+ * When a ReconnectPolicy is set, a LinkSupervisor watches the link (transport failures, write errors and
+ * heartbeats): a lost link fails the waiting calls at once, then the port (or another port where the same
+ * card is found) is opened again with exponential backoff, and the link state changes are notified to the
+ * LinkStateListeners.<br>
+ * <br>
+ * Flow control:<br>
+ * When it is requested, the void command "MArC_crd" is sent after the connection: a sketch supporting the
+ * flow control answers with the size of its serial receive buffer, and then it sends a credit for any byte
+ * read from the buffer (see CreditWindow). The calls are sent only while they fit into the buffer of the
+ * card, so the buffer is never overrun, whatever is the number of calls on the wire.<br>
+ * <br>
+ * Call priorities:<br>
+ * Any remote function can be assigned to a sending lane (see CallPriority): the calls waiting for the
+ * link are sent by priority, with a protection of the lower lanes from starvation (see PendingCallQueue).<br>
+ * <br>
+ * Coalesced writes:<br>
+ * By default the thread which queues a call writes the encoded commands on the port. When the coalesced
+ * writes are enabled, the commands are handed to a CoalescingWriter: the callers return at once and the
+ * commands queued within a short delay are sent with a single write.<br>
+ * <br>
+ * Result cache:<br>
+ * The results of the functions declared cacheable (pure lookups, as GetCardName) are kept by ResultCache
+ * for their time to live: a repeated call with the same arguments is answered from memory, without any
+ * command sent to the card. The cache is emptied when the link is lost or closed.<br>
+ * <br>
+ * Statistics:<br>
+ * Any call, in both the directions, is counted by ConnectionMetrics (calls, errors, timeouts, bytes
+ * and latency histogram of any function), readable by getMetrics() or by JMX while the connection is open.
  */
 public class UsbHandler {
 
@@ -53,7 +147,6 @@ public class UsbHandler {
     public static final char STRING_ARG_PREAMBLE = 'S';
     public static final char FLOAT_ARG_PREAMBLE = 'F';
 
-    SerialPort serialPort;
     /**
      * The port we're normally going to use.
      */
@@ -65,220 +158,1274 @@ public class UsbHandler {
     };
     
     /**
-     * The input stream from the port
+     * The byte channel to the card
      */
-    private BufferedReader input;
+    private volatile SerialTransport transport;
     /**
      * The output stream to the port
      */
-    private OutputStream output;
+    private volatile OutputStream output;
+
+    /**
+     * Milliseconds of silence on the line after which the sketch takes the received text as a not tagged
+     * command (the default timeout of the Arduino Stream): the not tagged probes closer than it are joined
+     */
+    private static final int SKETCH_COMMAND_IDLE = 1000;
+
+    /**
+     * Milliseconds to wait the answer to a negotiation request: the sketch reads the request after
+     * its command idle time
+     */
+    private static final int NEGOTIATION_TIME_OUT = SKETCH_COMMAND_IDLE + 500;
+
     /**
-     * Milliseconds to stop while waiting opening port
+     * Default milliseconds allowed to the card to answer the readiness probes
      */
-    private static final int TIME_OUT = 20000;
+    public static final long DEFAULT_CONNECT_TIME_OUT = 5000;
+
+    /**
+     * Milliseconds waited by the FIXED_DELAY readiness
+     */
+    private static final int FIXED_READY_DELAY = 2000;
+
+    /**
+     * Minimum milliseconds between two readiness probes
+     */
+    private static final int READY_PROBE_INTERVAL = 250;
+
+    /**
+     * Bytes of a readiness probe and its answer, to lengthen the interval at low baud rates
+     */
+    private static final int READY_PROBE_BYTES = 64;
+
+    /**
+     * Request id of the readiness probes in pipelined mode (the calls use 1..MAX_REQUEST_ID)
+     */
+    private static final int READY_PROBE_ID = 0;
+
+    private final CallSender callSender = new CallSender();
+
+    private PendingCallQueue callQueue;
+
+    private WireProtocol requestedProtocol = WireProtocol.TEXT;
+
+    private volatile boolean binaryActive = false;
+
+    private volatile CompletableFuture<Boolean> binaryNegotiation;
+
+    private boolean flowControlRequested = false;
+
+    private volatile CreditWindow creditWindow;
+
+    private volatile CompletableFuture<Integer> creditNegotiation;
+
+    private boolean functionIdsRequested = false;
+
+    private volatile FunctionTable functionTable;
+
+    private volatile CompletableFuture<FunctionTable> functionIdsNegotiation;
+
+    /**
+     * Refusals of the timed out negotiations still expected, until lateRefusalsDeadline
+     */
+    private final AtomicInteger lateRefusals = new AtomicInteger();
+
+    private volatile long lateRefusalsDeadline;
+
+    private final ConnectionMetrics metrics;
+
+    private final InboundDispatcher inboundDispatcher;
+
+    private volatile long defaultTimeoutMillis = 0;
+
+    private ConnectReadiness connectReadiness = ConnectReadiness.PROBE;
+
+    private long connectTimeoutMillis = DEFAULT_CONNECT_TIME_OUT;
+
+    private volatile ReadyProbe readyProbe;
+
+    private ArduinoJavaSerialRpc controller;
+
+    private volatile UsbReceiverAgent receiver;
+
+    private ReconnectPolicy reconnectPolicy;
 
-    private final String selectedPortName;
+    private volatile LinkSupervisor supervisor;
 
-    private final int selectedBaudRate;
+    private final List<LinkStateListener> linkListeners = new CopyOnWriteArrayList<>();
 
-    private Object callingResult;
+    private final AtomicReferenceArray<TelemetryBuffer> telemetryBuffers = new AtomicReferenceArray<>(256);
 
-    private final Semaphore callingLock = new Semaphore(1, true);
+    private final ResultCache resultCache = new ResultCache();
 
-    private final Object waitingResultLock = new Object();
+    private long coalescingDelayNanos = -1;
+
+    private int coalescingFlushBytes;
+
+    private volatile CoalescingWriter writer;
+
+    private final ConcurrentMap<String, CallPriority> callPriorities = new ConcurrentHashMap<>();
 
     public UsbHandler(final String portName, final int portRate) {
-        selectedPortName = portName;
-        selectedBaudRate = portRate;
+        this(new RxtxTransport(portName, portRate));
     }
 
-    public void initialize(final ArduinoJavaSerialRpc ctrl)
-            throws PortInUseException, UnsupportedCommOperationException,
-            IOException, TooManyListenersException, NoSuchPortException {
+    public UsbHandler(final SerialTransport serialTransport) {
+        transport = serialTransport;
+        metrics = new ConnectionMetrics(serialTransport.getName());
+        callQueue = new PendingCallQueue(1, callSender, metrics);
+        inboundDispatcher = new InboundDispatcher(metrics);
+    }
 
-        CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(selectedPortName);
-        if (portIdentifier.isCurrentlyOwned()) {
-            throw new PortInUseException();
-        }
+    public void initialize(final ArduinoJavaSerialRpc ctrl) throws IOException {
 
-        // open serial port, and use class name for the appName.
-        serialPort = (SerialPort) portIdentifier.open(this.getClass().getName(), TIME_OUT);
+        inboundDispatcher.setController(ctrl);
+        controller = ctrl;
 
-        // set port parameters
-        serialPort.setSerialPortParams(selectedBaudRate,
-                SerialPort.DATABITS_8,
-                SerialPort.STOPBITS_1,
-                SerialPort.PARITY_NONE);
+        metrics.register();
+        if (coalescingDelayNanos >= 0) {
+            writer = new CoalescingWriter(this, coalescingDelayNanos, TimeUnit.NANOSECONDS, coalescingFlushBytes);
+            writer.start();
+        }
+        try {
+            openLink(transport);
+        } catch (IOException ex) {
+            stopWriter();
+            metrics.unregister();
+            throw ex;
+        }
 
-        // open the streams
-        input = new BufferedReader(new InputStreamReader(serialPort.getInputStream()));
-        output = serialPort.getOutputStream();
+        if (reconnectPolicy != null) {
+            startSupervisor();
+        }
+    }
 
-        // add event listeners
-        UsbReceiverAgent usbAgent = new UsbReceiverAgent(this, input, ctrl);
-        serialPort.addEventListener(usbAgent);
-        serialPort.notifyOnDataAvailable(true);
-        usbAgent.start();
+    /**
+     * Opens a transport, waits for the card readiness and negotiates the protocol.
+     * On failure the transport is closed.
+     */
+    private void openLink(final SerialTransport link) throws IOException {
+        UsbReceiverAgent usbAgent = new UsbReceiverAgent(this, controller);
+        receiver = usbAgent;
+        lateRefusals.set(0);
+        link.open(usbAgent);
+        output = link.getOutputStream();
+        try {
+            waitCardReady(link);
+            if (flowControlRequested) {
+                negotiateFlowControl();
+            }
+            if (functionIdsRequested) {
+                negotiateFunctionIds();
+            }
+            if (requestedProtocol == WireProtocol.BINARY) {
+                negotiateBinaryProtocol();
+            }
+        } catch (IOException ex) {
+            output = null;
+            closeQuietly(link);
+            throw ex;
+        }
+    }
 
+    private void startSupervisor() throws IOException {
+        LinkSupervisor linkSupervisor = new LinkSupervisor(this, reconnectPolicy, linkListeners);
+        String cardName;
         try {
-            Thread.sleep(2000);
-        } catch (InterruptedException ignored) {}
+            cardName = (String) submitAndWait(withTimeout(PendingCall.stringCall("GetCardName", ""),
+                    connectTimeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (ArduinoRpcJavaFailsException ex) {
+            close();
+            throw new IOException("Reading the name of the card on " + getPortName(), ex);
+        }
+        supervisor = linkSupervisor;
+        linkSupervisor.start(cardName);
     }
 
     public String getPortName() {
-        return selectedPortName;
+        return transport.getName();
     }
 
     public int getBaudRate() {
-        return selectedBaudRate;
+        return transport.getBaudRate();
     }
 
-    public void disconnect() throws IOException {
-        input.close();
-        output.close();
-        serialPort.removeEventListener();
-        serialPort.close();
+    /**
+     * Requests the credit based flow control (it must be supported by the sketch).
+     *
+     * @param enabled true to request the flow control at the connection
+     */
+    public void setFlowControl(final boolean enabled) {
+        if (output != null) {
+            throw new IllegalStateException("Flow control must be set before to connect Arduino");
+        }
+        flowControlRequested = enabled;
     }
 
-    public static String[] portScanner() {
-        ArrayList<String> availablePorts = new ArrayList<>();
-        Enumeration portEnum = CommPortIdentifier.getPortIdentifiers();
-        while (portEnum.hasMoreElements()) {
-            CommPortIdentifier currPortId = (CommPortIdentifier) portEnum.nextElement();
-            availablePorts.add(currPortId.getName()+
-                    " (" + currPortId.getPortType()+
-                    "): owner: "+
-                    currPortId.getCurrentOwner());
+    /**
+     * @return true if the sketch accepted the flow control
+     */
+    public boolean isFlowControlActive() {
+        return creditWindow != null;
+    }
+
+    /**
+     * Requests the numeric function ids (it must be supported by the sketch).
+     *
+     * @param enabled true to request the function table at the connection
+     */
+    public void setFunctionIds(final boolean enabled) {
+        if (output != null) {
+            throw new IllegalStateException("Function ids must be set before to connect Arduino");
         }
-        String[] resList = new String[availablePorts.size()];
-        int index = 0;
-        for (String item : availablePorts) {
-            resList[index++] = item;
+        functionIdsRequested = enabled;
+    }
+
+    /**
+     * @return true if the sketch sent its function table
+     */
+    public boolean isFunctionIdsActive() {
+        return functionTable != null;
+    }
+
+    /**
+     * Sets the maximum number of calls waiting for their result at the same time.
+     * A value greater than one enables the pipelined mode, which requires a sketch able
+     * to echo the request id of any tagged command.
+     *
+     * @param depth The maximum number of calls on the wire (1 disables the pipelined mode)
+     */
+    public void setPipelineDepth(final int depth) {
+        if ((depth < 1) || (depth > PendingCallQueue.MAX_REQUEST_ID)) {
+            throw new IllegalArgumentException("Pipeline depth must be in range 1.." +
+                    PendingCallQueue.MAX_REQUEST_ID + ": " + depth);
+        }
+        if (output != null) {
+            throw new IllegalStateException("Pipeline depth must be set before to connect Arduino");
         }
-        return resList;
+        callQueue = new PendingCallQueue(depth, callSender, metrics);
+    }
+
+    public int getPipelineDepth() {
+        return callQueue.getMaxInFlight();
+    }
+
+    boolean isPipelined() {
+        return callQueue.isTagged();
     }
 
     /**
-     * This should be called when you stop using the port. This will prevent
-     * port locking on platforms like Linux.
+     * Sets the protocol to use with Arduino; it must be set before to connect Arduino.
+     *
+     * @param protocol The requested protocol. The binary one is used only if the sketch supports it.
      */
-    public synchronized void close() {
-        if (serialPort != null) {
-            serialPort.removeEventListener();
-            serialPort.close();
+    public void setWireProtocol(final WireProtocol protocol) {
+        if (output != null) {
+            throw new IllegalStateException("Wire protocol must be set before to connect Arduino");
         }
+        requestedProtocol = protocol;
     }
 
-    public String getCardName() throws ArduinoRpcJavaFailsException {
-        checkConnectionReady();
-        callingLock();
-        synchronized (waitingResultLock) {
+    /**
+     * Sets the way to detect when the card is ready; it must be set before to connect Arduino.
+     *
+     * @param readiness PROBE (the default) or FIXED_DELAY
+     */
+    public void setConnectReadiness(final ConnectReadiness readiness) {
+        if (output != null) {
+            throw new IllegalStateException("Connect readiness must be set before to connect Arduino");
+        }
+        connectReadiness = readiness;
+    }
+
+    public ConnectReadiness getConnectReadiness() {
+        return connectReadiness;
+    }
+
+    /**
+     * Sets the time allowed to the card to answer the readiness probes; it must be set before to connect Arduino.
+     *
+     * @param timeout The allowed time
+     * @param unit The unit of timeout
+     */
+    public void setConnectTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Connect timeout must be positive: " + timeout);
+        }
+        if (output != null) {
+            throw new IllegalStateException("Connect timeout must be set before to connect Arduino");
+        }
+        connectTimeoutMillis = Math.max(unit.toMillis(timeout), 1);
+    }
+
+    public long getConnectTimeout(final TimeUnit unit) {
+        return unit.convert(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables the automatic reconnection; it must be set before to connect Arduino.
+     *
+     * @param policy The reconnection settings, or null to disable the reconnection (the default)
+     */
+    public void setAutoReconnect(final ReconnectPolicy policy) {
+        if (output != null) {
+            throw new IllegalStateException("Automatic reconnection must be set before to connect Arduino");
+        }
+        reconnectPolicy = policy;
+    }
+
+    public void addLinkStateListener(final LinkStateListener listener) {
+        linkListeners.add(listener);
+    }
+
+    public void removeLinkStateListener(final LinkStateListener listener) {
+        linkListeners.remove(listener);
+    }
+
+    /**
+     * Returns the state of the link with the card.
+     *
+     * @return The supervised state with automatic reconnection; otherwise CONNECTED or DISCONNECTED
+     */
+    public LinkState getLinkState() {
+        LinkSupervisor linkSupervisor = supervisor;
+        if (linkSupervisor != null) {
+            return linkSupervisor.getState();
+        }
+        return (output != null) ? LinkState.CONNECTED : LinkState.DISCONNECTED;
+    }
+
+    /**
+     * Starts to store the samples of a telemetry channel; a buffer already open on the channel is replaced.
+     *
+     * @param channel The channel number used by the sketch (0..255)
+     * @param capacity The maximum number of samples not yet read
+     * @param policy The behaviour when the buffer is full
+     * @return The buffer of the channel samples
+     */
+    public TelemetryBuffer openTelemetry(final int channel, final int capacity, final TelemetryOverflowPolicy policy) {
+        TelemetryBuffer buffer = new TelemetryBuffer(channel, capacity, policy);
+        telemetryBuffers.set(channel, buffer);
+        return buffer;
+    }
+
+    /**
+     * Stops to store the samples of a telemetry channel.
+     *
+     * @param channel The channel number (0..255)
+     */
+    public void closeTelemetry(final int channel) {
+        telemetryBuffers.set(channel, null);
+    }
+
+    void telemetrySample(final int channel, final long cardTime, final float value) {
+        TelemetryBuffer buffer = telemetryBuffers.get(channel);
+        if (buffer != null) {
+            buffer.offer(cardTime, value);
+        }
+    }
+
+    /**
+     * Returns the protocol in use
+     * @return BINARY only if it was requested and the sketch has accepted it
+     */
+    public WireProtocol getWireProtocol() {
+        return binaryActive ? WireProtocol.BINARY : WireProtocol.TEXT;
+    }
+
+    /**
+     * Sets the executor of the calls received from Arduino.
+     *
+     * @param executor The executor; null to execute the calls into the receiving thread
+     * @param maxWaitingCalls The maximum number of received calls waiting for the executor
+     * @param policy The behaviour when the waiting calls reach the maximum
+     */
+    public void setInboundExecutor(final Executor executor, final int maxWaitingCalls,
+            final InboundOverflowPolicy policy) {
+        inboundDispatcher.setExecutor(executor, maxWaitingCalls, policy);
+    }
+
+    public void setInboundOrdering(final InboundOrdering ordering) {
+        inboundDispatcher.setDefaultOrdering(ordering);
+    }
+
+    public void setInboundOrdering(final String methodName, final InboundOrdering ordering) {
+        inboundDispatcher.setOrdering(methodName, ordering);
+    }
+
+    public void onCall(final String name, final Runnable handler) {
+        inboundDispatcher.getHandlers().register(name, handler);
+    }
+
+    public void onCall(final String name, final ArduinoJavaSerialRpc.IntIntHandler handler) {
+        inboundDispatcher.getHandlers().register(name, handler);
+    }
+
+    public void onFloatCall(final String name, final ArduinoJavaSerialRpc.FloatHandler handler) {
+        inboundDispatcher.getHandlers().registerFloat(name, handler);
+    }
+
+    public void onStringCall(final String name, final ArduinoJavaSerialRpc.StringHandler handler) {
+        inboundDispatcher.getHandlers().registerString(name, handler);
+    }
+
+    public void removeCallHandlers(final String name) {
+        inboundDispatcher.getHandlers().remove(name);
+    }
+
+    InboundDispatcher getInboundDispatcher() {
+        return inboundDispatcher;
+    }
+
+    boolean isBinaryActive() {
+        return binaryActive;
+    }
+
+    boolean isNegotiatingBinary() {
+        return binaryNegotiation != null;
+    }
+
+    boolean isNegotiatingFlowControl() {
+        return creditNegotiation != null;
+    }
+
+    boolean isNegotiatingFunctionIds() {
+        return functionIdsNegotiation != null;
+    }
+
+    /**
+     * The answer of the negotiation commands is never tagged
+     */
+    boolean isNegotiating() {
+        return (binaryNegotiation != null) || (creditNegotiation != null) || (functionIdsNegotiation != null);
+    }
+
+    /**
+     * Notifies a credit frame: the size of the receive buffer of the card during the
+     * negotiation, the bytes read by the card afterwards.
+     *
+     * @param bytes The number of bytes
+     */
+    void creditReceived(final int bytes) {
+        CompletableFuture<Integer> negotiation = creditNegotiation;
+        if (negotiation != null) {
+            negotiation.complete(bytes);
+            return;
+        }
+        CreditWindow window = creditWindow;
+        if (window != null) {
+            window.release(bytes);
+            callQueue.resume();
+        }
+    }
+
+    void flowControlRefused() {
+        CompletableFuture<Integer> negotiation = creditNegotiation;
+        if (negotiation != null) {
+            negotiation.completeExceptionally(new IOException("Flow control not supported"));
+        }
+    }
+
+    /**
+     * Notifies the function table sent by the sketch. A table received after the negotiation
+     * is ignored: the names are still sent (the sketch accepts both).
+     *
+     * @param table The received ids
+     */
+    void functionTableReceived(final FunctionTable table) {
+        CompletableFuture<FunctionTable> negotiation = functionIdsNegotiation;
+        if (negotiation != null) {
+            negotiation.complete(table);
+        }
+    }
+
+    void functionIdsRefused() {
+        CompletableFuture<FunctionTable> negotiation = functionIdsNegotiation;
+        if (negotiation != null) {
+            negotiation.completeExceptionally(new IOException("Function ids not supported"));
+        }
+    }
+
+    void binaryProtocolAccepted() throws IOException {
+        binaryActive = true;
+        BinaryProtocol.sendSync(output);
+        CompletableFuture<Boolean> negotiation = binaryNegotiation;
+        if (negotiation != null) {
+            negotiation.complete(true);
+        }
+    }
+
+    void binaryProtocolRefused() {
+        CompletableFuture<Boolean> negotiation = binaryNegotiation;
+        if (negotiation != null) {
+            negotiation.complete(false);
+        }
+    }
+
+    /**
+     * Notifies a complete frame sent by the card: during the connection it means the card is ready.
+     *
+     * @return true if the frame was received while probing the card readiness
+     */
+    boolean cardFrameReceived() {
+        ReadyProbe probe = readyProbe;
+        if (probe != null) {
+            probe.frameReceived();
+        }
+        LinkSupervisor linkSupervisor = supervisor;
+        if (linkSupervisor != null) {
+            linkSupervisor.frameReceived();
+        }
+        return probe != null;
+    }
+
+    private void waitCardReady(final SerialTransport link) throws IOException {
+        if (connectReadiness == ConnectReadiness.FIXED_DELAY) {
             try {
-                ProtocolToArduino.sendCommand("GetCardName", "", output);
-            } catch (IOException ex) {
-                callingRelease();
-                throw new ArduinoRpcJavaFailsException("Executing get card name", ex);
+                Thread.sleep(FIXED_READY_DELAY);
+            } catch (InterruptedException ignored) {}
+            return;
+        }
+        ReadyProbe probe = new ReadyProbe();
+        readyProbe = probe;
+        try {
+            long probeInterval = TimeUnit.MILLISECONDS.toNanos(readyProbeInterval(link));
+            long interval = probeInterval;
+            if (isPipelined() == false) {
+                // One probe at time: the next one is sent when the sketch has surely taken the previous one
+                // as a command, otherwise they are joined
+                interval += TimeUnit.MILLISECONDS.toNanos(SKETCH_COMMAND_IDLE);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+            int requestId = isPipelined() ? READY_PROBE_ID : ProtocolToArduino.NO_REQUEST_ID;
+            int sentProbes = 0;
+            while (probe.ready.isDone() == false) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("The Arduino card on " + link.getName() + " is not answering after " +
+                            connectTimeoutMillis + " ms");
+                }
+                ProtocolToArduino.sendCommand(requestId, "GetCardName", "", output);
+                sentProbes++;
+                try {
+                    probe.ready.get(Math.min(interval, remaining), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | TimeoutException ignored) {
+                    // Not ready yet: a new probe is sent
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting the Arduino card on " + link.getName());
+                }
             }
-            waitResult();
+            if ((sentProbes > 1) && (isPipelined() == false)) {
+                // The answers of the previous probes (i.e. of a slow card) come an interval apart: they are
+                // consumed before the first call
+                probe.awaitQuietLine(interval + probeInterval, deadline);
+            }
+        } finally {
+            readyProbe = null;
         }
-        callingRelease();
-        return (String) callingResult;
     }
 
-    public void executeFunction(final String commandName) throws ArduinoRpcJavaFailsException {
-        checkConnectionReady();
-        callingLock();
-        synchronized (waitingResultLock) {
-            try {
-                ProtocolToArduino.sendCommand(commandName, output);
-            } catch (IOException ex) {
-                callingRelease();
-                throw new ArduinoRpcJavaFailsException("Executing "+commandName, ex);
+    private long readyProbeInterval(final SerialTransport link) {
+        int baudRate = link.getBaudRate();
+        if (baudRate <= 0) {
+            return READY_PROBE_INTERVAL;
+        }
+        // 10 bits per byte on the serial line
+        return Math.max(READY_PROBE_INTERVAL, READY_PROBE_BYTES * 10 * 1000L / baudRate);
+    }
+
+    /**
+     * State of the readiness probes during the connection
+     */
+    private static final class ReadyProbe {
+
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private volatile long lastFrameNanos;
+
+        void frameReceived() {
+            lastFrameNanos = System.nanoTime();
+            ready.complete(null);
+        }
+
+        /**
+         * Waits until the card sends nothing for the given time (or until the deadline).
+         */
+        void awaitQuietLine(final long quietNanos, final long deadline) throws InterruptedIOException {
+            long now = System.nanoTime();
+            while ((now - lastFrameNanos < quietNanos) && (now - deadline < 0)) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(quietNanos - (now - lastFrameNanos));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting the Arduino card");
+                }
+                now = System.nanoTime();
             }
-            waitResult();
         }
-        callingRelease();
     }
 
-    public Integer executeFunction(final String commandName, final int arg1, final int arg2)
-            throws ArduinoRpcJavaFailsException {
-        checkConnectionReady();
-        callingLock();
-        synchronized (waitingResultLock) {
-            try {
-                ProtocolToArduino.sendCommand(commandName, arg1, arg2, output);
-            } catch (IOException ex) {
-                callingRelease();
-                throw new ArduinoRpcJavaFailsException("Executing "+commandName+"("+arg1+","+arg2+")", ex);
+    private void negotiateFlowControl() throws IOException {
+        creditWindow = null;
+        creditNegotiation = new CompletableFuture<>();
+        try {
+            ProtocolToArduino.sendCommand(CreditWindow.NEGOTIATION_COMMAND, output);
+            int bufferSize = creditNegotiation.get(NEGOTIATION_TIME_OUT, TimeUnit.MILLISECONDS);
+            if (bufferSize > 0) {
+                creditWindow = new CreditWindow(bufferSize);
             }
-            waitResult();
+        } catch (TimeoutException ex) {
+            expectLateRefusal();
+        } catch (InterruptedException | ExecutionException ignored) {
+            // The sketch does not support the flow control: the calls are sent without limits
+        } finally {
+            creditNegotiation = null;
         }
-        callingRelease();
-        return (Integer) callingResult;
     }
 
-    public String executeFunction(final String commandName, final String argument) throws ArduinoRpcJavaFailsException {
-        checkConnectionReady();
-        callingLock();
-        synchronized (waitingResultLock) {
-            try {
-                ProtocolToArduino.sendCommand(commandName, argument, output);
-            } catch (IOException ex) {
-                callingRelease();
-                throw new ArduinoRpcJavaFailsException("Executing "+commandName+"("+argument+")", ex);
+    private void negotiateFunctionIds() throws IOException {
+        functionTable = null;
+        functionIdsNegotiation = new CompletableFuture<>();
+        try {
+            ProtocolToArduino.sendCommand(FunctionTable.NEGOTIATION_COMMAND, output);
+            functionTable = functionIdsNegotiation.get(NEGOTIATION_TIME_OUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            expectLateRefusal();
+        } catch (InterruptedException | ExecutionException ignored) {
+            // The sketch does not support the function ids: the names are sent
+        } finally {
+            functionIdsNegotiation = null;
+        }
+    }
+
+    private void negotiateBinaryProtocol() throws IOException {
+        binaryNegotiation = new CompletableFuture<>();
+        try {
+            ProtocolToArduino.sendCommand(BinaryProtocol.NEGOTIATION_COMMAND, output);
+            binaryNegotiation.get(NEGOTIATION_TIME_OUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            expectLateRefusal();
+        } catch (InterruptedException | ExecutionException ignored) {
+            // The sketch does not support the binary protocol: the text one is kept
+        } finally {
+            binaryNegotiation = null;
+        }
+    }
+
+    /**
+     * A sketch slower than the negotiation time out can still refuse it: its error is expected for
+     * another time out.
+     */
+    private void expectLateRefusal() {
+        lateRefusalsDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(NEGOTIATION_TIME_OUT);
+        lateRefusals.incrementAndGet();
+    }
+
+    /**
+     * Checks a not tagged error received after the negotiations: the late refusal of a timed out
+     * negotiation must not complete a call.
+     *
+     * @return true if the error is taken as a late refusal
+     */
+    boolean lateNegotiationRefusal() {
+        if (System.nanoTime() - lateRefusalsDeadline >= 0) {
+            lateRefusals.set(0);
+            return false;
+        }
+        return lateRefusals.getAndUpdate(count -> Math.max(count - 1, 0)) > 0;
+    }
+
+    public void disconnect() throws IOException {
+        stopSupervisor();
+        output = null;
+        stopWriter();
+        resultCache.flush();
+        callQueue.failAll(new ArduinoRpcJavaFailsException("Arduino connection closed"));
+        binaryActive = false;
+        functionTable = null;
+        metrics.unregister();
+        transport.close();
+    }
+
+    /**
+     * Fails the calls waiting for a result when the transport stops receiving data
+     * (or starts the reconnection, when it is enabled).
+     *
+     * @param agent The receiver of the failed transport
+     * @param ex The reason of failure
+     */
+    void connectionLost(final UsbReceiverAgent agent, final IOException ex) {
+        if (agent != receiver) {
+            // A transport already replaced
+            return;
+        }
+        LinkSupervisor linkSupervisor = supervisor;
+        if (linkSupervisor != null) {
+            linkSupervisor.linkLost(ex);
+        } else {
+            callQueue.failAll(new ArduinoRpcJavaFailsException("Arduino connection lost", ex));
+        }
+    }
+
+    /**
+     * Releases the lost link: the waiting calls fail and the transport is closed.
+     *
+     * @param cause The reason of the link loss
+     */
+    void linkDown(final Exception cause) {
+        output = null;
+        receiver = null;
+        binaryActive = false;
+        resultCache.flush();
+        discardWrites();
+        callQueue.failAll(new ArduinoRpcJavaFailsException("Arduino link lost on " + getPortName(), cause));
+        closeQuietly(transport);
+    }
+
+    /**
+     * Opens again the link with the named card: on its port, or on the port where the card
+     * search finds it.
+     *
+     * @param cardName The name of the card to reconnect
+     * @return true if the card is connected again
+     */
+    boolean reopenLink(final String cardName) {
+        SerialTransport lostLink = transport;
+        if (tryLink(lostLink, cardName)) {
+            return true;
+        }
+        CardDiscovery cardSearch = reconnectPolicy.getCardSearch();
+        if (cardSearch == null) {
+            return false;
+        }
+        cardSearch.invalidate();
+        for (DiscoveredCard card : cardSearch.discover()) {
+            if (card.getCardName().equals(cardName) && (card.getPortName().equals(lostLink.getName()) == false)) {
+                SerialTransport candidate = reconnectPolicy.getSearchTransportFactory().create(card.getPortName());
+                if (tryLink(candidate, cardName)) {
+                    transport = candidate;
+                    return true;
+                }
             }
-            waitResult();
         }
-        callingRelease();
-        return (String) callingResult;
+        return false;
     }
 
-    public float executeFunction(final String commandName, final float argument) throws ArduinoRpcJavaFailsException {
-        checkConnectionReady();
-        callingLock();
-        synchronized (waitingResultLock) {
-            try {
-                ProtocolToArduino.sendCommand(commandName, argument, output);
-            } catch (IOException ex) {
-                callingRelease();
-                throw new ArduinoRpcJavaFailsException("Executing "+commandName+"("+argument+")", ex);
+    private boolean tryLink(final SerialTransport link, final String cardName) {
+        try {
+            openLink(link);
+            Object foundName = submitAndWait(withTimeout(PendingCall.stringCall("GetCardName", ""),
+                    connectTimeoutMillis, TimeUnit.MILLISECONDS));
+            if ((cardName == null) || cardName.equals(foundName)) {
+                return true;
             }
-            waitResult();
+            controller.handlerReceivingException(new ArduinoRpcJavaFailsException("Reconnecting " + cardName +
+                    ": the card on " + link.getName() + " is " + foundName));
+        } catch (IOException | ArduinoRpcJavaFailsException ignored) {
+            // The card is not available yet
         }
-        callingRelease();
-        return (float) callingResult;
+        output = null;
+        receiver = null;
+        binaryActive = false;
+        discardWrites();
+        callQueue.failAll(new ArduinoRpcJavaFailsException("Arduino link lost on " + link.getName()));
+        closeQuietly(link);
+        return false;
     }
 
-    public void setIncomingResult(final Object result) {
-        callingResult = result;
-        synchronized (waitingResultLock) {
-            waitingResultLock.notifyAll();
+    boolean hasPendingCalls() {
+        return callQueue.isIdle() == false;
+    }
+
+    /**
+     * Sends a GetCardName call to the card, bypassing the result cache.
+     */
+    CompletableFuture<String> sendHeartbeat(final long timeoutMillis) {
+        PendingCall call = withTimeout(PendingCall.stringCall("GetCardName", ""), timeoutMillis, TimeUnit.MILLISECONDS);
+        startMetrics(call);
+        callQueue.submit(call);
+        return call.getFuture();
+    }
+
+    OutputStream getOutput() {
+        return output;
+    }
+
+    /**
+     * Reports the failed write of the CoalescingWriter: the calls on the wire fail
+     * (or the reconnection starts, when it is enabled).
+     *
+     * @param ex The write error
+     */
+    void writeFailed(final IOException ex) {
+        LinkSupervisor linkSupervisor = supervisor;
+        if (linkSupervisor != null) {
+            linkSupervisor.linkLost(ex);
+        } else {
+            callQueue.failAll(new ArduinoRpcJavaFailsException("Writing to Arduino on " + getPortName(), ex));
         }
     }
 
-    private void checkConnectionReady() throws ArduinoRpcJavaFailsException {
-        if (output == null) {
-            throw new ArduinoRpcJavaFailsException("Arduino is not connected. Please use connect() before to perform Arduino activities.");
+    private void discardWrites() {
+        CoalescingWriter coalescingWriter = writer;
+        if (coalescingWriter != null) {
+            coalescingWriter.discard();
+        }
+    }
+
+    private void stopWriter() {
+        CoalescingWriter coalescingWriter = writer;
+        writer = null;
+        if (coalescingWriter != null) {
+            coalescingWriter.stop();
+        }
+    }
+
+    private void stopSupervisor() {
+        LinkSupervisor linkSupervisor = supervisor;
+        supervisor = null;
+        if (linkSupervisor != null) {
+            linkSupervisor.stop();
+        }
+    }
+
+    private static void closeQuietly(final SerialTransport link) {
+        try {
+            link.close();
+        } catch (IOException ignored) {
+            // Already closed, nothing else to release
+        }
+    }
+
+    public static String[] portScanner() {
+        return RxtxTransport.portScanner();
+    }
+
+    /**
+     * This should be called when you stop using the port. This will prevent
+     * port locking on platforms like Linux.
+     */
+    public synchronized void close() {
+        stopSupervisor();
+        stopWriter();
+        metrics.unregister();
+        closeQuietly(transport);
+    }
+
+    /**
+     * Sets the time allowed to any remote call without an explicit timeout.
+     *
+     * @param timeout The allowed time (0 to wait without limit)
+     * @param unit The unit of timeout
+     */
+    public void setDefaultTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must be positive or zero: " + timeout);
+        }
+        defaultTimeoutMillis = (timeout == 0) ? 0 : Math.max(unit.toMillis(timeout), 1);
+    }
+
+    public long getDefaultTimeout(final TimeUnit unit) {
+        return unit.convert(defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the sending lane of the calls of a remote function (NORMAL by default).
+     *
+     * @param functionName The name of the function in Arduino sketch
+     * @param priority The lane of its calls
+     */
+    public void setCallPriority(final String functionName, final CallPriority priority) {
+        if (priority == CallPriority.NORMAL) {
+            callPriorities.remove(functionName);
+        } else {
+            callPriorities.put(functionName, priority);
         }
     }
 
-    private void callingLock() throws ArduinoRpcJavaFailsException {
+    public CallPriority getCallPriority(final String functionName) {
+        return callPriorities.getOrDefault(functionName, CallPriority.NORMAL);
+    }
+
+    /**
+     * Enables the coalesced writes: the commands are written by a dedicated thread, which
+     * gathers the commands queued within the delay into a single write.
+     *
+     * @param delay The maximum time a command waits for other commands (0 writes as soon as possible)
+     * @param unit The unit of delay
+     * @param flushBytes The number of pending bytes written without waiting the delay
+     */
+    public void setCoalescedWrites(final long delay, final TimeUnit unit, final int flushBytes) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Coalescing delay must be positive or zero: " + delay);
+        }
+        if (flushBytes < 1) {
+            throw new IllegalArgumentException("Flush size must be positive: " + flushBytes);
+        }
+        if (output != null) {
+            throw new IllegalStateException("Coalesced writes must be set before to connect Arduino");
+        }
+        coalescingDelayNanos = unit.toNanos(delay);
+        coalescingFlushBytes = flushBytes;
+    }
+
+    /**
+     * Declares a remote function without side effects: its results are reused, for the given time,
+     * by the following calls with the same arguments.
+     *
+     * @param functionName The name of the function in Arduino sketch
+     * @param timeToLive The time a result is reused
+     * @param unit The unit of time to live
+     */
+    public void setCacheable(final String functionName, final long timeToLive, final TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive: " + timeToLive);
+        }
+        resultCache.setCacheable(functionName, unit.toNanos(timeToLive));
+    }
+
+    public void setNotCacheable(final String functionName) {
+        resultCache.setNotCacheable(functionName);
+    }
+
+    public void setResultCacheSize(final int maxResults) {
+        resultCache.setMaxResults(maxResults);
+    }
+
+    public void flushResultCache() {
+        resultCache.flush();
+    }
+
+    /**
+     * Returns the statistics of the calls in both the directions, since the creation of the
+     * connector (or since the last reset).
+     *
+     * @return A snapshot of the statistics of any function
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.getSnapshot();
+    }
+
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    public String getCardName() throws ArduinoRpcJavaFailsException {
+        return (String) call(PendingCall.stringCall("GetCardName", ""));
+    }
+
+    public void executeFunction(final String commandName) throws ArduinoRpcJavaFailsException {
+        call(PendingCall.voidCall(commandName));
+    }
+
+    public Integer executeFunction(final String commandName, final int arg1, final int arg2)
+            throws ArduinoRpcJavaFailsException {
+        return (Integer) call(PendingCall.intCall(commandName, arg1, arg2));
+    }
+
+    public String executeFunction(final String commandName, final String argument) throws ArduinoRpcJavaFailsException {
+        return (String) call(PendingCall.stringCall(commandName, argument));
+    }
+
+    public float executeFunction(final String commandName, final float argument) throws ArduinoRpcJavaFailsException {
+        return (float) call(PendingCall.floatCall(commandName, argument));
+    }
+
+    public void executeFunction(final String commandName, final long timeout, final TimeUnit unit)
+            throws ArduinoRpcJavaFailsException {
+        call(withTimeout(PendingCall.voidCall(commandName), timeout, unit));
+    }
+
+    public Integer executeFunction(final String commandName, final int arg1, final int arg2,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return (Integer) call(withTimeout(PendingCall.intCall(commandName, arg1, arg2), timeout, unit));
+    }
+
+    public String executeFunction(final String commandName, final String argument,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return (String) call(withTimeout(PendingCall.stringCall(commandName, argument), timeout, unit));
+    }
+
+    public float executeFunction(final String commandName, final float argument,
+            final long timeout, final TimeUnit unit) throws ArduinoRpcJavaFailsException {
+        return (float) call(withTimeout(PendingCall.floatCall(commandName, argument), timeout, unit));
+    }
+
+    public CompletableFuture<String> getCardNameAsync() {
+        return callAsync(PendingCall.stringCall("GetCardName", ""));
+    }
+
+    public CompletableFuture<Void> executeFunctionAsync(final String commandName) {
+        return callAsync(PendingCall.voidCall(commandName));
+    }
+
+    public CompletableFuture<Integer> executeFunctionAsync(final String commandName, final int arg1, final int arg2) {
+        return callAsync(PendingCall.intCall(commandName, arg1, arg2));
+    }
+
+    public CompletableFuture<String> executeFunctionAsync(final String commandName, final String argument) {
+        return callAsync(PendingCall.stringCall(commandName, argument));
+    }
+
+    public CompletableFuture<Float> executeFunctionAsync(final String commandName, final float argument) {
+        return callAsync(PendingCall.floatCall(commandName, argument));
+    }
+
+    /**
+     * Executes more remote calls: all the calls are encoded into a single buffer and they are sent
+     * with a single write. The calls of cacheable functions with a result in memory are not sent.<br>
+     * The batch fails when it has more calls than the pipeline depth, because the calls beyond the depth
+     * would wait for the previous results (one round trip for each call, at the default depth).
+     *
+     * @param batch The calls to execute, in execution order
+     * @return The future of the results, in the same order of calls
+     */
+    public CompletableFuture<List<Object>> executeBatchAsync(final CallBatch batch) {
+        List<PendingCall> pendingCalls = new ArrayList<>(batch.size());
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.size()];
+        for (PendingCall call : batch.getCalls()) {
+            PendingCall pending = call.renew();
+            futures[pendingCalls.size()] = pending.getFuture();
+            pendingCalls.add(pending);
+        }
         try {
-            callingLock.acquire();
-        } catch (InterruptedException ex) {
-            throw new ArduinoRpcJavaFailsException("Reserving priority in calling Arduino function", ex);
+            checkConnectionReady();
+            if (batch.size() > getPipelineDepth()) {
+                throw new ArduinoRpcJavaFailsException("Batch of " + batch.size() + " calls exceeds the pipeline " +
+                        "depth (" + getPipelineDepth() + "): the calls can not be sent with a single write");
+            }
+            for (PendingCall pending : pendingCalls) {
+                checkRegistered(pending);
+            }
+            List<PendingCall> sendingCalls = new ArrayList<>(pendingCalls.size());
+            for (PendingCall pending : pendingCalls) {
+                if (shareCachedResult(pending) == false) {
+                    applyDefaults(pending);
+                    startMetrics(pending);
+                    sendingCalls.add(pending);
+                }
+            }
+            if (sendingCalls.isEmpty() == false) {
+                callQueue.submitAll(sendingCalls);
+            }
+        } catch (ArduinoRpcJavaFailsException ex) {
+            pendingCalls.forEach(pending -> pending.fail(ex));
+        }
+        return CompletableFuture.allOf(futures).thenApply(done -> {
+            List<Object> results = new ArrayList<>(futures.length);
+            for (CompletableFuture<?> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Completes the oldest call waiting for a result (not pipelined mode).
+     *
+     * @param result The received value
+     */
+    public void setIncomingResult(final Object result) {
+        callQueue.completeOldest(result, 0);
+    }
+
+    void setIncomingResult(final Object result, final int frameSize) {
+        callQueue.completeOldest(result, frameSize);
+    }
+
+    /**
+     * Completes without value the oldest call waiting for a result, after an error
+     * notified by Arduino (not pipelined mode).
+     *
+     * @param frameSize The size of the received error frame
+     */
+    void setIncomingError(final int frameSize) {
+        callQueue.completeOldestAfterError(frameSize);
+    }
+
+    /**
+     * Completes the pipelined call identified by the request id.
+     * Results of unknown (or already completed) requests are discarded.
+     *
+     * @param requestId The request id echoed back by Arduino
+     * @param result The received value
+     * @param frameSize The size of the received frame
+     */
+    void completeCall(final int requestId, final Object result, final int frameSize) {
+        callQueue.complete(requestId, result, frameSize);
+    }
+
+    /**
+     * Fails the pipelined call identified by the request id.
+     *
+     * @param requestId The request id echoed back by Arduino
+     * @param ex The reason of failure
+     * @param frameSize The size of the received error frame
+     */
+    void failCall(final int requestId, final Exception ex, final int frameSize) {
+        callQueue.fail(requestId, ex, frameSize);
+    }
+
+    private Object call(final PendingCall call) throws ArduinoRpcJavaFailsException {
+        checkConnectionReady();
+        checkRegistered(call);
+        if (shareCachedResult(call)) {
+            return call.await();
         }
+        applyDefaults(call);
+        return submitAndWait(call);
+    }
+
+    private Object submitAndWait(final PendingCall call) throws ArduinoRpcJavaFailsException {
+        startMetrics(call);
+        callQueue.submit(call);
+        return call.await();
     }
 
-    private void waitResult() throws ArduinoRpcJavaFailsException {
+    // The returned future is completed on the serial reading thread: its not async
+    // stages run there, before the parser goes on with the following frames
+    private <T> CompletableFuture<T> callAsync(final PendingCall call) {
         try {
-            waitingResultLock.wait();
-        } catch (InterruptedException ex) {
-            throw new ArduinoRpcJavaFailsException("Waiting result from called Arduino function", ex);
+            checkConnectionReady();
+            checkRegistered(call);
+        } catch (ArduinoRpcJavaFailsException ex) {
+            call.fail(ex);
+            return call.getFuture();
+        }
+        if (shareCachedResult(call)) {
+            return call.getFuture();
+        }
+        applyDefaults(call);
+        startMetrics(call);
+        callQueue.submit(call);
+        return call.getFuture();
+    }
+
+    /**
+     * Completes the call with the result of an equal call, when its function is cacheable.
+     *
+     * @return true if the call does not have to be sent
+     */
+    private boolean shareCachedResult(final PendingCall call) {
+        CompletableFuture<Object> cached = resultCache.share(call);
+        if (cached == null) {
+            return false;
+        }
+        call.completeFrom(cached);
+        return true;
+    }
+
+    private void startMetrics(final PendingCall call) {
+        call.startMetrics(metrics.outbound(call.getFunctionName(), call.getSignature()));
+    }
+
+    private static PendingCall withTimeout(final PendingCall call, final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        call.setTimeout(Math.max(unit.toMillis(timeout), 1));
+        return call;
+    }
+
+    /**
+     * Applies the default timeout (to the calls without an explicit one) and the priority of the function.
+     */
+    private void applyDefaults(final PendingCall call) {
+        if (call.getTimeout() == 0) {
+            call.setTimeout(defaultTimeoutMillis);
+        }
+        CallPriority priority = callPriorities.get(call.getFunctionName());
+        if (priority != null) {
+            call.setPriority(priority);
         }
     }
 
-    private void callingRelease() {
-        callingLock.release();
+    /**
+     * Encodes the calls into a buffer, then the buffer is written on the wire with a single write.
+     * It is used holding the queue lock only.
+     */
+    private class CallSender implements PendingCallQueue.Sender {
+
+        private final CommandEncoder encoder = new CommandEncoder();
+
+        @Override
+        public boolean send(final PendingCall call) throws IOException {
+            CreditWindow window = creditWindow;
+            if ((window != null) && (window.getAvailable() <= 0)) {
+                return false;
+            }
+            FunctionTable table = functionTable;
+            int functionId = (table != null)
+                    ? table.functionId(call.getFunctionName(), call.getSignature()) : FunctionTable.NO_ID;
+            int encoded = encoder.size();
+            if (binaryActive) {
+                encoder.encodeBinary(call, functionId);
+            } else {
+                encoder.encodeText(call, functionId);
+            }
+            int callSize = encoder.size() - encoded;
+            if ((window != null) && (window.tryAcquire(callSize) == false)) {
+                encoder.truncate(encoded);
+                return false;
+            }
+            call.recordSent(callSize);
+            return true;
+        }
+
+        @Override
+        public void lineIdle() {
+            CreditWindow window = creditWindow;
+            if (window != null) {
+                window.restore();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (encoder.isEmpty()) {
+                return;
+            }
+            OutputStream out = output;
+            CoalescingWriter coalescingWriter = writer;
+            try {
+                if (out == null) {
+                    encoder.clear();
+                    throw new IOException("Arduino link is down");
+                }
+                if (coalescingWriter != null) {
+                    coalescingWriter.write(encoder.drainBytes());
+                    return;
+                }
+                encoder.writeTo(out);
+                out.flush();
+            } catch (IOException ex) {
+                LinkSupervisor linkSupervisor = supervisor;
+                if (linkSupervisor != null) {
+                    linkSupervisor.linkLost(ex);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private void checkConnectionReady() throws ArduinoRpcJavaFailsException {
+        LinkSupervisor linkSupervisor = supervisor;
+        if ((linkSupervisor != null) && (linkSupervisor.getState() == LinkState.RECONNECTING)) {
+            throw new ArduinoRpcJavaFailsException("Arduino link is lost: reconnecting to the card on " + getPortName());
+        }
+        if (output == null) {
+            throw new ArduinoRpcJavaFailsException("Arduino is not connected. Please use connect() before to perform Arduino activities.");
+        }
+    }
+
+    /**
+     * With the function ids, a function not listed by the sketch fails without a round trip.
+     */
+    private void checkRegistered(final PendingCall call) throws ArduinoRpcJavaFailsException {
+        FunctionTable table = functionTable;
+        if ((table != null) && (table.functionId(call.getFunctionName(), call.getSignature()) == FunctionTable.NO_ID)) {
+            throw new ArduinoRpcJavaFailsException("Function " + call.getFunctionName() + " (signature " +
+                    call.getSignature() + "): " + table.describe(call.getFunctionName()));
+        }
     }
 }
@@ -6,118 +6,135 @@
 //  Copyright 2020 Gabriele Maris
 package it.mauxilium.arduinojavaserialrpc.businesslogic;
 
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
 import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
 import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcCardException;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 
 /**
- *
+ * Receiver of the serial port data.<br>
+ * The received bytes are parsed on the transport thread, and any result completes
+ * the waiting call directly (the future of PendingCall), without other threads between
+ * the parser and the caller.
  */
-class UsbReceiverAgent extends Thread implements SerialPortEventListener {
-
-    private static final String CMD_PREAMBLE = "MArC_cmd";
-    private static final String RESULT_PREAMBLE = "MArC_res";
-    private static final String ERROR_PREAMBLE = "MArC_err";
-    private static final String MESSAGE_PREAMBLE = "MArC_msg";
+class UsbReceiverAgent implements SerialTransport.Listener, FrameListener {
 
     private final UsbHandler usbH;
-    private final BufferedReader input;
     private final ArduinoJavaSerialRpc controller;
-    private Object callingResult;
-    private final Object receiverWaitingResultLock = new Object();
+    private final TextFrameParser textParser;
+    private final BinaryFrameDecoder binaryDecoder = new BinaryFrameDecoder(this);
 
-    public UsbReceiverAgent(final UsbHandler usbHandler, final BufferedReader in, final ArduinoJavaSerialRpc ctrl) {
+    public UsbReceiverAgent(final UsbHandler usbHandler, final ArduinoJavaSerialRpc ctrl) {
         usbH = usbHandler;
-        input = in;
         controller = ctrl;
+        textParser = new TextFrameParser(usbHandler, this);
     }
 
     @Override
-    public void serialEvent(SerialPortEvent spe) {
-        if (spe.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
-            try {
-                handleReceivingData();
-            } catch (IOException | ArduinoRpcJavaFailsException | ArduinoRpcCardException ex) {
-                if ("Underlying input stream returned zero bytes".equals(ex.getMessage()) == false) {
-                    controller.handlerReceivingException(ex);
-                    callingResult = null;
-                    synchronized (receiverWaitingResultLock) {
-                        receiverWaitingResultLock.notifyAll();
-                    }
-                } else {
-                    System.out.println("Serial event exception: " + ex.toString());
-                }
+    public void dataReceived(final byte[] data, final int offset, final int length) {
+        int parsed = 0;
+        while (parsed < length) {
+            if (usbH.isBinaryActive()) {
+                binaryDecoder.feed(data, offset + parsed, length - parsed);
+                parsed = length;
+            } else {
+                parsed += textParser.feed(data, offset + parsed, length - parsed);
             }
-        } else {
-            assert (spe.getEventType() == SerialPortEvent.OUTPUT_BUFFER_EMPTY):
-                    "Serial Output buffer empty";
         }
     }
 
-    private void handleReceivingData() throws IOException, ArduinoRpcJavaFailsException, ArduinoRpcCardException {
-        if (input.ready()) {
-            String receivedPreamble = input.readLine();
-            switch (receivedPreamble) {
-                case CMD_PREAMBLE:
-                    ProtocolFromArduino.receiveCommand(input, controller);
-                    break;
-                case RESULT_PREAMBLE:
-                    parsingResult();
-                    break;
-                case ERROR_PREAMBLE:
-                    throw new ArduinoRpcCardException(input.readLine());
-                case MESSAGE_PREAMBLE:
-                    System.out.println("Arduino message: " + input.readLine());
-                    break;
-                default:
-                    if (receivedPreamble.isEmpty() == false) {
-                        System.out.println("Ignoring fragmented command: "+receivedPreamble);
-                    }
-            }
+    @Override
+    public void connectionLost(final IOException ex) {
+        controller.handlerReceivingException(ex);
+        usbH.connectionLost(this, ex);
+    }
+
+    @Override
+    public void result(final int requestId, final Object value, final int frameSize) {
+        if (usbH.cardFrameReceived() && (usbH.isPipelined() == false)) {
+            // The answer of a readiness probe, it must not complete the first call
+            return;
+        }
+        // The waiting call is completed directly by the serial event thread
+        if (usbH.isPipelined()) {
+            usbH.completeCall(requestId, value, frameSize);
+        } else {
+            usbH.setIncomingResult(value, frameSize);
         }
     }
 
-    void parsingResult() throws IOException {
-        String argType = input.readLine();
-        switch (argType.charAt(0)) {
-            case UsbHandler.VOID_ARG_PREAMBLE:
-                callingResult = null;
-                break;
-            case UsbHandler.INT_ARG_PREAMBLE:
-                callingResult = Integer.parseInt(input.readLine());
-                break;
-            case UsbHandler.FLOAT_ARG_PREAMBLE:
-                callingResult = Float.parseFloat(input.readLine());
-                break;
-            case UsbHandler.STRING_ARG_PREAMBLE:
-                callingResult = input.readLine();
-                break;
-            default:
-                throw new IOException("Not supported received data type: " + argType);
+    @Override
+    public void error(final int requestId, final String message, final int frameSize) {
+        if (usbH.cardFrameReceived() && (usbH.isPipelined() == false)) {
+            return;
+        }
+        if ((requestId == ProtocolToArduino.NO_REQUEST_ID) && usbH.lateNegotiationRefusal()) {
+            // The sketch answers in order: the error refuses a negotiation already given up
+            return;
+        }
+        if (usbH.isNegotiatingBinary()) {
+            usbH.binaryProtocolRefused();
+        } else if (usbH.isNegotiatingFlowControl()) {
+            usbH.flowControlRefused();
+        } else if (usbH.isNegotiatingFunctionIds()) {
+            usbH.functionIdsRefused();
+        } else if (usbH.isPipelined()) {
+            usbH.failCall(requestId, new ArduinoRpcCardException(message), frameSize);
+        } else {
+            controller.handlerReceivingException(new ArduinoRpcCardException(message));
+            usbH.setIncomingError(frameSize);
         }
+    }
 
-        synchronized (receiverWaitingResultLock) {
-            receiverWaitingResultLock.notifyAll();
+    @Override
+    public void command(final String name, final char signature, final int arg1, final int arg2,
+            final float argF, final String argS, final int frameSize) {
+        usbH.cardFrameReceived();
+        try {
+            usbH.getInboundDispatcher().dispatch(name, signature, arg1, arg2, argF, argS, frameSize);
+        } catch (ArduinoRpcJavaFailsException ex) {
+            controller.handlerReceivingException(ex);
         }
     }
 
     @Override
-    public void run() {
-        while (true) {
-            synchronized (receiverWaitingResultLock) {
-                try {
-                    receiverWaitingResultLock.wait();
-                } catch (InterruptedException ignored) {
-                }
-            }
+    public void telemetry(final int channel, final long cardTime, final float value) {
+        usbH.cardFrameReceived();
+        usbH.telemetrySample(channel, cardTime, value);
+    }
 
-            usbH.setIncomingResult(callingResult);
-        }
+    @Override
+    public void credit(final int bytes) {
+        usbH.cardFrameReceived();
+        usbH.creditReceived(bytes);
+    }
+
+    @Override
+    public void functionTable(final FunctionTable table) {
+        usbH.cardFrameReceived();
+        binaryDecoder.setFunctionTable(table);
+        usbH.functionTableReceived(table);
     }
 
+    @Override
+    public void message(final String message) {
+        usbH.cardFrameReceived();
+        System.out.println("Arduino message: " + message);
+    }
+
+    @Override
+    public void frameError(final String reason) {
+        controller.handlerReceivingException(new IOException(reason));
+    }
+
+    @Override
+    public void binaryAccepted() {
+        try {
+            usbH.binaryProtocolAccepted();
+        } catch (IOException ex) {
+            controller.handlerReceivingException(ex);
+        }
+    }
 }
@@ -0,0 +1,548 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.emulator;
+
+import it.mauxilium.arduinojavaserialrpc.businesslogic.UsbHandler;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Java emulation of an Arduino card running the ArduinoSerialRpc library, for tests and
+ * benchmarks without physical boards.<br>
+ * As a sketch (see src/test/java/integration/sketch/sketch.ino), the emulator registers the functions
+ * callable from Java and it can call the Java methods with "executeRemoteMethod". It answers "GetCardName",
+ * the tagged commands of the pipelined mode and the negotiations of binary protocol and function ids.<br>
+ * The serial receive buffer of the card can be emulated (see setRxBufferSize): the calls arriving when
+ * the buffer is full are lost, and the card supports the flow control.<br>
+ * Like the single loop of a sketch, one thread executes the received calls in order; the
+ * time of the serial line (10 bits per byte at the configured baud rate) and a computing
+ * delay of any call can be added, to obtain realistic latencies.<br>
+ * <br>
+ * Example, with an in memory link:<br>
+ * <pre>
+ *     LoopbackTransport link = new LoopbackTransport("emulated");
+ *     ArduinoCardEmulator card = new ArduinoCardEmulator("Emulated card");
+ *     card.registerIntFunction("IntCallPcToArduino", (arg1, arg2) -&gt; arg1 * arg2);
+ *     card.attach(link.getCardSide());
+ *
+ *     MyArduinoRpc rpc = new MyArduinoRpc(link); // extends ArduinoJavaSerialRpc
+ *     rpc.connect();
+ * </pre>
+ * It can also be attached to a pseudo terminal (i.e. created by socat) by a NioSerialTransport.
+ */
+public class ArduinoCardEmulator implements SerialTransport.Listener, CardProtocol.Receiver {
+
+    /**
+     * Function with signature: void function();
+     */
+    public interface VoidFunction {
+        void call();
+    }
+
+    /**
+     * Function with signature: int function(int, int);
+     */
+    public interface IntIntFunction {
+        int call(int arg1, int arg2);
+    }
+
+    /**
+     * Function with signature: float function(float);
+     */
+    public interface FloatFunction {
+        float call(float arg);
+    }
+
+    /**
+     * Function with signature: String function(String);
+     */
+    public interface StringFunction {
+        String call(String arg);
+    }
+
+    private static final String CARD_NAME_FUNCTION = "GetCardName";
+    private static final long SYNC_TIME_OUT = TimeUnit.SECONDS.toNanos(1);
+    private static final int BITS_PER_BYTE = 10;
+    private static final long COMMAND_TIMEOUT_CHECK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String cardName;
+    private final Map<String, VoidFunction> voidFunctions = new ConcurrentHashMap<>();
+    private final Map<String, IntIntFunction> intFunctions = new ConcurrentHashMap<>();
+    private final Map<String, FloatFunction> floatFunctions = new ConcurrentHashMap<>();
+    private final Map<String, StringFunction> stringFunctions = new ConcurrentHashMap<>();
+    private final List<String> remoteMethods = new CopyOnWriteArrayList<>();
+    private final CardProtocol protocol = new CardProtocol(this);
+    private final BlockingQueue<Runnable> loopTasks = new LinkedBlockingQueue<>();
+    private final AtomicLong executedCalls = new AtomicLong();
+    private final AtomicInteger rxPending = new AtomicInteger();
+    private final AtomicLong overruns = new AtomicLong();
+    private final Object syncLock = new Object();
+
+    private volatile int baudRate = 0;
+    private volatile long computeDelayNanos = 0;
+    private volatile boolean binarySupported = true;
+    private volatile boolean functionIdsSupported = true;
+    private volatile int floatDecimals = 2;
+    private volatile long bootNanos = 0;
+    private volatile long bootEndNanos;
+    private volatile int rxBufferSize = 0;
+    private volatile boolean flowControl;
+
+    private SerialTransport transport;
+    private OutputStream output;
+    private Thread loopThread;
+    private boolean syncReceived;
+
+    public ArduinoCardEmulator(final String name) {
+        cardName = name;
+    }
+
+    /**
+     * Registers a function callable from Java with executeRemoteFunction(name).
+     */
+    public void registerVoidFunction(final String name, final VoidFunction function) {
+        voidFunctions.put(name, function);
+    }
+
+    /**
+     * Registers a function callable from Java with executeRemoteFunction(name, int, int).
+     */
+    public void registerIntFunction(final String name, final IntIntFunction function) {
+        intFunctions.put(name, function);
+    }
+
+    /**
+     * Registers a function callable from Java with executeRemoteFunction(name, float).
+     */
+    public void registerFloatFunction(final String name, final FloatFunction function) {
+        floatFunctions.put(name, function);
+    }
+
+    /**
+     * Registers a function callable from Java with executeRemoteFunction(name, String).
+     */
+    public void registerStringFunction(final String name, final StringFunction function) {
+        stringFunctions.put(name, function);
+    }
+
+    /**
+     * Lists a Java method in the function table, so the card calls it by id when the
+     * function ids are active (the not listed methods are called by name).
+     */
+    public void declareRemoteMethod(final String methodName) {
+        if (remoteMethods.contains(methodName) == false) {
+            remoteMethods.add(methodName);
+        }
+    }
+
+    /**
+     * Sets the speed of the emulated serial line.
+     *
+     * @param rate The baud rate (0, the default, sends the data without line time)
+     */
+    public void setBaudRate(final int rate) {
+        baudRate = rate;
+    }
+
+    /**
+     * Sets the time spent by the card to execute any call, before to send its result.
+     *
+     * @param delay The computing time
+     * @param unit The unit of delay
+     */
+    public void setComputeDelay(final long delay, final TimeUnit unit) {
+        computeDelayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Emulates a card with (true, the default) or without the binary protocol support.
+     *
+     * @param supported false to refuse the binary protocol negotiation
+     */
+    public void setBinarySupported(final boolean supported) {
+        binarySupported = supported;
+    }
+
+    /**
+     * Emulates a card with (true, the default) or without the function ids support.
+     *
+     * @param supported false to refuse the function table request
+     */
+    public void setFunctionIdsSupported(final boolean supported) {
+        functionIdsSupported = supported;
+    }
+
+    /**
+     * Sets the decimals of the float values sent as text (the Arduino Print default is 2).
+     *
+     * @param decimals The number of decimals
+     */
+    public void setFloatDecimals(final int decimals) {
+        floatDecimals = decimals;
+    }
+
+    /**
+     * Emulates the bootloader of a card reset by the opening of the port: the bytes
+     * received during the boot time (after attach) are lost.
+     *
+     * @param time The boot time (0, the default, is ready at once)
+     * @param unit The unit of time
+     */
+    public void setBootTime(final long time, final TimeUnit unit) {
+        bootNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Emulates the timeout of the Arduino Stream used by the sketch to read the not tagged commands:
+     * a command ends when nothing is received for this time, so the commands written closer are joined.
+     *
+     * @param timeout The silence which ends a command (0, the default, ends it with the received data)
+     * @param unit The unit of timeout
+     */
+    public void setCommandTimeout(final long timeout, final TimeUnit unit) {
+        protocol.setCommandTimeout(unit.toNanos(timeout));
+    }
+
+    /**
+     * Emulates the serial receive buffer of the card (64 bytes on the AVR boards): the bytes of a
+     * call are in the buffer until the card loop reads the call, and a call arriving when it does
+     * not fit is lost. The card also accepts the flow control, advertising the buffer size.
+     *
+     * @param bytes The size of the buffer (0, the default, for an unlimited buffer without flow control)
+     */
+    public void setRxBufferSize(final int bytes) {
+        rxBufferSize = bytes;
+    }
+
+    /**
+     * @return The number of calls lost because the receive buffer was full
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return The number of Java calls executed by the card
+     */
+    public long getExecutedCalls() {
+        return executedCalls.get();
+    }
+
+    /**
+     * Connects the card to its side of the link and starts the card loop.
+     *
+     * @param cardSide The card end of the link (i.e. LoopbackTransport.getCardSide())
+     * @throws IOException In any case of opening error
+     */
+    public synchronized void attach(final SerialTransport cardSide) throws IOException {
+        transport = cardSide;
+        bootEndNanos = System.nanoTime() + bootNanos;
+        flowControl = false;
+        rxPending.set(0);
+        protocol.clearFunctionIds();
+        cardSide.open(this);
+        output = cardSide.getOutputStream();
+        loopThread = new Thread(this::loop, "ArduinoCardEmulator-" + cardName);
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
+
+    /**
+     * Stops the card loop and closes its side of the link.
+     *
+     * @throws IOException In any case of closing error
+     */
+    public synchronized void detach() throws IOException {
+        if (loopThread != null) {
+            loopThread.interrupt();
+            loopThread = null;
+        }
+        if (transport != null) {
+            transport.close();
+            transport = null;
+        }
+    }
+
+    /**
+     * Calls a Java method with signature: void method();
+     */
+    public void executeRemoteMethod(final String methodName) {
+        sendCommand(methodName, UsbHandler.VOID_ARG_PREAMBLE, null, null);
+    }
+
+    /**
+     * Calls a Java method with signature: void method(Integer, Integer);
+     */
+    public void executeRemoteMethod(final String methodName, final int arg1, final int arg2) {
+        sendCommand(methodName, UsbHandler.INT_INT_ARG_PREAMBLE, arg1, arg2);
+    }
+
+    /**
+     * Calls a Java method with signature: void method(Float);
+     */
+    public void executeRemoteMethod(final String methodName, final float arg) {
+        sendCommand(methodName, UsbHandler.FLOAT_ARG_PREAMBLE, arg, null);
+    }
+
+    /**
+     * Calls a Java method with signature: void method(String);
+     */
+    public void executeRemoteMethod(final String methodName, final String arg) {
+        sendCommand(methodName, UsbHandler.STRING_ARG_PREAMBLE, arg, null);
+    }
+
+    /**
+     * Sends a text message, printed by the Java side.
+     */
+    public void sendMessage(final String message) {
+        loopTasks.add(() -> send(protocol.message(message)));
+    }
+
+    /**
+     * Streams samples of a telemetry channel, as a sketch sampling a sensor.
+     *
+     * @param channel The channel number (0..255)
+     * @param cardTimes The timestamps of the samples (micros of the card)
+     * @param values The sampled values
+     * @param count The number of samples to send
+     */
+    public void sendTelemetry(final int channel, final long[] cardTimes, final float[] values, final int count) {
+        long[] times = cardTimes.clone();
+        float[] samples = values.clone();
+        loopTasks.add(() -> send(protocol.telemetry(channel, times, samples, count, floatDecimals)));
+    }
+
+    private void sendCommand(final String name, final char signature, final Object arg1, final Object arg2) {
+        loopTasks.add(() -> send(protocol.command(name, signature, arg1, arg2, floatDecimals)));
+    }
+
+    @Override
+    public void dataReceived(final byte[] data, final int offset, final int length) {
+        if (System.nanoTime() - bootEndNanos < 0) {
+            return;
+        }
+        protocol.feed(data, offset, length);
+    }
+
+    @Override
+    public void connectionLost(final IOException ex) {
+        loopTasks.clear();
+        rxPending.set(0);
+    }
+
+    @Override
+    public void callReceived(final EmulatedCall call, final int wireSize) {
+        int bufferSize = rxBufferSize;
+        if (bufferSize > 0) {
+            // Only the receiving thread fills the buffer: a call larger than the buffer fits when it is empty
+            int pending = rxPending.get();
+            if ((pending > 0) && (pending + wireSize > bufferSize)) {
+                overruns.incrementAndGet();
+                return;
+            }
+            rxPending.addAndGet(wireSize);
+        }
+        loopTasks.add(() -> {
+            // The call is executed when all its bytes would be arrived
+            sleepNanos(lineTime(wireSize));
+            readReceived(wireSize);
+            execute(call);
+        });
+    }
+
+    /**
+     * The loop reads a call: its bytes leave the receive buffer.
+     */
+    private void readReceived(final int wireSize) {
+        if (rxBufferSize > 0) {
+            rxPending.addAndGet(-wireSize);
+            if (flowControl) {
+                send(protocol.credit(wireSize));
+            }
+        }
+    }
+
+    @Override
+    public void syncReceived() {
+        synchronized (syncLock) {
+            syncReceived = true;
+            syncLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void malformedCall(final String reason, final int requestId) {
+        loopTasks.add(() -> send(protocol.error(requestId, reason)));
+    }
+
+    private void loop() {
+        try {
+            while (Thread.currentThread().isInterrupted() == false) {
+                Runnable task = loopTasks.poll(COMMAND_TIMEOUT_CHECK, TimeUnit.NANOSECONDS);
+                if (task != null) {
+                    task.run();
+                }
+                protocol.endIdleCommand();
+            }
+        } catch (InterruptedException ignored) {
+            // Card detached
+        }
+    }
+
+    private void execute(final EmulatedCall call) {
+        if (CardProtocol.NEGOTIATION_COMMAND.equals(call.getFunctionName()) && (protocol.isBinary() == false)) {
+            negotiateBinary(call);
+            return;
+        }
+        if (CardProtocol.FLOW_CONTROL_COMMAND.equals(call.getFunctionName()) && (rxBufferSize > 0)) {
+            flowControl = true;
+            send(protocol.credit(rxBufferSize));
+            return;
+        }
+        if (CardProtocol.FUNCTION_IDS_COMMAND.equals(call.getFunctionName()) && functionIdsSupported
+                && (protocol.isBinary() == false)) {
+            sendFunctionTable();
+            return;
+        }
+        sleepNanos(computeDelayNanos);
+        executedCalls.incrementAndGet();
+        int requestId = call.getRequestId();
+        String name = call.getFunctionName();
+        try {
+            switch (call.getSignature()) {
+                case UsbHandler.VOID_ARG_PREAMBLE:
+                    VoidFunction voidFunction = voidFunctions.get(name);
+                    if (voidFunction != null) {
+                        voidFunction.call();
+                        sendResult(requestId, UsbHandler.VOID_ARG_PREAMBLE, null);
+                        return;
+                    }
+                    break;
+                case UsbHandler.INT_INT_ARG_PREAMBLE:
+                    IntIntFunction intFunction = intFunctions.get(name);
+                    if (intFunction != null) {
+                        sendResult(requestId, UsbHandler.INT_ARG_PREAMBLE,
+                                intFunction.call(call.getIntArg1(), call.getIntArg2()));
+                        return;
+                    }
+                    break;
+                case UsbHandler.FLOAT_ARG_PREAMBLE:
+                    FloatFunction floatFunction = floatFunctions.get(name);
+                    if (floatFunction != null) {
+                        sendResult(requestId, UsbHandler.FLOAT_ARG_PREAMBLE, floatFunction.call(call.getFloatArg()));
+                        return;
+                    }
+                    break;
+                default:
+                    if (CARD_NAME_FUNCTION.equals(name)) {
+                        sendResult(requestId, UsbHandler.STRING_ARG_PREAMBLE, cardName);
+                        return;
+                    }
+                    StringFunction stringFunction = stringFunctions.get(name);
+                    if (stringFunction != null) {
+                        sendResult(requestId, UsbHandler.STRING_ARG_PREAMBLE, stringFunction.call(call.getStringArg()));
+                        return;
+                    }
+            }
+            send(protocol.error(requestId, "Not registered function: " + name));
+        } catch (RuntimeException ex) {
+            send(protocol.error(requestId, "Function " + name + " fails: " + ex));
+        }
+    }
+
+    /**
+     * Lists the registered functions (GetCardName first) and the declared Java methods.
+     */
+    private void sendFunctionTable() {
+        List<EmulatedCall> functions = new ArrayList<>();
+        functions.add(function(CARD_NAME_FUNCTION, UsbHandler.STRING_ARG_PREAMBLE));
+        voidFunctions.keySet().forEach(name -> functions.add(function(name, UsbHandler.VOID_ARG_PREAMBLE)));
+        intFunctions.keySet().forEach(name -> functions.add(function(name, UsbHandler.INT_INT_ARG_PREAMBLE)));
+        floatFunctions.keySet().forEach(name -> functions.add(function(name, UsbHandler.FLOAT_ARG_PREAMBLE)));
+        stringFunctions.keySet().forEach(name -> functions.add(function(name, UsbHandler.STRING_ARG_PREAMBLE)));
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        for (String method : remoteMethods) {
+            methods.put(method, methods.size());
+        }
+        send(protocol.functionTable(functions, methods));
+    }
+
+    private static EmulatedCall function(final String name, final char signature) {
+        return new EmulatedCall(EmulatedCall.NO_REQUEST_ID, name, signature, 0, 0, 0, null);
+    }
+
+    private void negotiateBinary(final EmulatedCall call) {
+        if (binarySupported == false) {
+            send(protocol.error(call.getRequestId(), "Not registered function: " + call.getFunctionName()));
+            return;
+        }
+        synchronized (syncLock) {
+            syncReceived = false;
+        }
+        protocol.setBinary(true);
+        send(CardProtocol.binaryAccepted());
+        // Nothing is sent until Java confirms that it is reading binary frames
+        long deadline = System.nanoTime() + SYNC_TIME_OUT;
+        synchronized (syncLock) {
+            long remaining;
+            while ((syncReceived == false) && ((remaining = deadline - System.nanoTime()) > 0)) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(syncLock, remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (syncReceived == false) {
+                protocol.setBinary(false);
+            }
+        }
+    }
+
+    private void sendResult(final int requestId, final char dataType, final Object value) {
+        send(protocol.result(requestId, dataType, value, floatDecimals));
+    }
+
+    private void send(final byte[] data) {
+        sleepNanos(lineTime(data.length));
+        try {
+            output.write(data);
+            output.flush();
+        } catch (IOException ex) {
+            // As a real card: the data is lost when nobody is listening
+            loopTasks.clear();
+        }
+    }
+
+    private long lineTime(final int bytes) {
+        int rate = baudRate;
+        return (rate > 0) ? (bytes * BITS_PER_BYTE * TimeUnit.SECONDS.toNanos(1)) / rate : 0;
+    }
+
+    private static void sleepNanos(final long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
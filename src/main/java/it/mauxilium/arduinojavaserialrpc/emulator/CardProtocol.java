@@ -0,0 +1,557 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.emulator;
+
+import it.mauxilium.arduinojavaserialrpc.businesslogic.UsbHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Card side of the protocol: decoding of the calls sent by Java and encoding of the
+ * rows (or frames) sent by the card.<br>
+ * It is written from the protocol description, independently from the Java side classes,
+ * so the emulator checks them as a real card does.
+ */
+class CardProtocol {
+
+    /**
+     * Receiver of the decoded data
+     */
+    interface Receiver {
+        /**
+         * A call of a card function
+         *
+         * @param call The received call
+         * @param wireSize The number of received bytes of the call
+         */
+        void callReceived(EmulatedCall call, int wireSize);
+
+        /**
+         * The SYNC frame which confirms the binary protocol
+         */
+        void syncReceived();
+
+        /**
+         * Not understood data
+         *
+         * @param reason The description of the problem
+         * @param requestId The request id, if it was already decoded
+         */
+        void malformedCall(String reason, int requestId);
+    }
+
+    static final String NEGOTIATION_COMMAND = "MArC_bin";
+    static final String FLOW_CONTROL_COMMAND = "MArC_crd";
+    static final String FUNCTION_IDS_COMMAND = "MArC_fid";
+
+    private static final String CMD_PREAMBLE = "MArC_cmd";
+    private static final String RESULT_PREAMBLE = "MArC_res";
+    private static final String ERROR_PREAMBLE = "MArC_err";
+    private static final String MESSAGE_PREAMBLE = "MArC_msg";
+    private static final String TELEMETRY_PREAMBLE = "MArC_tlm";
+    private static final String ROW_END = "\r\n";
+
+    private static final byte START_BYTE = (byte) 0xA5;
+    private static final byte FRAME_CALL = 0x01;
+    private static final byte FRAME_RESULT = 0x02;
+    private static final byte FRAME_ERROR = 0x03;
+    private static final byte FRAME_COMMAND = 0x04;
+    private static final byte FRAME_MESSAGE = 0x05;
+    private static final byte FRAME_SYNC = 0x06;
+    private static final byte FRAME_TELEMETRY = 0x07;
+    private static final byte FRAME_CREDIT = 0x08;
+    private static final byte FRAME_CALL_ID = 0x09;
+    private static final byte FRAME_COMMAND_ID = 0x0A;
+    private static final char ID_PREFIX = '@';
+    private static final int MAX_BINARY_ID = 255;
+    private static final int TELEMETRY_SAMPLE_SIZE = 8;
+    private static final int MAX_PAYLOAD = 255;
+
+    private enum FrameState { START, LENGTH, TYPE, PAYLOAD, CRC }
+
+    private final Receiver receiver;
+    private final StringBuilder text = new StringBuilder();
+    private final byte[] payload = new byte[MAX_PAYLOAD];
+    private volatile boolean binary;
+    private volatile long commandTimeoutNanos;
+    private long lastTextNanos;
+    private volatile List<EmulatedCall> functionIds;
+    private volatile Map<String, Integer> methodIds;
+    private FrameState frameState = FrameState.START;
+    private int payloadSize;
+    private int received;
+    private byte frameType;
+    private int crc;
+
+    CardProtocol(final Receiver dataReceiver) {
+        receiver = dataReceiver;
+    }
+
+    void setBinary(final boolean binaryFrames) {
+        binary = binaryFrames;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @param timeoutNanos The silence which ends a not tagged command (0 ends it with the received data)
+     */
+    void setCommandTimeout(final long timeoutNanos) {
+        commandTimeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Stops to use the function ids (i.e. at the card reset).
+     */
+    void clearFunctionIds() {
+        functionIds = null;
+        methodIds = null;
+    }
+
+    /**
+     * Decodes the bytes received from Java.
+     */
+    synchronized void feed(final byte[] data, final int offset, final int length) {
+        lastTextNanos = System.nanoTime();
+        for (int index = offset; index < offset + length; index++) {
+            if (binary) {
+                feedFrame(data[index]);
+            } else {
+                text.append((char) (data[index] & 0xFF));
+            }
+        }
+        if (binary == false) {
+            parseText();
+        }
+    }
+
+    /**
+     * Decodes the not tagged command received before a silence of the command timeout.
+     */
+    synchronized void endIdleCommand() {
+        if ((text.length() > 0) && (System.nanoTime() - lastTextNanos >= commandTimeoutNanos)) {
+            parseText(true);
+        }
+    }
+
+    private void parseText() {
+        parseText(commandTimeoutNanos == 0);
+    }
+
+    /**
+     * Tagged commands end with a new line; the not tagged ones are complete at the end of received
+     * data or, as for the Arduino library, after a silence of the command timeout.
+     */
+    private void parseText(final boolean idle) {
+        while (text.length() > 0) {
+            if (text.charAt(0) == '#') {
+                int end = text.indexOf("\n");
+                if (end < 0) {
+                    return;
+                }
+                String row = text.substring(1, end);
+                text.delete(0, end + 1);
+                int separator = row.indexOf(' ');
+                try {
+                    int requestId = Integer.parseInt(row.substring(0, Math.max(separator, 0)));
+                    parseCommand(requestId, row.substring(separator + 1), end + 1);
+                } catch (NumberFormatException ex) {
+                    receiver.malformedCall("Not valid request id: " + row, EmulatedCall.NO_REQUEST_ID);
+                }
+            } else {
+                if (idle == false) {
+                    return;
+                }
+                String command = text.toString().trim();
+                int wireSize = text.length();
+                text.setLength(0);
+                if (command.isEmpty() == false) {
+                    parseCommand(EmulatedCall.NO_REQUEST_ID, command, wireSize);
+                }
+            }
+        }
+    }
+
+    private void parseCommand(final int requestId, final String command, final int wireSize) {
+        int separator = command.indexOf(' ');
+        if ((separator < 0) || (separator + 1 == command.length())) {
+            receiver.malformedCall("Not valid command: " + command, requestId);
+            return;
+        }
+        String name = command.substring(0, separator);
+        char signature = command.charAt(separator + 1);
+        String args = command.substring(separator + 2);
+        try {
+            if ((name.isEmpty() == false) && (name.charAt(0) == ID_PREFIX)) {
+                name = functionName(Integer.parseInt(name.substring(1)), signature);
+            }
+            switch (signature) {
+                case UsbHandler.VOID_ARG_PREAMBLE:
+                    receiver.callReceived(new EmulatedCall(requestId, name, signature, 0, 0, 0, null), wireSize);
+                    break;
+                case UsbHandler.INT_INT_ARG_PREAMBLE:
+                    int comma = args.indexOf(',');
+                    int arg1 = Integer.parseInt(args.substring(0, Math.max(comma, 0)));
+                    int arg2 = Integer.parseInt(args.substring(comma + 1));
+                    receiver.callReceived(new EmulatedCall(requestId, name, signature, arg1, arg2, 0, null), wireSize);
+                    break;
+                case UsbHandler.FLOAT_ARG_PREAMBLE:
+                    float argF = Float.parseFloat(args);
+                    receiver.callReceived(new EmulatedCall(requestId, name, signature, 0, 0, argF, null), wireSize);
+                    break;
+                case UsbHandler.STRING_ARG_PREAMBLE:
+                    receiver.callReceived(new EmulatedCall(requestId, name, signature, 0, 0, 0, args), wireSize);
+                    break;
+                default:
+                    receiver.malformedCall("Not supported argument model: " + signature, requestId);
+            }
+        } catch (NumberFormatException ex) {
+            receiver.malformedCall("Not valid arguments: " + command, requestId);
+        } catch (IllegalArgumentException ex) {
+            receiver.malformedCall(ex.getMessage(), requestId);
+        }
+    }
+
+    private void feedFrame(final byte data) {
+        switch (frameState) {
+            case START:
+                if (data == START_BYTE) {
+                    frameState = FrameState.LENGTH;
+                }
+                break;
+            case LENGTH:
+                payloadSize = data & 0xFF;
+                received = 0;
+                crc = crc8(0, data);
+                frameState = FrameState.TYPE;
+                break;
+            case TYPE:
+                frameType = data;
+                crc = crc8(crc, data);
+                frameState = (payloadSize > 0) ? FrameState.PAYLOAD : FrameState.CRC;
+                break;
+            case PAYLOAD:
+                payload[received++] = data;
+                crc = crc8(crc, data);
+                if (received == payloadSize) {
+                    frameState = FrameState.CRC;
+                }
+                break;
+            default:
+                frameState = FrameState.START;
+                if ((crc & 0xFF) != (data & 0xFF)) {
+                    receiver.malformedCall("Wrong CRC", EmulatedCall.NO_REQUEST_ID);
+                } else if (frameType == FRAME_SYNC) {
+                    receiver.syncReceived();
+                } else if ((frameType == FRAME_CALL) || (frameType == FRAME_CALL_ID)) {
+                    decodeCallFrame();
+                } else {
+                    receiver.malformedCall("Not supported frame type: " + frameType, EmulatedCall.NO_REQUEST_ID);
+                }
+        }
+    }
+
+    private void decodeCallFrame() {
+        ByteBuffer frame = ByteBuffer.wrap(payload, 0, payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        int requestId = EmulatedCall.NO_REQUEST_ID;
+        try {
+            requestId = frame.get() & 0xFF;
+            char signature = (char) frame.get();
+            String name = (frameType == FRAME_CALL_ID)
+                    ? functionName(frame.get() & 0xFF, signature) : string(frame, frame.get() & 0xFF);
+            int arg1 = 0;
+            int arg2 = 0;
+            float argF = 0;
+            String argS = null;
+            switch (signature) {
+                case UsbHandler.INT_INT_ARG_PREAMBLE:
+                    arg1 = frame.getInt();
+                    arg2 = frame.getInt();
+                    break;
+                case UsbHandler.FLOAT_ARG_PREAMBLE:
+                    argF = frame.getFloat();
+                    break;
+                case UsbHandler.STRING_ARG_PREAMBLE:
+                    argS = string(frame, frame.get() & 0xFF);
+                    break;
+                default:
+            }
+            receiver.callReceived(new EmulatedCall(requestId, name, signature, arg1, arg2, argF, argS),
+                    payloadSize + 4);
+        } catch (RuntimeException ex) {
+            receiver.malformedCall("Malformed call frame", requestId);
+        }
+    }
+
+    /**
+     * Returns the name of a function of the table sent to Java.
+     *
+     * @throws IllegalArgumentException If the id is not in the table
+     */
+    private String functionName(final int id, final char signature) {
+        List<EmulatedCall> functions = functionIds;
+        if ((functions == null) || (id < 0) || (id >= functions.size())
+                || (functions.get(id).getSignature() != signature)) {
+            throw new IllegalArgumentException("Not valid function id: " + id);
+        }
+        return functions.get(id).getFunctionName();
+    }
+
+    private static String string(final ByteBuffer frame, final int size) {
+        String value = new String(frame.array(), frame.position(), size, StandardCharsets.ISO_8859_1);
+        frame.position(frame.position() + size);
+        return value;
+    }
+
+    /**
+     * Encodes a function result.
+     *
+     * @param requestId The request id of the call
+     * @param dataType The type of result (UsbHandler preamble chars)
+     * @param value The result (null for void functions)
+     * @param floatDecimals The decimals of float values in text rows
+     * @return The bytes to send
+     */
+    byte[] result(final int requestId, final char dataType, final Object value, final int floatDecimals) {
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+            frame.put((byte) Math.max(requestId, 0));
+            frame.put((byte) dataType);
+            putValue(frame, dataType, value, false);
+            return frame(FRAME_RESULT, frame);
+        }
+        StringBuilder rows = new StringBuilder(RESULT_PREAMBLE).append(ROW_END);
+        if (requestId != EmulatedCall.NO_REQUEST_ID) {
+            rows.append(requestId).append(ROW_END);
+        }
+        rows.append(dataType).append(ROW_END);
+        if (dataType != UsbHandler.VOID_ARG_PREAMBLE) {
+            rows.append(textValue(value, floatDecimals)).append(ROW_END);
+        }
+        return bytes(rows);
+    }
+
+    /**
+     * Encodes an error notification.
+     */
+    byte[] error(final int requestId, final String message) {
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD);
+            frame.put((byte) Math.max(requestId, 0));
+            putString(frame, message, false);
+            return frame(FRAME_ERROR, frame);
+        }
+        StringBuilder rows = new StringBuilder(ERROR_PREAMBLE).append(ROW_END);
+        if (requestId != EmulatedCall.NO_REQUEST_ID) {
+            rows.append(requestId).append(ROW_END);
+        }
+        return bytes(rows.append(message).append(ROW_END));
+    }
+
+    /**
+     * Encodes a call of a Java method.
+     */
+    byte[] command(final String name, final char signature, final Object arg1, final Object arg2,
+            final int floatDecimals) {
+        Map<String, Integer> methods = methodIds;
+        Integer id = (methods != null) ? methods.get(name) : null;
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+            boolean byId = (id != null) && (id <= MAX_BINARY_ID);
+            frame.put((byte) signature);
+            if (byId) {
+                frame.put((byte) id.intValue());
+            } else {
+                putString(frame, name, true);
+            }
+            if (signature == UsbHandler.INT_INT_ARG_PREAMBLE) {
+                frame.putInt((Integer) arg1);
+                frame.putInt((Integer) arg2);
+            } else {
+                putValue(frame, signature, arg1, true);
+            }
+            return frame(byId ? FRAME_COMMAND_ID : FRAME_COMMAND, frame);
+        }
+        StringBuilder rows = new StringBuilder(CMD_PREAMBLE).append(ROW_END)
+                .append((id != null) ? ID_PREFIX + id.toString() : name).append(ROW_END)
+                .append(signature).append(ROW_END);
+        if (arg1 != null) {
+            rows.append(textValue(arg1, floatDecimals)).append(ROW_END);
+        }
+        if (arg2 != null) {
+            rows.append(textValue(arg2, floatDecimals)).append(ROW_END);
+        }
+        return bytes(rows);
+    }
+
+    /**
+     * Encodes a text message.
+     */
+    byte[] message(final String message) {
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD);
+            putString(frame, message, false);
+            return frame(FRAME_MESSAGE, frame);
+        }
+        return bytes(new StringBuilder(MESSAGE_PREAMBLE).append(ROW_END).append(message).append(ROW_END));
+    }
+
+    /**
+     * Encodes samples of a telemetry channel: a frame per sample in text mode, as many samples
+     * as a frame can hold in binary mode.
+     */
+    byte[] telemetry(final int channel, final long[] cardTimes, final float[] values, final int count,
+            final int floatDecimals) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        if (binary) {
+            int perFrame = (MAX_PAYLOAD - 1) / TELEMETRY_SAMPLE_SIZE;
+            for (int first = 0; first < count; first += perFrame) {
+                ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+                frame.put((byte) channel);
+                for (int index = first; index < Math.min(count, first + perFrame); index++) {
+                    frame.putInt((int) cardTimes[index]);
+                    frame.putFloat(values[index]);
+                }
+                byte[] encoded = frame(FRAME_TELEMETRY, frame);
+                frames.write(encoded, 0, encoded.length);
+            }
+        } else {
+            for (int index = 0; index < count; index++) {
+                byte[] encoded = bytes(new StringBuilder(TELEMETRY_PREAMBLE).append(ROW_END)
+                        .append(channel).append(ROW_END)
+                        .append(cardTimes[index] & 0xFFFFFFFFL).append(ROW_END)
+                        .append(textValue(values[index], floatDecimals)).append(ROW_END));
+                frames.write(encoded, 0, encoded.length);
+            }
+        }
+        return frames.toByteArray();
+    }
+
+    /**
+     * Encodes a flow control credit: the size of the receive buffer, or the bytes read from it.
+     */
+    byte[] credit(final int bytes) {
+        if (binary) {
+            ByteBuffer frame = ByteBuffer.allocate(MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+            frame.putShort((short) bytes);
+            return frame(FRAME_CREDIT, frame);
+        }
+        return bytes(new StringBuilder(FLOW_CONTROL_COMMAND).append(ROW_END).append(bytes).append(ROW_END));
+    }
+
+    /**
+     * Encodes the function table (text only): from now the ids are accepted in the received
+     * calls, and they are sent in place of the names of the listed Java methods.
+     *
+     * @param functions The card functions, the id is the position in the list
+     * @param methods The ids of the Java methods called by the card
+     * @return The bytes to send
+     */
+    byte[] functionTable(final List<EmulatedCall> functions, final Map<String, Integer> methods) {
+        StringBuilder rows = new StringBuilder(FUNCTION_IDS_COMMAND).append(ROW_END)
+                .append(functions.size()).append(ROW_END);
+        for (int id = 0; id < functions.size(); id++) {
+            EmulatedCall function = functions.get(id);
+            rows.append(id).append(',').append(function.getSignature()).append(',')
+                    .append(function.getFunctionName()).append(ROW_END);
+        }
+        rows.append(methods.size()).append(ROW_END);
+        for (Map.Entry<String, Integer> method : methods.entrySet()) {
+            rows.append(method.getValue()).append(',').append(method.getKey()).append(ROW_END);
+        }
+        functionIds = functions;
+        methodIds = methods;
+        return bytes(rows);
+    }
+
+    /**
+     * Encodes the answer which accepts the binary protocol (the last text row).
+     */
+    static byte[] binaryAccepted() {
+        return (NEGOTIATION_COMMAND + ROW_END).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void putValue(final ByteBuffer frame, final char dataType, final Object value,
+            final boolean withLength) {
+        switch (dataType) {
+            case UsbHandler.INT_ARG_PREAMBLE:
+                frame.putInt((Integer) value);
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                frame.putFloat((Float) value);
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                putString(frame, (String) value, withLength);
+                break;
+            default:
+        }
+    }
+
+    private static void putString(final ByteBuffer frame, final String value, final boolean withLength) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        int size = Math.min(bytes.length, frame.remaining() - (withLength ? 1 : 0));
+        if (withLength) {
+            frame.put((byte) size);
+        }
+        frame.put(bytes, 0, size);
+    }
+
+    /**
+     * Formats the values as the Arduino Print class does.
+     */
+    private static String textValue(final Object value, final int floatDecimals) {
+        if (value instanceof Float) {
+            float number = (Float) value;
+            if (Float.isNaN(number)) {
+                return "nan";
+            }
+            if (Float.isInfinite(number)) {
+                return (number > 0) ? "inf" : "-inf";
+            }
+            return String.format(Locale.ROOT, "%." + floatDecimals + "f", number);
+        }
+        return String.valueOf(value);
+    }
+
+    private static byte[] frame(final byte frameType, final ByteBuffer payloadBuffer) {
+        int size = payloadBuffer.position();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(size + 4);
+        frame.write(START_BYTE);
+        frame.write(size);
+        frame.write(frameType);
+        frame.write(payloadBuffer.array(), 0, size);
+        int frameCrc = crc8(crc8(0, (byte) size), frameType);
+        for (int index = 0; index < size; index++) {
+            frameCrc = crc8(frameCrc, payloadBuffer.array()[index]);
+        }
+        frame.write(frameCrc);
+        return frame.toByteArray();
+    }
+
+    private static byte[] bytes(final StringBuilder rows) {
+        return rows.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * CRC-8 Dallas/Maxim, as _crc_ibutton_update of avr-libc.
+     */
+    private static int crc8(final int previous, final byte data) {
+        int result = (previous ^ data) & 0xFF;
+        for (int bit = 0; bit < 8; bit++) {
+            result = ((result & 0x01) != 0) ? (result >>> 1) ^ 0x8C : result >>> 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.emulator;
+
+/**
+ * A function call received by the emulated card.
+ */
+class EmulatedCall {
+
+    /**
+     * Request id of the not tagged calls
+     */
+    static final int NO_REQUEST_ID = -1;
+
+    private final int requestId;
+    private final String functionName;
+    private final char signature;
+    private final int intArg1;
+    private final int intArg2;
+    private final float floatArg;
+    private final String stringArg;
+
+    EmulatedCall(final int id, final String name, final char sign, final int arg1, final int arg2,
+            final float argF, final String argS) {
+        requestId = id;
+        functionName = name;
+        signature = sign;
+        intArg1 = arg1;
+        intArg2 = arg2;
+        floatArg = argF;
+        stringArg = argS;
+    }
+
+    int getRequestId() {
+        return requestId;
+    }
+
+    boolean isTagged() {
+        return requestId != NO_REQUEST_ID;
+    }
+
+    String getFunctionName() {
+        return functionName;
+    }
+
+    char getSignature() {
+        return signature;
+    }
+
+    int getIntArg1() {
+        return intArg1;
+    }
+
+    int getIntArg2() {
+        return intArg2;
+    }
+
+    float getFloatArg() {
+        return floatArg;
+    }
+
+    String getStringArg() {
+        return stringArg;
+    }
+}
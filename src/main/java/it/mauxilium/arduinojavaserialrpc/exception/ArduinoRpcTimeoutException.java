@@ -0,0 +1,19 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.exception;
+
+/**
+ * This exception is raised when the result of a remote function is not received
+ * within the required time.
+ */
+public class ArduinoRpcTimeoutException extends ArduinoRpcJavaFailsException {
+
+    public ArduinoRpcTimeoutException(final String errorTxt) {
+        super(errorTxt);
+    }
+
+}
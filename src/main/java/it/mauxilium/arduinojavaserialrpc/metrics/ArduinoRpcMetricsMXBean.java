@@ -0,0 +1,59 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.metrics;
+
+import java.util.List;
+
+/**
+ * JMX view of the statistics of a connection, registered on the platform MBean server
+ * while the connection is open, with name:<br>
+ * it.mauxilium.arduinojavaserialrpc:type=Connection,name="port name"
+ */
+public interface ArduinoRpcMetricsMXBean {
+
+    String getConnectionName();
+
+    /**
+     * @return The number of calls from Java to Arduino
+     */
+    long getCalls();
+
+    long getErrors();
+
+    long getTimeouts();
+
+    /**
+     * @return The bytes of all the calls and results, in both the directions
+     */
+    long getBytesSent();
+
+    /**
+     * @return The bytes of all the received frames, in both the directions
+     */
+    long getBytesReceived();
+
+    /**
+     * @return The number of calls from Arduino to Java
+     */
+    long getInboundCalls();
+
+    long getInboundErrors();
+
+    List<FunctionStats> getOutboundFunctions();
+
+    List<FunctionStats> getInboundFunctions();
+
+    /**
+     * @return The queue depth and the waiting time of any sending lane
+     */
+    List<LaneStats> getLanes();
+
+    /**
+     * Restarts all the statistics from zero.
+     */
+    void reset();
+}
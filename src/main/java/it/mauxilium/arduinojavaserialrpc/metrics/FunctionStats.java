@@ -0,0 +1,126 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of a function (name and signature) at a given time, for the calls from
+ * Java to Arduino (outbound) or from Arduino to Java (inbound).<br>
+ * The latencies are measured from the submission of the call to its result (outbound), or from
+ * the reception of the command to the end of the local method (inbound); the percentiles have
+ * a precision of about 6%.
+ */
+public class FunctionStats {
+
+    public static final String OUTBOUND = "outbound";
+    public static final String INBOUND = "inbound";
+
+    private final String direction;
+    private final String functionName;
+    private final String signature;
+    private final long calls;
+    private final long errors;
+    private final long timeouts;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    @ConstructorProperties({"direction", "functionName", "signature", "calls", "errors", "timeouts",
+        "bytesSent", "bytesReceived", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public FunctionStats(final String direction, final String functionName, final String signature,
+            final long calls, final long errors, final long timeouts, final long bytesSent, final long bytesReceived,
+            final double meanMicros, final double p50Micros, final double p99Micros, final double p999Micros,
+            final double maxMicros) {
+        this.direction = direction;
+        this.functionName = functionName;
+        this.signature = signature;
+        this.calls = calls;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return OUTBOUND (calls to Arduino) or INBOUND (calls from Arduino)
+     */
+    public String getDirection() {
+        return direction;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * @return The signature code of arguments: "V" (void), "H" (two int), "F" (float) or "S" (String)
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return The calls failed for any reason, except the timeouts
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return direction + " " + functionName + "(" + signature + "): calls=" + calls + " errors=" + errors +
+                " timeouts=" + timeouts + " sent=" + bytesSent + "B received=" + bytesReceived +
+                "B mean=" + meanMicros + "us p50=" + p50Micros + "us p99=" + p99Micros +
+                "us p999=" + p999Micros + "us max=" + maxMicros + "us";
+    }
+}
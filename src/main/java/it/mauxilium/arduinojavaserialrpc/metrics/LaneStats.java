@@ -0,0 +1,85 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of a sending lane (see CallPriority) at a given time: the calls waiting
+ * to be sent, and the time the sent calls waited into the queue before to be written.
+ */
+public class LaneStats {
+
+    private final String priority;
+    private final int waitingCalls;
+    private final long sentCalls;
+    private final double meanWaitMicros;
+    private final double p50WaitMicros;
+    private final double p99WaitMicros;
+    private final double p999WaitMicros;
+    private final double maxWaitMicros;
+
+    @ConstructorProperties({"priority", "waitingCalls", "sentCalls", "meanWaitMicros", "p50WaitMicros",
+        "p99WaitMicros", "p999WaitMicros", "maxWaitMicros"})
+    public LaneStats(final String priority, final int waitingCalls, final long sentCalls,
+            final double meanWaitMicros, final double p50WaitMicros, final double p99WaitMicros,
+            final double p999WaitMicros, final double maxWaitMicros) {
+        this.priority = priority;
+        this.waitingCalls = waitingCalls;
+        this.sentCalls = sentCalls;
+        this.meanWaitMicros = meanWaitMicros;
+        this.p50WaitMicros = p50WaitMicros;
+        this.p99WaitMicros = p99WaitMicros;
+        this.p999WaitMicros = p999WaitMicros;
+        this.maxWaitMicros = maxWaitMicros;
+    }
+
+    /**
+     * @return The name of the CallPriority of the lane
+     */
+    public String getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The number of calls waiting to be sent (the queue depth)
+     */
+    public int getWaitingCalls() {
+        return waitingCalls;
+    }
+
+    public long getSentCalls() {
+        return sentCalls;
+    }
+
+    public double getMeanWaitMicros() {
+        return meanWaitMicros;
+    }
+
+    public double getP50WaitMicros() {
+        return p50WaitMicros;
+    }
+
+    public double getP99WaitMicros() {
+        return p99WaitMicros;
+    }
+
+    public double getP999WaitMicros() {
+        return p999WaitMicros;
+    }
+
+    public double getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
+
+    @Override
+    public String toString() {
+        return priority + " lane: waiting=" + waitingCalls + " sent=" + sentCalls + " wait mean=" + meanWaitMicros +
+                "us p50=" + p50WaitMicros + "us p99=" + p99WaitMicros + "us p999=" + p999WaitMicros +
+                "us max=" + maxWaitMicros + "us";
+    }
+}
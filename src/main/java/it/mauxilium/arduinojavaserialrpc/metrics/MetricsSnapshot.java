@@ -0,0 +1,116 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.metrics;
+
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The statistics of a connection at a given time: one FunctionStats for any function
+ * called from Java (outbound) and for any method called from Arduino (inbound), and
+ * one LaneStats for any sending lane.
+ */
+public class MetricsSnapshot {
+
+    private final String connectionName;
+    private final long timestamp;
+    private final List<FunctionStats> outbound;
+    private final List<FunctionStats> inbound;
+    private final List<LaneStats> lanes;
+
+    public MetricsSnapshot(final String connectionName, final long timestamp,
+            final List<FunctionStats> outbound, final List<FunctionStats> inbound) {
+        this(connectionName, timestamp, outbound, inbound, Collections.emptyList());
+    }
+
+    public MetricsSnapshot(final String connectionName, final long timestamp,
+            final List<FunctionStats> outbound, final List<FunctionStats> inbound, final List<LaneStats> lanes) {
+        this.connectionName = connectionName;
+        this.timestamp = timestamp;
+        this.outbound = Collections.unmodifiableList(outbound);
+        this.inbound = Collections.unmodifiableList(inbound);
+        this.lanes = Collections.unmodifiableList(lanes);
+    }
+
+    /**
+     * @return The name of the port (or of the transport) of the connection
+     */
+    public String getConnectionName() {
+        return connectionName;
+    }
+
+    /**
+     * @return The time of the snapshot, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<FunctionStats> getOutbound() {
+        return outbound;
+    }
+
+    public List<FunctionStats> getInbound() {
+        return inbound;
+    }
+
+    /**
+     * @return The statistics of the sending lanes, in priority order
+     */
+    public List<LaneStats> getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Returns the statistics of a sending lane.
+     *
+     * @param priority The priority of the lane
+     * @return null if the lane is not measured
+     */
+    public LaneStats getLane(final CallPriority priority) {
+        for (LaneStats lane : lanes) {
+            if (lane.getPriority().equals(priority.name())) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the statistics of a function called from Java.
+     *
+     * @param functionName The name of the remote function
+     * @param signature The signature code (see UsbHandler preambles: 'V', 'H', 'F' or 'S')
+     * @return null if the function was never called
+     */
+    public FunctionStats getOutbound(final String functionName, final char signature) {
+        return find(outbound, functionName, signature);
+    }
+
+    /**
+     * Returns the statistics of a method called from Arduino.
+     *
+     * @param functionName The name of the local method
+     * @param signature The signature code (see UsbHandler preambles: 'V', 'H', 'F' or 'S')
+     * @return null if the method was never called
+     */
+    public FunctionStats getInbound(final String functionName, final char signature) {
+        return find(inbound, functionName, signature);
+    }
+
+    private static FunctionStats find(final List<FunctionStats> stats, final String functionName, final char signature) {
+        for (FunctionStats function : stats) {
+            if (function.getFunctionName().equals(functionName) &&
+                    (function.getSignature().charAt(0) == signature)) {
+                return function;
+            }
+        }
+        return null;
+    }
+}
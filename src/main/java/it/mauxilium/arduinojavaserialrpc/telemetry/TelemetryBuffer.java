@@ -0,0 +1,181 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.telemetry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ring of the samples of a telemetry channel, streamed by the sketch.<br>
+ * The samples are stored into two preallocated primitive arrays (values and card timestamps),
+ * so the receiving of a sample does not create objects; the consumers read them in bulk with
+ * drain(), copying them into their own arrays.<br>
+ * The timestamps are the microseconds of the card clock (Arduino micros()), extended to 64 bits:
+ * the wrap around of the 32 bits counter (about every 71 minutes) is added back.<br>
+ * A single thread (the receiving one) writes the samples; any thread can drain them.
+ */
+public final class TelemetryBuffer {
+
+    private static final long CARD_CLOCK_PERIOD = 1L << 32;
+
+    private final int channel;
+    private final TelemetryOverflowPolicy policy;
+    private final float[] values;
+    private final long[] timestamps;
+
+    /**
+     * Number of written and read samples since the creation: the ring indexes are their remainders
+     */
+    private long written;
+    private long read;
+    private long dropped;
+    private int waitingConsumers;
+
+    private long lastCardTime = -1;
+    private long cardTimeBase;
+
+    /**
+     * Creates the buffer of a channel.
+     *
+     * @param channelId The channel number used by the sketch (0..255)
+     * @param capacity The maximum number of samples not yet read
+     * @param overflowPolicy The behaviour when the buffer is full
+     */
+    public TelemetryBuffer(final int channelId, final int capacity, final TelemetryOverflowPolicy overflowPolicy) {
+        if ((channelId < 0) || (channelId > 255)) {
+            throw new IllegalArgumentException("Telemetry channel must be in range 0..255: " + channelId);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Telemetry capacity must be positive: " + capacity);
+        }
+        channel = channelId;
+        policy = overflowPolicy;
+        values = new float[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    public TelemetryOverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Stores a received sample; it is called by the receiving thread of the connection.
+     *
+     * @param cardTime The 32 bits timestamp of the card (micros())
+     * @param value The sampled value
+     * @return false if the sample is discarded (DROP_NEWEST policy with a full buffer)
+     */
+    public synchronized boolean offer(final long cardTime, final float value) {
+        long timestamp = extendCardTime(cardTime);
+        if (written - read == values.length) {
+            dropped++;
+            if (policy == TelemetryOverflowPolicy.DROP_NEWEST) {
+                return false;
+            }
+            read++;
+        }
+        int index = (int) (written % values.length);
+        values[index] = value;
+        timestamps[index] = timestamp;
+        written++;
+        if (waitingConsumers > 0) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Moves the oldest samples into the given arrays.
+     *
+     * @param valuesOut Receiver of the values
+     * @param timestampsOut Receiver of the timestamps (micros of the card), or null if not required
+     * @return The number of moved samples (at most the length of valuesOut)
+     */
+    public synchronized int drain(final float[] valuesOut, final long[] timestampsOut) {
+        int count = (int) Math.min(written - read, valuesOut.length);
+        if ((timestampsOut != null) && (timestampsOut.length < count)) {
+            count = timestampsOut.length;
+        }
+        int first = (int) (read % values.length);
+        int firstPart = Math.min(count, values.length - first);
+        System.arraycopy(values, first, valuesOut, 0, firstPart);
+        System.arraycopy(values, 0, valuesOut, firstPart, count - firstPart);
+        if (timestampsOut != null) {
+            System.arraycopy(timestamps, first, timestampsOut, 0, firstPart);
+            System.arraycopy(timestamps, 0, timestampsOut, firstPart, count - firstPart);
+        }
+        read += count;
+        return count;
+    }
+
+    /**
+     * As drain(valuesOut, timestampsOut), waiting for at least one sample.
+     *
+     * @param valuesOut Receiver of the values
+     * @param timestampsOut Receiver of the timestamps (micros of the card), or null if not required
+     * @param timeout The maximum waiting time
+     * @param unit The unit of timeout
+     * @return The number of moved samples (0 if no sample is received within the timeout)
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public synchronized int drain(final float[] valuesOut, final long[] timestampsOut,
+            final long timeout, final TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waitingConsumers++;
+        try {
+            long remaining = deadline - System.nanoTime();
+            while ((written == read) && (remaining > 0)) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        } finally {
+            waitingConsumers--;
+        }
+        return drain(valuesOut, timestampsOut);
+    }
+
+    /**
+     * @return The number of samples not yet read
+     */
+    public synchronized int size() {
+        return (int) (written - read);
+    }
+
+    /**
+     * @return The number of samples stored since the creation (the overwritten ones too)
+     */
+    public synchronized long getReceivedSamples() {
+        return written;
+    }
+
+    /**
+     * @return The number of samples lost because the buffer was full (discarded or overwritten)
+     */
+    public synchronized long getDroppedSamples() {
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        read = written;
+    }
+
+    private long extendCardTime(final long cardTime) {
+        long time = cardTime & (CARD_CLOCK_PERIOD - 1);
+        if ((lastCardTime >= 0) && (time < lastCardTime) && (lastCardTime - time > CARD_CLOCK_PERIOD / 2)) {
+            cardTimeBase += CARD_CLOCK_PERIOD;
+        }
+        lastCardTime = time;
+        return cardTimeBase + time;
+    }
+}
@@ -0,0 +1,21 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.telemetry;
+
+/**
+ * The behaviour of a full TelemetryBuffer when a new sample is received.
+ */
+public enum TelemetryOverflowPolicy {
+    /**
+     * The oldest sample is replaced: the buffer always holds the most recent samples.
+     */
+    OVERWRITE_OLDEST,
+    /**
+     * The new sample is discarded: the buffer keeps the samples not yet read, without holes.
+     */
+    DROP_NEWEST
+}
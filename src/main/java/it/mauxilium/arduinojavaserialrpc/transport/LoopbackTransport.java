@@ -0,0 +1,219 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * In memory link between the library and a card implemented in Java (i.e. an emulator or a test).<br>
+ * The bytes written by the library are pushed to the card listener, and the bytes written into the
+ * card output stream are pushed to the library. Any direction has its own buffer and delivering
+ * thread, as the two sides of a real serial line.
+ */
+public class LoopbackTransport implements SerialTransport {
+
+    private static final int PIPE_CAPACITY = 4096;
+
+    private final String name;
+    private final Pipe toCard;
+    private final Pipe toJava;
+
+    public LoopbackTransport(final String linkName) {
+        name = linkName;
+        toCard = new Pipe(linkName + "-to-card");
+        toJava = new Pipe(linkName + "-to-java");
+    }
+
+    /**
+     * Sets the receiver of the bytes sent by the library (the card side).
+     *
+     * @param cardListener The card side receiver
+     */
+    public void setCardListener(final Listener cardListener) {
+        toCard.setTarget(cardListener);
+    }
+
+    /**
+     * Returns the stream used by the card side to send data to the library.
+     *
+     * @return The card side sending stream
+     */
+    public OutputStream getCardOutputStream() {
+        return toJava;
+    }
+
+    /**
+     * Simulates the loss of the link (i.e. an unplugged cable): both the sides are notified
+     * with connectionLost and no more data is delivered.
+     */
+    public void disconnectCard() {
+        toCard.shutdown(true);
+        toJava.shutdown(true);
+    }
+
+    /**
+     * Returns the card end of the link as a transport, so a card implemented in Java
+     * (i.e. ArduinoCardEmulator) can use it as any other transport.
+     *
+     * @return The card side of the link
+     */
+    public SerialTransport getCardSide() {
+        return new SerialTransport() {
+            @Override
+            public void open(final Listener listener) {
+                setCardListener(listener);
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return getCardOutputStream();
+            }
+
+            @Override
+            public void close() {
+                LoopbackTransport.this.close();
+            }
+
+            @Override
+            public String getName() {
+                return name + "-card";
+            }
+
+            @Override
+            public int getBaudRate() {
+                return 0;
+            }
+        };
+    }
+
+    @Override
+    public void open(final Listener listener) {
+        toJava.setTarget(listener);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toCard;
+    }
+
+    @Override
+    public void close() {
+        toCard.shutdown(false);
+        toJava.shutdown(false);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return 0;
+    }
+
+    /**
+     * One direction of the link: a bounded ring of bytes, emptied by a delivering thread.
+     */
+    private static final class Pipe extends OutputStream implements Runnable {
+
+        private final String pipeName;
+        private final byte[] ring = new byte[PIPE_CAPACITY];
+        private final byte[] chunk = new byte[PIPE_CAPACITY];
+        private int head;
+        private int size;
+        private Listener target;
+        private Thread deliveringThread;
+        private boolean closed;
+        private boolean lost;
+
+        private Pipe(final String name) {
+            pipeName = name;
+        }
+
+        synchronized void setTarget(final Listener listener) {
+            target = listener;
+            if (deliveringThread == null) {
+                deliveringThread = new Thread(this, "ArduinoRpc-" + pipeName);
+                deliveringThread.setDaemon(true);
+                deliveringThread.start();
+            }
+            notifyAll();
+        }
+
+        synchronized void shutdown(final boolean linkLost) {
+            closed = true;
+            lost = linkLost;
+            notifyAll();
+        }
+
+        @Override
+        public void write(final int data) throws IOException {
+            write(new byte[] {(byte) data}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(final byte[] data, final int offset, final int length) throws IOException {
+            int written = 0;
+            while (written < length) {
+                while ((size == ring.length) && (closed == false)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted writing on " + pipeName, ex);
+                    }
+                }
+                if (closed) {
+                    throw new EOFException(pipeName + " is closed");
+                }
+                int tail = (head + size) % ring.length;
+                int count = Math.min(length - written, Math.min(ring.length - size, ring.length - tail));
+                System.arraycopy(data, offset + written, ring, tail, count);
+                size += count;
+                written += count;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            Listener listener;
+            while (true) {
+                int count;
+                synchronized (this) {
+                    while (((size == 0) || (target == null)) && (closed == false)) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    if (closed) {
+                        listener = lost ? target : null;
+                        break;
+                    }
+                    // All the available bytes at once, as a serial driver does
+                    count = size;
+                    int firstPart = Math.min(count, ring.length - head);
+                    System.arraycopy(ring, head, chunk, 0, firstPart);
+                    System.arraycopy(ring, 0, chunk, firstPart, count - firstPart);
+                    head = (head + count) % ring.length;
+                    size = 0;
+                    listener = target;
+                    notifyAll();
+                }
+                // Out of the lock: the listener may write on the other direction
+                listener.dataReceived(chunk, 0, count);
+            }
+            if (listener != null) {
+                listener.connectionLost(new EOFException(pipeName + " is lost"));
+            }
+        }
+    }
+}
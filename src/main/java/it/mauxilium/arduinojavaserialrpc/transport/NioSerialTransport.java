@@ -0,0 +1,134 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Linux serial device (i.e. /dev/ttyUSB0 or /dev/ttyACM0) read and written directly with
+ * NIO channels, without native libraries.<br>
+ * The device is configured by the "stty" command (raw mode, 8 data bits, no parity, one stop bit),
+ * then a reader thread blocks on the device and pushes the received bytes to the listener.
+ */
+public class NioSerialTransport implements SerialTransport {
+
+    private static final int RECEIVING_BUFFER_SIZE = 256;
+
+    private final String devicePath;
+    private final int baudRate;
+    private FileChannel readChannel;
+    private FileChannel writeChannel;
+    private OutputStream output;
+    private volatile boolean closing;
+
+    public NioSerialTransport(final String serialDevicePath, final int serialBaudRate) {
+        devicePath = serialDevicePath;
+        baudRate = serialBaudRate;
+    }
+
+    @Override
+    public synchronized void open(final Listener listener) throws IOException {
+        configureDevice();
+        closing = false;
+        // Two channels: a blocked read must not stop the writes
+        readChannel = FileChannel.open(Paths.get(devicePath), StandardOpenOption.READ);
+        writeChannel = FileChannel.open(Paths.get(devicePath), StandardOpenOption.WRITE);
+        output = Channels.newOutputStream(writeChannel);
+
+        Thread reader = new Thread(() -> readLoop(readChannel, listener), "ArduinoRpc-" + devicePath);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sets the serial line parameters of the device (replaced by the tests, which read a named pipe).
+     */
+    void configureDevice() throws IOException {
+        Process stty = new ProcessBuilder("stty", "-F", devicePath, Integer.toString(baudRate),
+                "raw", "-echo", "cs8", "-cstopb", "-parenb", "clocal")
+                .redirectErrorStream(true)
+                .start();
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        try (InputStream sttyOutput = stty.getInputStream()) {
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = sttyOutput.read(buffer)) > 0) {
+                message.write(buffer, 0, read);
+            }
+        }
+        try {
+            if (stty.waitFor() != 0) {
+                throw new IOException("Configuring " + devicePath + ": " + message.toString().trim());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Configuring " + devicePath, ex);
+        }
+    }
+
+    private void readLoop(final FileChannel channel, final Listener listener) {
+        // Direct buffer: the device is read without intermediate copies
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVING_BUFFER_SIZE);
+        byte[] data = new byte[RECEIVING_BUFFER_SIZE];
+        try {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new EOFException(devicePath + " is closed");
+                }
+                buffer.flip();
+                buffer.get(data, 0, read);
+                listener.dataReceived(data, 0, read);
+            }
+        } catch (IOException ex) {
+            if (closing == false) {
+                listener.connectionLost(ex);
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closing = true;
+        try {
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        } finally {
+            if (writeChannel != null) {
+                writeChannel.close();
+            }
+            readChannel = null;
+            writeChannel = null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return devicePath;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return baudRate;
+    }
+}
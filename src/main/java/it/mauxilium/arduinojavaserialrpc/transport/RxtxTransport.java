@@ -0,0 +1,161 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.TooManyListenersException;
+
+/**
+ * Serial port managed by the RXTX library (the native library of the platform is required).
+ */
+public class RxtxTransport implements SerialTransport, SerialPortEventListener {
+
+    /**
+     * Milliseconds to stop while waiting opening port
+     */
+    private static final int TIME_OUT = 20000;
+
+    private static final int RECEIVING_BUFFER_SIZE = 256;
+
+    private final String portName;
+    private final int baudRate;
+    private final byte[] receivingBuffer = new byte[RECEIVING_BUFFER_SIZE];
+    private SerialPort serialPort;
+    private InputStream input;
+    private OutputStream output;
+    private Listener listener;
+
+    public RxtxTransport(final String serialPortName, final int serialBaudRate) {
+        portName = serialPortName;
+        baudRate = serialBaudRate;
+    }
+
+    @Override
+    public void open(final Listener dataListener) throws IOException {
+        try {
+            CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
+            if (portIdentifier.isCurrentlyOwned()) {
+                throw new PortInUseException();
+            }
+
+            // open serial port, and use class name for the appName.
+            serialPort = (SerialPort) portIdentifier.open(this.getClass().getName(), TIME_OUT);
+
+            // set port parameters
+            serialPort.setSerialPortParams(baudRate,
+                    SerialPort.DATABITS_8,
+                    SerialPort.STOPBITS_1,
+                    SerialPort.PARITY_NONE);
+
+            // open the streams
+            input = serialPort.getInputStream();
+            output = serialPort.getOutputStream();
+
+            // add event listeners
+            listener = dataListener;
+            serialPort.addEventListener(this);
+            serialPort.notifyOnDataAvailable(true);
+        } catch (NoSuchPortException | PortInUseException | UnsupportedCommOperationException |
+                TooManyListenersException ex) {
+            close();
+            throw new IOException("Opening serial port " + portName, ex);
+        }
+    }
+
+    @Override
+    public void serialEvent(final SerialPortEvent spe) {
+        if (spe.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
+            try {
+                int available;
+                while ((available = input.available()) > 0) {
+                    int read = input.read(receivingBuffer, 0, Math.min(available, receivingBuffer.length));
+                    if (read <= 0) {
+                        break;
+                    }
+                    listener.dataReceived(receivingBuffer, 0, read);
+                }
+            } catch (IOException ex) {
+                listener.connectionLost(ex);
+            }
+        } else {
+            assert (spe.getEventType() == SerialPortEvent.OUTPUT_BUFFER_EMPTY):
+                    "Serial Output buffer empty";
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    /**
+     * This should be called when you stop using the port. This will prevent
+     * port locking on platforms like Linux.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (serialPort != null) {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+                if (output != null) {
+                    output.close();
+                }
+            } finally {
+                serialPort.removeEventListener();
+                serialPort.close();
+                serialPort = null;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return portName;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    /**
+     * Discover the serial ports known by RXTX.
+     *
+     * @return A description of available serial ports (free and used too).
+     */
+    public static String[] portScanner() {
+        ArrayList<String> availablePorts = new ArrayList<>();
+        Enumeration portEnum = CommPortIdentifier.getPortIdentifiers();
+        while (portEnum.hasMoreElements()) {
+            CommPortIdentifier currPortId = (CommPortIdentifier) portEnum.nextElement();
+            availablePorts.add(currPortId.getName()+
+                    " (" + currPortId.getPortType()+
+                    "): owner: "+
+                    currPortId.getCurrentOwner());
+        }
+        String[] resList = new String[availablePorts.size()];
+        int index = 0;
+        for (String item : availablePorts) {
+            resList[index++] = item;
+        }
+        return resList;
+    }
+}
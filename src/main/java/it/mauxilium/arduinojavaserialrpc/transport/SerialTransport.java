@@ -0,0 +1,80 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Byte channel between Java and the Arduino card.<br>
+ * The library sends the commands through the output stream, and the transport pushes the
+ * received bytes to the listener as soon as they are available.<br>
+ * Available implementations:
+ * <ul>
+ * <li>RxtxTransport: any serial port supported by the RXTX library (the default)</li>
+ * <li>NioSerialTransport: Linux serial devices (i.e. /dev/ttyUSB0) read and written directly</li>
+ * <li>TcpTransport: serial port exported on the network (i.e. by ser2net)</li>
+ * <li>LoopbackTransport: in memory link, i.e. with a card emulator</li>
+ * </ul>
+ */
+public interface SerialTransport {
+
+    /**
+     * Receiver of the data read by the transport
+     */
+    interface Listener {
+
+        /**
+         * Receives the bytes read from the card. The data array is reused by the
+         * transport: it is valid only during the call.
+         *
+         * @param data The buffer of received bytes
+         * @param offset Index of first received byte
+         * @param length Number of received bytes
+         */
+        void dataReceived(byte[] data, int offset, int length);
+
+        /**
+         * Notifies that the transport can not receive data any more (i.e. the cable is unplugged).
+         *
+         * @param ex The reason of failure
+         */
+        void connectionLost(IOException ex);
+    }
+
+    /**
+     * Opens the channel and starts to push the received bytes to the listener.
+     *
+     * @param listener Receiver of the data
+     * @throws IOException In any case of opening error (i.e. port not found, or already in use)
+     */
+    void open(Listener listener) throws IOException;
+
+    /**
+     * Returns the stream used to send data to the card; it is available after "open()".
+     *
+     * @return The sending stream
+     */
+    OutputStream getOutputStream();
+
+    /**
+     * Closes the channel; after it no more data is pushed to the listener.
+     *
+     * @throws IOException In any case of closing error
+     */
+    void close() throws IOException;
+
+    /**
+     * @return The name of the channel (i.e. the serial port name)
+     */
+    String getName();
+
+    /**
+     * @return The serial speed (0 when not applicable)
+     */
+    int getBaudRate();
+}
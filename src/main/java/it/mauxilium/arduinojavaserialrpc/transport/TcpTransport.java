@@ -0,0 +1,96 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Serial port exported on the network by a raw TCP bridge (i.e. ser2net, or a WiFi serial adapter).<br>
+ * The serial speed is configured on the bridge.
+ */
+public class TcpTransport implements SerialTransport {
+
+    private static final int CONNECTION_TIME_OUT = 20000;
+    private static final int RECEIVING_BUFFER_SIZE = 256;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private OutputStream output;
+    private volatile boolean closing;
+
+    public TcpTransport(final String bridgeHost, final int bridgePort) {
+        host = bridgeHost;
+        port = bridgePort;
+    }
+
+    @Override
+    public synchronized void open(final Listener listener) throws IOException {
+        closing = false;
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECTION_TIME_OUT);
+            // The commands are small and latency sensitive
+            socket.setTcpNoDelay(true);
+            output = socket.getOutputStream();
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+
+        InputStream input = socket.getInputStream();
+        Thread reader = new Thread(() -> readLoop(input, listener), "ArduinoRpc-" + getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readLoop(final InputStream input, final Listener listener) {
+        byte[] data = new byte[RECEIVING_BUFFER_SIZE];
+        try {
+            while (true) {
+                int read = input.read(data);
+                if (read < 0) {
+                    throw new EOFException(getName() + " is closed");
+                }
+                listener.dataReceived(data, 0, read);
+            }
+        } catch (IOException ex) {
+            if (closing == false) {
+                listener.connectionLost(ex);
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closing = true;
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return 0;
+    }
+}
@@ -0,0 +1,219 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryFrameDecoderTest {
+
+    private RecordingFrameListener listener;
+    private BinaryFrameDecoder decoder;
+
+    @Before
+    public void setup() {
+        listener = new RecordingFrameListener();
+        decoder = new BinaryFrameDecoder(listener);
+    }
+
+    @Test
+    public void resultValuesRoundTrip() {
+        Object[] sent = {
+            Integer.MIN_VALUE, -1, 0, 42, Integer.MAX_VALUE,
+            0.1f, 1e-4f, -0.0f, Float.NaN, Float.MAX_VALUE,
+            "", "abab", "èÿ", null
+        };
+        for (Object value : sent) {
+            feedByteByByte(frame(BinaryProtocol.FRAME_RESULT, resultPayload(7, value)));
+        }
+
+        Assert.assertEquals(sent.length, listener.values.size());
+        for (int index = 0; index < sent.length; index++) {
+            // Float.equals compares the bits: -0.0f and NaN must arrive unchanged
+            Assert.assertEquals(sent[index], listener.values.get(index));
+        }
+        Assert.assertEquals("result 7 10", listener.events.get(0));
+    }
+
+    @Test
+    public void commandsAndMessages() {
+        ByteBuffer payload = payload();
+        payload.put((byte) UsbHandler.INT_INT_ARG_PREAMBLE);
+        putString(payload, "Sum");
+        payload.putInt(3).putInt(-4);
+        feed(frame(BinaryProtocol.FRAME_COMMAND, payload));
+
+        payload = payload();
+        payload.put((byte) UsbHandler.STRING_ARG_PREAMBLE);
+        putString(payload, "Echo");
+        putString(payload, "hello");
+        feed(frame(BinaryProtocol.FRAME_COMMAND, payload));
+
+        payload = payload();
+        payload.put((byte) 3).put("not found".getBytes(StandardCharsets.ISO_8859_1));
+        feed(frame(BinaryProtocol.FRAME_ERROR, payload));
+
+        payload = payload();
+        payload.putShort((short) 40000);
+        feed(frame(BinaryProtocol.FRAME_CREDIT, payload));
+
+        Assert.assertEquals("command Sum H 3,-4 0.0 null", listener.events.get(0));
+        Assert.assertEquals("command Echo S 0,0 0.0 hello", listener.events.get(1));
+        Assert.assertEquals("error 3 not found", listener.events.get(2));
+        Assert.assertEquals("credit 40000", listener.events.get(3));
+    }
+
+    @Test
+    public void frameWithWrongCrcIsDiscarded() {
+        byte[] corrupted = frame(BinaryProtocol.FRAME_RESULT, resultPayload(1, 10));
+        corrupted[corrupted.length - 1]++;
+        feed(corrupted);
+        feed(frame(BinaryProtocol.FRAME_RESULT, resultPayload(2, 20)));
+
+        Assert.assertEquals(2, listener.events.size());
+        Assert.assertTrue(listener.events.get(0).startsWith("frameError"));
+        Assert.assertEquals("result 2 10", listener.events.get(1));
+        Assert.assertEquals(Integer.valueOf(20), listener.values.get(0));
+    }
+
+    @Test
+    public void corruptedPayloadIsDiscarded() {
+        byte[] corrupted = frame(BinaryProtocol.FRAME_RESULT, resultPayload(1, 10));
+        corrupted[6] ^= 0x10;
+        feed(corrupted);
+
+        Assert.assertTrue(listener.values.isEmpty());
+        Assert.assertTrue(listener.events.get(0).startsWith("frameError"));
+    }
+
+    @Test
+    public void frameWithWrongLengthIsDiscarded() {
+        // The length covers one byte less than the payload: the last payload byte is read as CRC
+        byte[] shorter = frame(BinaryProtocol.FRAME_RESULT, resultPayload(1, 10));
+        shorter[1]--;
+        feed(shorter);
+        feed(frame(BinaryProtocol.FRAME_RESULT, resultPayload(2, 20)));
+
+        Assert.assertTrue(listener.events.get(0).startsWith("frameError"));
+        Assert.assertEquals(Integer.valueOf(20), listener.values.get(listener.values.size() - 1));
+    }
+
+    @Test
+    public void payloadTooShortForItsTypeIsDiscarded() {
+        ByteBuffer truncated = payload();
+        truncated.put((byte) 1).put((byte) UsbHandler.INT_ARG_PREAMBLE).put((byte) 10);
+        feed(frame(BinaryProtocol.FRAME_RESULT, truncated));
+
+        ByteBuffer longString = payload();
+        longString.put((byte) UsbHandler.STRING_ARG_PREAMBLE);
+        longString.put((byte) 50).put("Echo".getBytes(StandardCharsets.ISO_8859_1));
+        feed(frame(BinaryProtocol.FRAME_COMMAND, longString));
+
+        feed(frame(BinaryProtocol.FRAME_RESULT, resultPayload(2, 20)));
+
+        Assert.assertEquals("frameError Malformed binary frame of type: 2", listener.events.get(0));
+        Assert.assertEquals("frameError Malformed binary frame of type: 4", listener.events.get(1));
+        Assert.assertEquals(Integer.valueOf(20), listener.values.get(0));
+    }
+
+    @Test
+    public void noiseBeforeTheStartByteIsSkipped() {
+        byte[] valid = frame(BinaryProtocol.FRAME_RESULT, resultPayload(4, "ok"));
+        byte[] noisy = new byte[valid.length + 3];
+        noisy[0] = 'x';
+        noisy[1] = '\r';
+        noisy[2] = '\n';
+        System.arraycopy(valid, 0, noisy, 3, valid.length);
+        feedByteByByte(noisy);
+
+        Assert.assertEquals("ok", listener.values.get(0));
+    }
+
+    @Test
+    public void encodedCallFrameIsValid() throws Exception {
+        CommandEncoder encoder = new CommandEncoder();
+        PendingCall call = PendingCall.floatCall("Half", -0.0f);
+        call.setRequestId(9);
+        encoder.encodeBinary(call);
+        ByteBuffer frame = ByteBuffer.wrap(encoder.drainBytes()).order(ByteOrder.LITTLE_ENDIAN);
+
+        Assert.assertEquals(BinaryProtocol.START_BYTE, frame.get());
+        int payloadSize = frame.get() & 0xFF;
+        Assert.assertEquals(frame.remaining() - 2, payloadSize);
+        Assert.assertEquals(BinaryProtocol.FRAME_CALL, frame.get());
+        Assert.assertEquals(9, frame.get());
+        Assert.assertEquals(UsbHandler.FLOAT_ARG_PREAMBLE, (char) frame.get());
+        byte[] name = new byte[frame.get()];
+        frame.get(name);
+        Assert.assertEquals("Half", new String(name, StandardCharsets.ISO_8859_1));
+        Assert.assertEquals(Float.floatToRawIntBits(-0.0f), frame.getInt());
+        Assert.assertEquals(crc(frame.array(), frame.position()), frame.get() & 0xFF);
+    }
+
+    private void feed(final byte[] data) {
+        decoder.feed(data, 0, data.length);
+    }
+
+    private void feedByteByByte(final byte[] data) {
+        for (int index = 0; index < data.length; index++) {
+            decoder.feed(data, index, 1);
+        }
+    }
+
+    private static ByteBuffer payload() {
+        return ByteBuffer.allocate(BinaryProtocol.MAX_PAYLOAD).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer resultPayload(final int requestId, final Object value) {
+        ByteBuffer payload = payload();
+        payload.put((byte) requestId);
+        if (value instanceof Integer) {
+            payload.put((byte) UsbHandler.INT_ARG_PREAMBLE).putInt((Integer) value);
+        } else if (value instanceof Float) {
+            payload.put((byte) UsbHandler.FLOAT_ARG_PREAMBLE).putFloat((Float) value);
+        } else if (value instanceof String) {
+            payload.put((byte) UsbHandler.STRING_ARG_PREAMBLE).put(((String) value).getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            payload.put((byte) UsbHandler.VOID_ARG_PREAMBLE);
+        }
+        return payload;
+    }
+
+    private static void putString(final ByteBuffer payload, final String value) {
+        payload.put((byte) value.length()).put(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Builds a frame as the sketch does: start byte, length, type, payload and CRC
+     */
+    private static byte[] frame(final byte frameType, final ByteBuffer payload) {
+        int payloadSize = payload.position();
+        byte[] frame = new byte[payloadSize + 4];
+        frame[0] = BinaryProtocol.START_BYTE;
+        frame[1] = (byte) payloadSize;
+        frame[2] = frameType;
+        System.arraycopy(payload.array(), 0, frame, 3, payloadSize);
+        frame[frame.length - 1] = (byte) crc(frame, frame.length - 1);
+        return frame;
+    }
+
+    /**
+     * CRC of length, type and payload, from the second byte up to end (excluded)
+     */
+    private static int crc(final byte[] frame, final int end) {
+        int crc = 0;
+        for (int index = 1; index < end; index++) {
+            crc = BinaryProtocol.crc8(crc, frame[index]);
+        }
+        return crc;
+    }
+}
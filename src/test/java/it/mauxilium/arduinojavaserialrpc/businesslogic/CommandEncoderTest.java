@@ -0,0 +1,119 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The encoded calls must be the same bytes sent by ProtocolToArduino.
+ */
+public class CommandEncoderTest {
+
+    private static final float[] FLOATS = {
+        0.1f, 1e-4f, -0.0f, 0.0f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+        1.0f, -1.5f, 3.14f, 0.001f, 9.999e-4f, 1e7f, 9999999f, 518997.125f, 2234752.25f,
+        Float.MIN_VALUE, Float.MAX_VALUE, 123456.789f, -2.5e-3f
+    };
+
+    @Test
+    public void voidAndIntCalls() throws Exception {
+        assertSameBytes(PendingCall.voidCall("CallBack"));
+        assertSameBytes(PendingCall.voidCall(" Trimmed "));
+        assertSameBytes(PendingCall.intCall("Multiply", 6, 7));
+        assertSameBytes(PendingCall.intCall("Multiply", Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertSameBytes(PendingCall.intCall("Multiply", 0, -10));
+    }
+
+    @Test
+    public void floatCalls() throws Exception {
+        for (float value : FLOATS) {
+            assertSameBytes(PendingCall.floatCall("Half", value));
+        }
+    }
+
+    @Test
+    public void randomFloatCalls() throws Exception {
+        Random random = new Random(2020);
+        for (int count = 0; count < 100000; count++) {
+            float value = ((count % 2) == 0)
+                    ? Float.intBitsToFloat(random.nextInt())
+                    : (float) ((random.nextInt(2000000) - 1000000) / Math.pow(10, random.nextInt(7)));
+            assertSameBytes(PendingCall.floatCall("Half", value));
+        }
+    }
+
+    @Test
+    public void stringCalls() throws Exception {
+        assertSameBytes(PendingCall.stringCall("Twice", ""));
+        assertSameBytes(PendingCall.stringCall("Twice", "ab, cd"));
+        // Not ASCII text: the rest of the argument is encoded by the platform charset
+        assertSameBytes(PendingCall.stringCall("Twice", "città"));
+        assertSameBytes(PendingCall.stringCall("Twice", "€ 100"));
+    }
+
+    @Test
+    public void notAsciiFunctionName() throws Exception {
+        assertSameBytes(PendingCall.intCall("Più", 1, 2));
+    }
+
+    @Test
+    public void taggedCalls() throws Exception {
+        PendingCall call = PendingCall.floatCall("Half", 0.1f);
+        call.setRequestId(255);
+        assertSameBytes(call);
+
+        call = PendingCall.stringCall("Twice", "città");
+        call.setRequestId(1);
+        assertSameBytes(call);
+    }
+
+    @Test
+    public void callsShareTheBuffer() throws Exception {
+        CommandEncoder encoder = new CommandEncoder();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int id = 1; id <= 100; id++) {
+            PendingCall call = PendingCall.intCall("Multiply", id, -id);
+            call.setRequestId(id);
+            encoder.encodeText(call);
+            ProtocolToArduino.sendCommand(id, "Multiply", id, -id, expected);
+        }
+        Assert.assertEquals(expected.size(), encoder.size());
+        Assert.assertArrayEquals(expected.toByteArray(), encoder.drainBytes());
+        Assert.assertTrue(encoder.isEmpty());
+    }
+
+    private static void assertSameBytes(final PendingCall call) throws IOException {
+        CommandEncoder encoder = new CommandEncoder();
+        encoder.encodeText(call);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        send(call, expected);
+
+        Assert.assertArrayEquals(call.getDescription(), expected.toByteArray(), encoder.drainBytes());
+    }
+
+    private static void send(final PendingCall call, final ByteArrayOutputStream output) throws IOException {
+        int requestId = call.getRequestId();
+        switch (call.getSignature()) {
+            case UsbHandler.INT_INT_ARG_PREAMBLE:
+                ProtocolToArduino.sendCommand(requestId, call.getFunctionName(), call.getIntArg1(), call.getIntArg2(), output);
+                break;
+            case UsbHandler.FLOAT_ARG_PREAMBLE:
+                ProtocolToArduino.sendCommand(requestId, call.getFunctionName(), call.getFloatArg(), output);
+                break;
+            case UsbHandler.STRING_ARG_PREAMBLE:
+                ProtocolToArduino.sendCommand(requestId, call.getFunctionName(), call.getStringArg(), output);
+                break;
+            default:
+                ProtocolToArduino.sendCommand(requestId, call.getFunctionName(), output);
+        }
+    }
+}
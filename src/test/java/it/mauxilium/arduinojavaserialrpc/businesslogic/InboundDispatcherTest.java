@@ -0,0 +1,214 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.InboundOrdering;
+import it.mauxilium.arduinojavaserialrpc.InboundOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InboundDispatcherTest {
+
+    private StepRpc rpc;
+    private InboundDispatcher dispatcher;
+    private ExecutorService pool;
+
+    /**
+     * Connector class with the method called by the dispatched calls
+     */
+    public static class StepRpc extends ArduinoJavaSerialRpc {
+
+        private final List<Integer> steps = Collections.synchronizedList(new ArrayList<>());
+        private final List<Exception> errors = new CopyOnWriteArrayList<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private volatile CountDownLatch together;
+
+        public StepRpc() {
+            super(new LoopbackTransport("InboundDispatcherTest"));
+        }
+
+        public void step(final Integer step, final Integer sleepMillis) throws InterruptedException {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            CountDownLatch latch = together;
+            if (latch != null) {
+                latch.countDown();
+                latch.await(2, TimeUnit.SECONDS);
+            }
+            Thread.sleep(sleepMillis);
+            steps.add(step);
+            running.decrementAndGet();
+        }
+
+        @Override
+        public void handlerReceivingException(final Exception ex) {
+            errors.add(ex);
+        }
+    }
+
+    /**
+     * Executor running the queued tasks only when requested
+     */
+    private static class ManualExecutor implements Executor {
+
+        private final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void execute(final Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (tasks.isEmpty() == false) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Before
+    public void setup() {
+        rpc = new StepRpc();
+        dispatcher = new InboundDispatcher(new ConnectionMetrics("InboundDispatcherTest"));
+        dispatcher.setController(rpc);
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void fifoCallsAreExecutedOneAtTimeInOrder() throws Exception {
+        dispatcher.setExecutor(pool, 100, InboundOverflowPolicy.BLOCK);
+        for (int step = 0; step < 20; step++) {
+            dispatchStep(step, 2);
+        }
+
+        awaitSteps(20);
+        List<Integer> expected = new ArrayList<>();
+        for (int step = 0; step < 20; step++) {
+            expected.add(step);
+        }
+        Assert.assertEquals(expected, rpc.steps);
+        Assert.assertEquals(1, rpc.maxRunning.get());
+        Assert.assertTrue(rpc.errors.isEmpty());
+    }
+
+    @Test
+    public void parallelCallsAreExecutedTogether() throws Exception {
+        dispatcher.setExecutor(pool, 100, InboundOverflowPolicy.BLOCK);
+        dispatcher.setOrdering("step", InboundOrdering.PARALLEL);
+        rpc.together = new CountDownLatch(3);
+        for (int step = 0; step < 3; step++) {
+            dispatchStep(step, 0);
+        }
+
+        awaitSteps(3);
+        Assert.assertEquals(3, rpc.maxRunning.get());
+        Assert.assertTrue(rpc.errors.isEmpty());
+    }
+
+    @Test
+    public void dropNewestDiscardsTheReceivedCall() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        dispatcher.setExecutor(executor, 2, InboundOverflowPolicy.DROP_NEWEST);
+        for (int step = 1; step <= 3; step++) {
+            dispatchStep(step, 0);
+        }
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList(1, 2), rpc.steps);
+        Assert.assertEquals(1, rpc.errors.size());
+    }
+
+    @Test
+    public void dropOldestDiscardsTheFirstWaitingCall() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        dispatcher.setExecutor(executor, 2, InboundOverflowPolicy.DROP_OLDEST);
+        for (int step = 1; step <= 3; step++) {
+            dispatchStep(step, 0);
+        }
+
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList(2, 3), rpc.steps);
+        Assert.assertEquals(1, rpc.errors.size());
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        dispatcher.setExecutor(executor, 2, InboundOverflowPolicy.BLOCK);
+        dispatchStep(1, 0);
+        dispatchStep(2, 0);
+        Thread receiving = new Thread(() -> dispatchStep(3, 0));
+        receiving.start();
+        receiving.join(200);
+        Assert.assertTrue(receiving.isAlive());
+
+        executor.runAll();
+        receiving.join(2000);
+        Assert.assertFalse(receiving.isAlive());
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList(1, 2, 3), rpc.steps);
+        Assert.assertTrue(rpc.errors.isEmpty());
+    }
+
+    @Test
+    public void interruptedBlockDiscardsTheCallAndKeepsTheFlag() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        dispatcher.setExecutor(executor, 1, InboundOverflowPolicy.BLOCK);
+        dispatchStep(1, 0);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread receiving = new Thread(() -> {
+            dispatchStep(2, 0);
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        receiving.start();
+        receiving.join(200);
+        receiving.interrupt();
+        receiving.join(2000);
+
+        Assert.assertTrue(interrupted.get());
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList(1), rpc.steps);
+        Assert.assertEquals(1, rpc.errors.size());
+    }
+
+    private void dispatchStep(final int step, final int sleepMillis) {
+        try {
+            dispatcher.dispatch("step", UsbHandler.INT_INT_ARG_PREAMBLE, step, sleepMillis, 0, null, 0);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void awaitSteps(final int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((rpc.steps.size() < count) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, rpc.steps.size());
+    }
+}
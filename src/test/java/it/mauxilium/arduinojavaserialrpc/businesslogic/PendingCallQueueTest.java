@@ -0,0 +1,249 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcTimeoutException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PendingCallQueueTest {
+
+    private RecordingSender sender;
+
+    private static class RecordingSender implements PendingCallQueue.Sender {
+
+        // The timer thread sends the calls waiting for a released place
+        private final List<PendingCall> sent = Collections.synchronizedList(new ArrayList<>());
+        private int flushes = 0;
+
+        @Override
+        public boolean send(final PendingCall call) {
+            sent.add(call);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void lineIdle() {
+            // Not measured
+        }
+    }
+
+    @Before
+    public void setup() {
+        sender = new RecordingSender();
+    }
+
+    @Test
+    public void taggedCallsAreSentUpToTheMaximum() {
+        PendingCallQueue queue = new PendingCallQueue(3, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = submitCalls(queue, 5);
+
+        Assert.assertTrue(queue.isTagged());
+        Assert.assertEquals(calls.subList(0, 3), sender.sent);
+        Assert.assertEquals(1, calls.get(0).getRequestId());
+        Assert.assertEquals(2, calls.get(1).getRequestId());
+        Assert.assertEquals(3, calls.get(2).getRequestId());
+        Assert.assertFalse(queue.isIdle());
+    }
+
+    @Test
+    public void resultsCompleteTheMatchingCalls() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(3, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = submitCalls(queue, 3);
+
+        queue.complete(3, 30, 0);
+        queue.complete(1, 10, 0);
+        Assert.assertTrue(calls.get(0).isDone());
+        Assert.assertFalse(calls.get(1).isDone());
+        Assert.assertTrue(calls.get(2).isDone());
+        Assert.assertEquals(10, calls.get(0).await());
+        Assert.assertEquals(30, calls.get(2).await());
+
+        queue.complete(2, 20, 0);
+        Assert.assertEquals(20, calls.get(1).await());
+        Assert.assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void completedCallMakesRoomForTheWaitingOne() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(2, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = submitCalls(queue, 3);
+        Assert.assertEquals(2, sender.sent.size());
+
+        queue.complete(2, 20, 0);
+        Assert.assertEquals(3, sender.sent.size());
+        // The id of the completed call is free again, but the ids go on cyclically
+        Assert.assertEquals(3, calls.get(2).getRequestId());
+
+        queue.complete(3, 30, 0);
+        queue.complete(1, 10, 0);
+        Assert.assertEquals(30, calls.get(2).await());
+        Assert.assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void unknownAndRepeatedResultsAreDiscarded() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(2, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = submitCalls(queue, 2);
+
+        queue.complete(7, 70, 0);
+        queue.complete(1, 10, 0);
+        queue.complete(1, 11, 0);
+        Assert.assertEquals(10, calls.get(0).await());
+        Assert.assertFalse(calls.get(1).isDone());
+    }
+
+    @Test
+    public void requestIdsAreReusedCyclically() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(2, sender, new ConnectionMetrics("QueueTest"));
+        PendingCall longCall = submitCalls(queue, 1).get(0);
+        for (int i = 0; i < PendingCallQueue.MAX_REQUEST_ID; i++) {
+            PendingCall call = submitCalls(queue, 1).get(0);
+            Assert.assertNotEquals(longCall.getRequestId(), call.getRequestId());
+            queue.complete(call.getRequestId(), i, 0);
+            Assert.assertEquals(i, call.await());
+        }
+        queue.complete(1, -1, 0);
+        Assert.assertEquals(-1, longCall.await());
+    }
+
+    @Test
+    public void notTaggedResultsCompleteTheOldestCall() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(1, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = submitCalls(queue, 2);
+
+        Assert.assertFalse(queue.isTagged());
+        Assert.assertEquals(1, sender.sent.size());
+        Assert.assertEquals(ProtocolToArduino.NO_REQUEST_ID, calls.get(0).getRequestId());
+
+        queue.completeOldest(10, 0);
+        queue.completeOldest(20, 0);
+        Assert.assertEquals(10, calls.get(0).await());
+        Assert.assertEquals(20, calls.get(1).await());
+    }
+
+    @Test
+    public void batchIsWrittenAtOnce() {
+        PendingCallQueue queue = new PendingCallQueue(4, sender, new ConnectionMetrics("QueueTest"));
+        List<PendingCall> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(PendingCall.intCall("Multiply", i, 2));
+        }
+        queue.submitAll(calls);
+
+        Assert.assertEquals(calls, sender.sent);
+        Assert.assertEquals(1, sender.flushes);
+    }
+
+    @Test
+    public void waitingCallExpiresWithoutBeingSent() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(1, sender, new ConnectionMetrics("QueueTest"));
+        PendingCall first = submitCalls(queue, 1).get(0);
+        PendingCall expiring = timedCall(100);
+        queue.submit(expiring);
+
+        assertTimeout(expiring);
+        queue.completeOldest(10, 0);
+        Assert.assertEquals(10, first.await());
+        Assert.assertEquals(1, sender.sent.size());
+        Assert.assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void lateResultDoesNotCompleteTheNextCall() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(1, sender, new ConnectionMetrics("QueueTest"));
+        PendingCall expiring = timedCall(300);
+        queue.submit(expiring);
+        PendingCall next = submitCalls(queue, 1).get(0);
+
+        assertTimeout(expiring);
+        // The expired call keeps its place: the next call is not sent yet
+        Assert.assertEquals(1, sender.sent.size());
+
+        queue.completeOldest(99, 0);
+        Assert.assertEquals(2, sender.sent.size());
+        Assert.assertFalse(next.isDone());
+        queue.completeOldest(42, 0);
+        Assert.assertEquals(42, next.await());
+        assertTimeout(expiring);
+    }
+
+    @Test
+    public void expiredCallKeepsItsRequestId() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(2, sender, new ConnectionMetrics("QueueTest"));
+        PendingCall expiring = timedCall(500);
+        queue.submit(expiring);
+        assertTimeout(expiring);
+
+        // The ids go on up to the last one: then the id of the expired call is skipped
+        for (int id = 2; id <= PendingCallQueue.MAX_REQUEST_ID; id++) {
+            PendingCall call = submitCalls(queue, 1).get(0);
+            queue.complete(call.getRequestId(), id, 0);
+        }
+        PendingCall next = submitCalls(queue, 1).get(0);
+        Assert.assertEquals(2, next.getRequestId());
+
+        queue.complete(1, 99, 0);
+        Assert.assertFalse(next.isDone());
+        queue.complete(2, 42, 0);
+        Assert.assertEquals(42, next.await());
+    }
+
+    @Test
+    public void placeOfNeverAnsweredCallIsReleased() throws Exception {
+        PendingCallQueue queue = new PendingCallQueue(1, sender, new ConnectionMetrics("QueueTest"));
+        PendingCall expiring = timedCall(100);
+        queue.submit(expiring);
+        PendingCall next = submitCalls(queue, 1).get(0);
+        assertTimeout(expiring);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while ((sender.sent.size() < 2) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, sender.sent.size());
+        queue.completeOldest(42, 0);
+        Assert.assertEquals(42, next.await());
+        Assert.assertTrue(queue.isIdle());
+    }
+
+    private static PendingCall timedCall(final long timeoutMillis) {
+        PendingCall call = PendingCall.intCall("Multiply", 6, 7);
+        call.setTimeout(timeoutMillis);
+        return call;
+    }
+
+    private static void assertTimeout(final PendingCall call) throws Exception {
+        try {
+            call.await();
+            Assert.fail("The call must expire");
+        } catch (ArduinoRpcTimeoutException expected) {
+            // Expired
+        }
+    }
+
+    private static List<PendingCall> submitCalls(final PendingCallQueue queue, final int count) {
+        List<PendingCall> calls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PendingCall call = PendingCall.intCall("Multiply", i, 2);
+            calls.add(call);
+            queue.submit(call);
+        }
+        return calls;
+    }
+}
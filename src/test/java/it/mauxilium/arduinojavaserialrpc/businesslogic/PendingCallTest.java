@@ -0,0 +1,56 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PendingCallTest {
+
+    @Test
+    public void returnedFutureDoesNotChangeTheResult() throws Exception {
+        PendingCall call = PendingCall.intCall("Multiply", 6, 7);
+        CompletableFuture<Integer> cancelled = call.getFuture();
+        CompletableFuture<Integer> forced = call.getFuture();
+
+        Assert.assertTrue(cancelled.cancel(true));
+        Assert.assertTrue(forced.complete(-1));
+        Assert.assertFalse(call.isDone());
+
+        call.complete(42);
+        Assert.assertEquals(42, call.await());
+        Assert.assertEquals(Integer.valueOf(42), call.<Integer>getFuture().get());
+    }
+
+    @Test
+    public void failureIsNotWrapped() throws Exception {
+        PendingCall call = PendingCall.voidCall("Missing");
+        CompletableFuture<Void> future = call.getFuture();
+        ArduinoRpcJavaFailsException failure = new ArduinoRpcJavaFailsException("Not registered function");
+        call.fail(failure);
+
+        AtomicReference<Throwable> received = new AtomicReference<>();
+        future.whenComplete((value, ex) -> received.set(ex));
+        Assert.assertSame(failure, received.get());
+    }
+
+    @Test
+    public void interruptedWaitKeepsTheInterruptFlag() {
+        PendingCall call = PendingCall.voidCall("Never");
+        Thread.currentThread().interrupt();
+        try {
+            call.await();
+            Assert.fail("The waiting must be interrupted");
+        } catch (ArduinoRpcJavaFailsException expected) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ProtocolToArduinoTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Test
+    public void notTaggedCommandsHaveNoEnd() throws Exception {
+        ProtocolToArduino.sendCommand("CallBack", output);
+        Assert.assertEquals("CallBack V", sent());
+
+        ProtocolToArduino.sendCommand(ProtocolToArduino.NO_REQUEST_ID, "Multiply", 6, 7, output);
+        Assert.assertEquals("Multiply H6,7", sent());
+    }
+
+    @Test
+    public void taggedCommandsCarryTheRequestId() throws Exception {
+        ProtocolToArduino.sendCommand(1, "CallBack", output);
+        Assert.assertEquals("#1 CallBack V\n", sent());
+
+        ProtocolToArduino.sendCommand(12, " Multiply ", -6, 7, output);
+        Assert.assertEquals("#12 Multiply H-6,7\n", sent());
+
+        ProtocolToArduino.sendCommand(255, "Half", 2.5f, output);
+        Assert.assertEquals("#255 Half F2.5\n", sent());
+
+        ProtocolToArduino.sendCommand(3, "Twice", "ab, cd", output);
+        Assert.assertEquals("#3 Twice Sab, cd\n", sent());
+    }
+
+    private String sent() throws IOException {
+        String text = new String(output.toByteArray(), StandardCharsets.US_ASCII);
+        output.reset();
+        return text;
+    }
+}
@@ -0,0 +1,66 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the decoded frames: the received values, and any frame as a readable event.
+ */
+class RecordingFrameListener implements FrameListener {
+
+    final List<Object> values = new ArrayList<>();
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void result(final int requestId, final Object value, final int frameSize) {
+        values.add(value);
+        events.add("result " + requestId + " " + frameSize);
+    }
+
+    @Override
+    public void error(final int requestId, final String message, final int frameSize) {
+        events.add("error " + requestId + " " + message);
+    }
+
+    @Override
+    public void command(final String name, final char signature, final int arg1, final int arg2,
+            final float argF, final String argS, final int frameSize) {
+        events.add("command " + name + " " + signature + " " + arg1 + "," + arg2 + " " + argF + " " + argS);
+    }
+
+    @Override
+    public void telemetry(final int channel, final long cardTime, final float value) {
+        events.add("telemetry " + channel + " " + cardTime + " " + value);
+    }
+
+    @Override
+    public void credit(final int bytes) {
+        events.add("credit " + bytes);
+    }
+
+    @Override
+    public void functionTable(final FunctionTable table) {
+        events.add("functionTable");
+    }
+
+    @Override
+    public void message(final String message) {
+        events.add("message " + message);
+    }
+
+    @Override
+    public void frameError(final String reason) {
+        events.add("frameError " + reason);
+    }
+
+    @Override
+    public void binaryAccepted() {
+        events.add("binaryAccepted");
+    }
+}
@@ -0,0 +1,153 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.businesslogic;
+
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class TextFrameParserTest {
+
+    private static final String FRAMES =
+            "MArC_res\r\nI\r\n42\r\n" +
+            "MArC_res\r\nF\r\n-12.34\r\n" +
+            "MArC_res\nS\nabab\n" +
+            "MArC_res\r\nV\r\n" +
+            "MArC_cmd\r\nintCallArduinoToPc\r\nH\r\n3\r\n-4\r\n" +
+            "MArC_cmd\r\nstringCallArduinoToPc\r\nS\r\nhello\r\n" +
+            "MArC_err\r\nNot registered function: Missing\r\n" +
+            "MArC_msg\r\nbooting\r\n";
+
+    private static final List<String> FRAME_EVENTS = Arrays.asList(
+            "result -1 17",
+            "result -1 21",
+            "result -1 16",
+            "result -1 13",
+            "command intCallArduinoToPc H 3,-4 0.0 null",
+            "command stringCallArduinoToPc S 0,0 0.0 hello",
+            "error -1 Not registered function: Missing",
+            "message booting");
+
+    private UsbHandler usbHandler;
+    private RecordingFrameListener listener;
+    private TextFrameParser parser;
+
+    @Before
+    public void setup() {
+        usbHandler = new UsbHandler(new LoopbackTransport("TextParserTest"));
+        listener = new RecordingFrameListener();
+        parser = new TextFrameParser(usbHandler, listener);
+    }
+
+    @Test
+    public void framesFedByteByByte() {
+        feedByteByByte(FRAMES);
+
+        Assert.assertEquals(FRAME_EVENTS, listener.events);
+        Assert.assertEquals(Arrays.asList(42, -12.34f, "abab", null), listener.values);
+    }
+
+    @Test
+    public void framesSplitAtAnyPoint() {
+        byte[] data = FRAMES.getBytes(StandardCharsets.US_ASCII);
+        for (int split = 1; split < data.length; split++) {
+            setup();
+            Assert.assertEquals(split, parser.feed(data, 0, split));
+            Assert.assertEquals(data.length - split, parser.feed(data, split, data.length - split));
+
+            Assert.assertEquals("Split at " + split, FRAME_EVENTS, listener.events);
+        }
+    }
+
+    @Test
+    public void oversizedRowsAreCollected() {
+        char[] longValue = new char[1000];
+        Arrays.fill(longValue, 'x');
+        String value = new String(longValue);
+        feedByteByByte("MArC_res\r\nS\r\n" + value + "\r\nMArC_msg\r\n" + value + value + "\r\n");
+        feedByteByByte("MArC_res\r\nI\r\n7\r\n");
+
+        Assert.assertEquals(Arrays.asList(value, 7), listener.values);
+        Assert.assertEquals("message " + value + value, listener.events.get(1));
+    }
+
+    @Test
+    public void floatValues() {
+        String[] sent = {"0.10", "0.0001", "-0.00", "1.5e-4", "3.4028235E38", "nan", "inf", "-inf", "123456.789"};
+        float[] expected = {0.1f, 1e-4f, -0.0f, 1.5e-4f, Float.MAX_VALUE, Float.NaN,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 123456.789f};
+        for (String value : sent) {
+            feedByteByByte("MArC_res\r\nF\r\n" + value + "\r\n");
+        }
+
+        Assert.assertEquals(expected.length, listener.values.size());
+        for (int index = 0; index < expected.length; index++) {
+            // Float.equals compares the bits: -0.0f and NaN must be parsed exactly
+            Assert.assertEquals(sent[index], expected[index], listener.values.get(index));
+        }
+    }
+
+    @Test
+    public void intLimits() {
+        feedByteByByte("MArC_res\nI\n-2147483648\nMArC_res\nI\n+2147483647\n");
+
+        Assert.assertEquals(Arrays.asList(Integer.MIN_VALUE, Integer.MAX_VALUE), listener.values);
+    }
+
+    @Test
+    public void malformedValueFailsTheCall() {
+        feedByteByByte("MArC_res\r\nI\r\n2147483648\r\nMArC_res\r\nF\r\n1.2.3x\r\n");
+        feedByteByByte("MArC_cmd\r\nintCallArduinoToPc\r\nH\r\nthree\r\n");
+        feedByteByByte("MArC_res\r\nI\r\n42\r\n");
+
+        Assert.assertEquals(Arrays.asList(
+                "error -1 Malformed received value: 2147483648",
+                "error -1 Malformed received value: 1.2.3x",
+                "frameError Malformed received value: three",
+                "result -1 17"), listener.events);
+    }
+
+    @Test
+    public void fragmentedRowsAreIgnored() {
+        feedByteByByte("res\r\n\r\nI\r\nMArC_res\r\nI\r\n42\r\n");
+
+        Assert.assertEquals(Arrays.asList("result -1 17"), listener.events);
+    }
+
+    @Test
+    public void pipelinedFramesHaveRequestId() {
+        usbHandler.setPipelineDepth(4);
+        feedByteByByte("MArC_res\r\n3\r\nI\r\n42\r\nMArC_err\r\n5\r\nNot registered function: Missing\r\n");
+
+        Assert.assertEquals(Arrays.asList(
+                "result 3 20",
+                "error 5 Not registered function: Missing"), listener.events);
+    }
+
+    @Test
+    public void parsingStopsAfterBinaryAccepted() {
+        byte[] text = "MArC_res\r\nV\r\nMArC_bin\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = Arrays.copyOf(text, text.length + 4);
+        data[text.length] = BinaryProtocol.START_BYTE;
+        data[text.length + 2] = BinaryProtocol.FRAME_SYNC;
+
+        Assert.assertEquals(text.length, parser.feed(data, 0, data.length));
+        Assert.assertEquals(Arrays.asList("result -1 13", "binaryAccepted"), listener.events);
+    }
+
+    private void feedByteByByte(final String frames) {
+        byte[] data = frames.getBytes(StandardCharsets.US_ASCII);
+        for (int index = 0; index < data.length; index++) {
+            Assert.assertEquals(1, parser.feed(data, index, 1));
+        }
+    }
+}
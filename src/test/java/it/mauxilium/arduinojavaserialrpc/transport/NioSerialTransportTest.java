@@ -0,0 +1,120 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The device is emulated by a named pipe (Linux only, as the transport): the bytes written
+ * by the transport are read back by its own reader.
+ */
+public class NioSerialTransportTest {
+
+    private File directory;
+    private File pipe;
+    private RecordingListener listener;
+
+    /**
+     * A named pipe is not a terminal: it is not configured
+     */
+    private static class PipeTransport extends NioSerialTransport {
+
+        PipeTransport(final String pipePath) {
+            super(pipePath, 115200);
+        }
+
+        @Override
+        void configureDevice() {
+            // Nothing to configure
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("NioSerialTransportTest").toFile();
+        pipe = new File(directory, "ttyTest");
+        Process mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+        Assert.assertEquals(0, mkfifo.waitFor());
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        pipe.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void writtenBytesAreReceived() throws Exception {
+        NioSerialTransport transport = openPipe();
+        try {
+            transport.getOutputStream().write("MArC_res\r\nS\r\nNio\r\n".getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals("MArC_res\r\nS\r\nNio\r\n", listener.awaitText("MArC_res\r\nS\r\nNio\r\n"));
+            Assert.assertEquals(pipe.getPath(), transport.getName());
+            Assert.assertEquals(115200, transport.getBaudRate());
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void closeDoesNotLoseTheConnection() throws Exception {
+        NioSerialTransport transport = openPipe();
+        transport.close();
+
+        try {
+            listener.lost.get(300, TimeUnit.MILLISECONDS);
+            Assert.fail("Connection lost notified after close");
+        } catch (TimeoutException expected) {
+            // Not notified
+        }
+    }
+
+    @Test
+    public void notTerminalDeviceIsRefused() throws Exception {
+        File notTerminal = new File(directory, "notTerminal");
+        Assert.assertTrue(notTerminal.createNewFile());
+        try {
+            new NioSerialTransport(notTerminal.getPath(), 9600).open(listener);
+            Assert.fail("Opened a device which is not a terminal");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().startsWith("Configuring " + notTerminal));
+        } finally {
+            notTerminal.delete();
+        }
+    }
+
+    /**
+     * Opens the transport on the pipe: the opening for reading waits for a writer, which is
+     * closed when the transport has its own one.
+     */
+    private NioSerialTransport openPipe() throws Exception {
+        CompletableFuture<FileOutputStream> writer = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new FileOutputStream(pipe);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        NioSerialTransport transport = new PipeTransport(pipe.getPath());
+        transport.open(listener);
+        writer.get(2, TimeUnit.SECONDS).close();
+        return transport;
+    }
+}
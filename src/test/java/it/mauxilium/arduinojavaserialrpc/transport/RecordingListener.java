@@ -0,0 +1,52 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the bytes pushed by a transport and the loss of the connection.
+ */
+class RecordingListener implements SerialTransport.Listener {
+
+    final CompletableFuture<IOException> lost = new CompletableFuture<>();
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Override
+    public synchronized void dataReceived(final byte[] data, final int offset, final int length) {
+        received.write(data, offset, length);
+        notifyAll();
+    }
+
+    @Override
+    public void connectionLost(final IOException ex) {
+        lost.complete(ex);
+    }
+
+    /**
+     * Waits up to 2 seconds for the received text.
+     *
+     * @param text The expected text
+     * @return The received text, when it is the expected one or after the wait
+     */
+    synchronized String awaitText(final String text) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        long remaining;
+        while ((getText().equals(text) == false) && ((remaining = deadline - System.nanoTime()) > 0)) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getText();
+    }
+
+    private String getText() {
+        return new String(received.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
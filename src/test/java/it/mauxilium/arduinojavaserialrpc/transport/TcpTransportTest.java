@@ -0,0 +1,101 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package it.mauxilium.arduinojavaserialrpc.transport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The bridge is emulated by a local server socket.
+ */
+public class TcpTransportTest {
+
+    private ServerSocket bridge;
+    private TcpTransport transport;
+    private RecordingListener listener;
+    private Socket card;
+
+    @Before
+    public void setup() throws Exception {
+        bridge = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        transport = new TcpTransport(InetAddress.getLoopbackAddress().getHostAddress(), bridge.getLocalPort());
+        listener = new RecordingListener();
+        transport.open(listener);
+        card = bridge.accept();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        card.close();
+        bridge.close();
+    }
+
+    @Test
+    public void bytesAreExchanged() throws Exception {
+        card.getOutputStream().write("MArC_res\r\n".getBytes(StandardCharsets.US_ASCII));
+        card.getOutputStream().write("S\r\n".getBytes(StandardCharsets.US_ASCII));
+        Assert.assertEquals("MArC_res\r\nS\r\n", listener.awaitText("MArC_res\r\nS\r\n"));
+
+        transport.getOutputStream().write("GetCardName S".getBytes(StandardCharsets.US_ASCII));
+        byte[] sent = new byte[13];
+        InputStream input = card.getInputStream();
+        int size = 0;
+        while (size < sent.length) {
+            size += input.read(sent, size, sent.length - size);
+        }
+        Assert.assertEquals("GetCardName S", new String(sent, StandardCharsets.US_ASCII));
+        Assert.assertEquals(0, transport.getBaudRate());
+    }
+
+    @Test
+    public void closedBridgeLosesTheConnection() throws Exception {
+        card.close();
+
+        IOException cause = listener.lost.get(2, TimeUnit.SECONDS);
+        Assert.assertTrue(cause instanceof EOFException);
+    }
+
+    @Test
+    public void closeDoesNotLoseTheConnection() throws Exception {
+        transport.close();
+
+        try {
+            listener.lost.get(300, TimeUnit.MILLISECONDS);
+            Assert.fail("Connection lost notified after close");
+        } catch (TimeoutException expected) {
+            // Not notified
+        }
+        // The bridge sees the closed socket
+        Assert.assertEquals(-1, card.getInputStream().read());
+    }
+
+    @Test
+    public void bridgeNotFound() throws Exception {
+        bridge.close();
+        TcpTransport notBridged = new TcpTransport(InetAddress.getLoopbackAddress().getHostAddress(),
+                bridge.getLocalPort());
+        try {
+            notBridged.open(new RecordingListener());
+            Assert.fail("Opened without a bridge");
+        } catch (IOException expected) {
+            // Connection refused
+        }
+    }
+}
@@ -0,0 +1,254 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ConnectReadiness;
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcInitializationError;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ArduinoCardEmulatorTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private EmulatedCardFixture.CardRpc rpc;
+
+    @Before
+    public void setup() {
+        fixture = new EmulatedCardFixture("EmulatorTest", "Emulated");
+        card = fixture.getCard();
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        card.registerFloatFunction("Half", arg -> arg / 2);
+        card.registerStringFunction("Twice", arg -> arg + arg);
+        card.registerVoidFunction("CallBack", () -> {
+            card.executeRemoteMethod("stringCallArduinoToPc", "hello");
+            card.executeRemoteMethod("intCallArduinoToPc", 3, 4);
+        });
+        rpc = fixture.getRpc();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void textProtocolCalls() throws Exception {
+        rpc.connect();
+
+        Assert.assertEquals("Emulated", rpc.getCardName());
+        assertCalls();
+    }
+
+    @Test
+    public void pipelinedBinaryProtocolCalls() throws Exception {
+        rpc.setPipelineDepth(4);
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        rpc.connect();
+
+        Assert.assertEquals(WireProtocol.BINARY, rpc.getWireProtocol());
+        Assert.assertEquals("Emulated", rpc.getCardName());
+        assertCalls();
+    }
+
+    @Test
+    public void binaryRefusedFallsBackToText() throws Exception {
+        card.setBinarySupported(false);
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        rpc.connect();
+
+        Assert.assertEquals(WireProtocol.TEXT, rpc.getWireProtocol());
+        assertCalls();
+    }
+
+    @Test
+    public void refusedNegotiationsDoNotDelayTheConnection() throws Exception {
+        // A sketch without the negotiations, reading the commands after an idle time
+        card.setBinarySupported(false);
+        card.setFunctionIdsSupported(false);
+        card.setCommandTimeout(300, TimeUnit.MILLISECONDS);
+        rpc.setFlowControl(true);
+        rpc.setFunctionIds(true);
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        long start = System.nanoTime();
+        rpc.connect();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The refusals are received after the idle times, not after the negotiation time outs
+        Assert.assertTrue("Connected in " + elapsed + " ms", elapsed < 2500);
+        Assert.assertEquals(WireProtocol.TEXT, rpc.getWireProtocol());
+        Assert.assertFalse(rpc.isFlowControlActive());
+        assertCalls();
+        Assert.assertTrue(rpc.getReceivingErrors().isEmpty());
+    }
+
+    @Test
+    public void lateNegotiationRefusalDoesNotCompleteTheFirstCall() throws Exception {
+        // A sketch refusing the flow control after the negotiation time out
+        card.registerVoidFunction("MArC_crd", () -> {
+            try {
+                Thread.sleep(1800);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Not supported");
+        });
+        rpc.setFlowControl(true);
+        rpc.connect();
+
+        Assert.assertFalse(rpc.isFlowControlActive());
+        Assert.assertEquals("Emulated", rpc.getCardName());
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        Assert.assertTrue(rpc.getReceivingErrors().isEmpty());
+    }
+
+    @Test
+    public void coalescedWritesCalls() throws Exception {
+        rpc.setPipelineDepth(8);
+        rpc.setCoalescedWrites(2, TimeUnit.MILLISECONDS, 64);
+        rpc.connect();
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(rpc.executeRemoteFunctionAsync("Multiply", i, 3));
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Integer.valueOf(i * 3), results.get(i).get(2, TimeUnit.SECONDS));
+        }
+        assertCalls();
+    }
+
+    @Test(expected = ArduinoRpcJavaFailsException.class)
+    public void notRegisteredFunctionFails() throws Exception {
+        rpc.setPipelineDepth(2);
+        rpc.connect();
+
+        rpc.executeRemoteFunction("Missing", 1, 2);
+    }
+
+    @Test
+    public void connectReturnsWhenCardIsReady() throws Exception {
+        rebootCard(700);
+        long start = System.nanoTime();
+        rpc.connect();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The second probe is answered, then the answers of the lost ones are waited for a probe interval
+        Assert.assertTrue("Connected in " + elapsed + " ms", (elapsed >= 700) && (elapsed < 4000));
+        assertCalls();
+    }
+
+    @Test
+    public void notTaggedProbesAreNotJoined() throws Exception {
+        // The probes closer than the command timeout would be a single command, never completed
+        rebootCard(700);
+        card.setCommandTimeout(300, TimeUnit.MILLISECONDS);
+        rpc.connect();
+
+        assertCalls();
+    }
+
+    @Test
+    public void closeNotTaggedCommandsAreJoined() throws Exception {
+        card.setCommandTimeout(300, TimeUnit.MILLISECONDS);
+        LoopbackTransport link = EmulatedCardFixture.attach("JoinedCommandsTest", card);
+        link.open(new SerialTransport.Listener() {
+            @Override
+            public void dataReceived(final byte[] data, final int offset, final int length) {
+                // The answers are not checked
+            }
+
+            @Override
+            public void connectionLost(final IOException ex) {
+                // Not expected
+            }
+        });
+        try {
+            for (int i = 0; i < 3; i++) {
+                link.getOutputStream().write("Twice Sab".getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(100);
+            }
+            Thread.sleep(600);
+            Assert.assertEquals(1, card.getExecutedCalls());
+
+            link.getOutputStream().write("Twice Sab".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(600);
+            Assert.assertEquals(2, card.getExecutedCalls());
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test
+    public void pipelinedConnectReturnsWhenCardIsReady() throws Exception {
+        rebootCard(700);
+        rpc.setPipelineDepth(4);
+        rpc.connect();
+
+        assertCalls();
+    }
+
+    @Test
+    public void lateProbeAnswersDoNotCompleteTheFirstCall() throws Exception {
+        // Slower than the probe interval: the second probe is answered after the first one
+        card.setCommandTimeout(300, TimeUnit.MILLISECONDS);
+        card.setComputeDelay(1000, TimeUnit.MILLISECONDS);
+        rpc.connect();
+        card.setComputeDelay(0, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        Assert.assertEquals("abab", rpc.executeRemoteFunction("Twice", "ab"));
+    }
+
+    @Test
+    public void fixedDelayConnect() throws Exception {
+        rpc.setConnectReadiness(ConnectReadiness.FIXED_DELAY);
+        long start = System.nanoTime();
+        rpc.connect();
+
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 2000);
+        assertCalls();
+    }
+
+    @Test(expected = ArduinoRpcInitializationError.class)
+    public void connectFailsWhenCardDoesNotAnswer() throws Exception {
+        rebootCard(5000);
+        rpc.setConnectTimeout(600, TimeUnit.MILLISECONDS);
+
+        rpc.connect();
+    }
+
+    private void rebootCard(final long bootMillis) throws Exception {
+        fixture.reboot(bootMillis, TimeUnit.MILLISECONDS);
+        rpc = fixture.getRpc();
+    }
+
+    private void assertCalls() throws Exception {
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        Assert.assertEquals(1.25f, rpc.executeRemoteFunction("Half", 2.5f), 0.001f);
+        Assert.assertEquals("abab", rpc.executeRemoteFunction("Twice", "ab"));
+
+        rpc.executeRemoteFunction("CallBack");
+        Assert.assertTrue(rpc.awaitCallbacks(2));
+        Assert.assertEquals("hello", rpc.getReceivedString());
+        Assert.assertEquals(7, rpc.getReceivedSum());
+    }
+}
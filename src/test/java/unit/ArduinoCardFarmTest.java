@@ -0,0 +1,73 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoCardFarm;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcInitializationError;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ArduinoCardFarmTest {
+
+    private final List<ArduinoCardEmulator> emulators = new ArrayList<>();
+    private ArduinoCardFarm farm;
+
+    @Before
+    public void setup() {
+        farm = new ArduinoCardFarm(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        farm.disconnect();
+        for (ArduinoCardEmulator emulator : emulators) {
+            emulator.detach();
+        }
+    }
+
+    @Test
+    public void callsAreRoutedByCardName() throws Exception {
+        Assert.assertEquals("Kitchen", farm.addCard(emulatedCard("Kitchen", 10)));
+        Assert.assertEquals("Garage", farm.addCard(emulatedCard("Garage", 20)));
+
+        Assert.assertEquals(Arrays.asList("Garage", "Kitchen"), new ArrayList<>(farm.getCardNames()));
+        Assert.assertEquals(Integer.valueOf(11), farm.executeRemoteFunction("Kitchen", "Add", 1, 0));
+        Assert.assertEquals(Integer.valueOf(21), farm.executeRemoteFunction("Garage", "Add", 1, 0));
+    }
+
+    @Test(expected = ArduinoRpcJavaFailsException.class)
+    public void unknownCardFails() throws Exception {
+        farm.executeRemoteFunction("Missing", "Add", 1, 0);
+    }
+
+    @Test
+    public void duplicatedCardNameIsRefused() throws Exception {
+        farm.addCard(emulatedCard("Kitchen", 10));
+        try {
+            farm.addCard(emulatedCard("Kitchen", 20));
+            Assert.fail("A second card with the same name must be refused");
+        } catch (ArduinoRpcInitializationError expected) {
+        }
+        Assert.assertEquals(Integer.valueOf(11), farm.executeRemoteFunction("Kitchen", "Add", 1, 0));
+    }
+
+    private LoopbackTransport emulatedCard(final String cardName, final int offset) {
+        ArduinoCardEmulator emulator = new ArduinoCardEmulator(cardName);
+        emulator.registerIntFunction("Add", (arg1, arg2) -> arg1 + arg2 + offset);
+        emulators.add(emulator);
+        return EmulatedCardFixture.attach(cardName + "-link" + emulators.size(), emulator);
+    }
+}
@@ -0,0 +1,96 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.InboundOverflowPolicy;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class CallHandlersTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoJavaSerialRpc rpc;
+    private final CountDownLatch calls = new CountDownLatch(4);
+    private volatile boolean voidCalled;
+    private volatile int sum;
+    private volatile float half;
+    private volatile String text;
+
+    @Before
+    public void setup() {
+        fixture = new EmulatedCardFixture("HandlersTest", "Handlers");
+        ArduinoCardEmulator card = fixture.getCard();
+        card.registerVoidFunction("Start", () -> {
+            card.executeRemoteMethod("pressed");
+            card.executeRemoteMethod("position", 3, 4);
+            card.executeRemoteMethod("temperature", 21.5f);
+            card.executeRemoteMethod("status", "ready");
+        });
+
+        rpc = fixture.getRpc();
+        rpc.onCall("pressed", () -> {
+            voidCalled = true;
+            calls.countDown();
+        });
+        rpc.onCall("position", (x, y) -> {
+            sum = x + y;
+            calls.countDown();
+        });
+        rpc.onFloatCall("temperature", value -> {
+            half = value / 2;
+            calls.countDown();
+        });
+        rpc.onStringCall("status", value -> {
+            text = value;
+            calls.countDown();
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void handlersReceiveTheCalls() throws Exception {
+        rpc.connect();
+        rpc.executeRemoteFunction("Start");
+
+        assertHandled();
+    }
+
+    @Test
+    public void handlersRunOnTheInboundExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            rpc.setInboundExecutor(executor, 16, InboundOverflowPolicy.BLOCK);
+            rpc.connect();
+            rpc.executeRemoteFunction("Start");
+
+            assertHandled();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertHandled() throws InterruptedException {
+        Assert.assertTrue(calls.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(voidCalled);
+        Assert.assertEquals(7, sum);
+        Assert.assertEquals(10.75f, half, 0.001f);
+        Assert.assertEquals("ready", text);
+    }
+}
@@ -0,0 +1,102 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.CallPriority;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.metrics.LaneStats;
+import it.mauxilium.arduinojavaserialrpc.metrics.MetricsSnapshot;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CallPriorityTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoJavaSerialRpc rpc;
+    private final List<String> completed = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch pollGate = new CountDownLatch(0);
+
+    @Before
+    public void setup() throws Exception {
+        fixture = new EmulatedCardFixture("CallPriorityTest", "Prioritized");
+        ArduinoCardEmulator card = fixture.getCard();
+        card.registerIntFunction("Poll", (arg1, arg2) -> {
+            awaitGate();
+            return arg1;
+        });
+        card.registerIntFunction("Stop", (arg1, arg2) -> arg1);
+        rpc = fixture.getRpc();
+        rpc.setCallPriority("Poll", CallPriority.BULK);
+        rpc.setCallPriority("Stop", CallPriority.CRITICAL);
+        rpc.connect();
+        card.setComputeDelay(20, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void criticalCallsOvertakeTheWaitingOnes() throws Exception {
+        // The card holds the first poll until the stop is queued
+        pollGate = new CountDownLatch(1);
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            calls.add(call("Poll", i));
+        }
+        calls.add(call("Stop", 0));
+        pollGate.countDown();
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        // The first poll is already on the wire when the stop is queued
+        Assert.assertEquals("Stop0", completed.get(1));
+
+        MetricsSnapshot metrics = rpc.getMetrics();
+        LaneStats bulk = metrics.getLane(CallPriority.BULK);
+        Assert.assertEquals(10, bulk.getSentCalls());
+        Assert.assertEquals(0, bulk.getWaitingCalls());
+        Assert.assertTrue(bulk.getMaxWaitMicros() > metrics.getLane(CallPriority.CRITICAL).getMaxWaitMicros());
+    }
+
+    @Test
+    public void lowerLanesAreNotStarved() throws Exception {
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        calls.add(call("Stop", 0));
+        calls.add(call("Poll", 0));
+        for (int i = 1; i <= 20; i++) {
+            calls.add(call("Stop", i));
+        }
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        int position = completed.indexOf("Poll0");
+        Assert.assertTrue("Poll sent at " + position, (position > 1) && (position < completed.size() - 1));
+    }
+
+    private void awaitGate() {
+        try {
+            pollGate.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Integer> call(final String functionName, final int arg) {
+        return rpc.executeRemoteFunctionAsync(functionName, arg, 0)
+                .whenComplete((value, ex) -> completed.add(functionName + arg));
+    }
+}
@@ -0,0 +1,76 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.CardDiscovery;
+import it.mauxilium.arduinojavaserialrpc.DiscoveredCard;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CardDiscoveryTest {
+
+    private final AtomicInteger openedPorts = new AtomicInteger();
+    private String[] ports = {"port0", "port1", "port2"};
+    private CardDiscovery discovery;
+
+    @Before
+    public void setup() {
+        discovery = new CardDiscovery(() -> ports, this::openPort);
+        discovery.setHandshakeTimeout(200, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * port0 and port1 are cards, port2 is a device which never answers
+     */
+    private SerialTransport openPort(final String portName) {
+        openedPorts.incrementAndGet();
+        if (portName.equals("port2")) {
+            return new LoopbackTransport(portName);
+        }
+        return EmulatedCardFixture.attach(portName, new ArduinoCardEmulator("Card-" + portName));
+    }
+
+    @Test
+    public void cardsAreFoundInParallel() {
+        long start = System.nanoTime();
+        List<DiscoveredCard> cards = discovery.discover();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(2, cards.size());
+        Assert.assertEquals("port0", cards.get(0).getPortName());
+        Assert.assertEquals("Card-port0", cards.get(0).getCardName());
+        Assert.assertEquals("Card-port1", cards.get(1).getCardName());
+        Assert.assertTrue(cards.get(0).getHandshakeLatency(TimeUnit.NANOSECONDS) > 0);
+        // Three sequential connections would take more than 6 seconds
+        Assert.assertTrue("Discovery took " + elapsedMillis + "ms", elapsedMillis < 5000);
+    }
+
+    @Test
+    public void resultsAreCachedUntilThePortsChange() {
+        discovery.discover();
+        discovery.discover();
+        Assert.assertEquals(3, openedPorts.get());
+
+        ports = new String[] {"port1", "port2", "port3"};
+        List<DiscoveredCard> cards = discovery.discover();
+        Assert.assertEquals(4, openedPorts.get());
+        Assert.assertEquals(2, cards.size());
+        Assert.assertEquals("Card-port3", cards.get(1).getCardName());
+
+        discovery.invalidate();
+        discovery.discover();
+        Assert.assertEquals(7, openedPorts.get());
+    }
+}
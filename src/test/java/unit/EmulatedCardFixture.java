@@ -0,0 +1,133 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An emulated card linked to a CardRpc by a loopback link, the common setup of the unit tests.<br>
+ * The card is attached at once and the rpc is not connected: the test registers the card functions,
+ * configures the rpc and connects it. close() disconnects the rpc and detaches the card.
+ */
+public class EmulatedCardFixture {
+
+    /**
+     * Rpc with the methods called back by the emulated cards; it records the received values
+     * and the receiving errors.
+     */
+    public static class CardRpc extends ArduinoJavaSerialRpc {
+
+        private final Semaphore callbacks = new Semaphore(0);
+        private final List<Exception> receivingErrors = new CopyOnWriteArrayList<>();
+        private volatile String receivedString;
+        private volatile int receivedSum;
+
+        public CardRpc(final SerialTransport transport) {
+            super(transport);
+        }
+
+        public void stringCallArduinoToPc(final String arg) {
+            receivedString = arg;
+            callbacks.release();
+        }
+
+        public void intCallArduinoToPc(final Integer arg1, final Integer arg2) {
+            receivedSum = arg1 + arg2;
+            callbacks.release();
+        }
+
+        @Override
+        public void handlerReceivingException(final Exception ex) {
+            receivingErrors.add(ex);
+        }
+
+        /**
+         * Waits up to 2 seconds for the calls of the callback methods.
+         *
+         * @param count The number of expected calls
+         * @return false if they are not received in time
+         */
+        public boolean awaitCallbacks(final int count) throws InterruptedException {
+            return callbacks.tryAcquire(count, 2, TimeUnit.SECONDS);
+        }
+
+        public String getReceivedString() {
+            return receivedString;
+        }
+
+        public int getReceivedSum() {
+            return receivedSum;
+        }
+
+        public List<Exception> getReceivingErrors() {
+            return receivingErrors;
+        }
+    }
+
+    private final String linkName;
+    private final ArduinoCardEmulator card;
+    private CardRpc rpc;
+
+    public EmulatedCardFixture(final String testLinkName, final String cardName) {
+        linkName = testLinkName;
+        card = new ArduinoCardEmulator(cardName);
+        rpc = new CardRpc(attach(linkName, card));
+    }
+
+    public ArduinoCardEmulator getCard() {
+        return card;
+    }
+
+    public CardRpc getRpc() {
+        return rpc;
+    }
+
+    /**
+     * Restarts the card on a new link, with a boot time; the rpc is created again (not connected).
+     *
+     * @param bootTime The time the card needs before to answer
+     * @param unit The unit of bootTime
+     */
+    public void reboot(final long bootTime, final TimeUnit unit) throws IOException {
+        rpc.disconnect();
+        card.detach();
+        card.setBootTime(bootTime, unit);
+        rpc = new CardRpc(attach(linkName, card));
+    }
+
+    public void close() throws IOException {
+        rpc.disconnect();
+        card.detach();
+    }
+
+    /**
+     * Opens a new loopback link with the card attached to its card side (i.e. the port opened
+     * by a discovery).
+     *
+     * @param linkName The name of the link, the port name seen by the rpc
+     * @param card The card to attach
+     * @return The library side of the link
+     */
+    public static LoopbackTransport attach(final String linkName, final ArduinoCardEmulator card) {
+        LoopbackTransport link = new LoopbackTransport(linkName);
+        try {
+            card.attach(link.getCardSide());
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return link;
+    }
+}
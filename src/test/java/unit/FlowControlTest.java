@@ -0,0 +1,112 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class FlowControlTest {
+
+    private static final int CALLS = 40;
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private ArduinoJavaSerialRpc rpc;
+
+    @Before
+    public void setup() {
+        fixture = new EmulatedCardFixture("FlowControlTest", "Small buffer");
+        card = fixture.getCard();
+        card.registerStringFunction("Echo", arg -> arg);
+        card.setRxBufferSize(64);
+        rpc = fixture.getRpc();
+        rpc.setPipelineDepth(16);
+        rpc.setDefaultTimeout(2, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void withoutFlowControlTheBufferIsOverrun() throws Exception {
+        rpc.connect();
+        card.setComputeDelay(2, TimeUnit.MILLISECONDS);
+
+        Assert.assertFalse(rpc.isFlowControlActive());
+        Assert.assertTrue(countFailures(sendCalls()) > 0);
+        Assert.assertTrue(card.getOverruns() > 0);
+    }
+
+    @Test
+    public void textCallsFitIntoTheBuffer() throws Exception {
+        rpc.setFlowControl(true);
+        rpc.connect();
+        card.setComputeDelay(2, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(rpc.isFlowControlActive());
+        Assert.assertEquals(0, countFailures(sendCalls()));
+        Assert.assertEquals(0, card.getOverruns());
+        // Longer than the whole buffer: sent when the buffer is empty
+        String longArgument = "0123456789012345678901234567890123456789012345678901234567890123456789";
+        Assert.assertEquals(longArgument, rpc.executeRemoteFunction("Echo", longArgument));
+    }
+
+    @Test
+    public void binaryCallsFitIntoTheBuffer() throws Exception {
+        rpc.setFlowControl(true);
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        rpc.connect();
+        card.setComputeDelay(2, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(WireProtocol.BINARY, rpc.getWireProtocol());
+        Assert.assertTrue(rpc.isFlowControlActive());
+        Assert.assertEquals(0, countFailures(sendCalls()));
+        Assert.assertEquals(0, card.getOverruns());
+    }
+
+    @Test
+    public void sketchWithoutFlowControl() throws Exception {
+        card.setRxBufferSize(0);
+        rpc.setFlowControl(true);
+        rpc.connect();
+
+        Assert.assertFalse(rpc.isFlowControlActive());
+        Assert.assertEquals("ok", rpc.executeRemoteFunction("Echo", "ok"));
+    }
+
+    private List<CompletableFuture<String>> sendCalls() {
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            results.add(rpc.executeRemoteFunctionAsync("Echo", "argument " + i));
+        }
+        return results;
+    }
+
+    private static int countFailures(final List<CompletableFuture<String>> results) {
+        int failures = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                Assert.assertEquals("argument " + i, results.get(i).get(5, TimeUnit.SECONDS));
+            } catch (Exception ex) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+}
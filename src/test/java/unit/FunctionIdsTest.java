@@ -0,0 +1,108 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FunctionIdsTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private EmulatedCardFixture.CardRpc rpc;
+
+    @Before
+    public void setup() {
+        fixture = new EmulatedCardFixture("FunctionIdsTest", "Emulated");
+        card = fixture.getCard();
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        card.registerStringFunction("Twice", arg -> arg + arg);
+        card.registerVoidFunction("CallBack", () -> {
+            card.executeRemoteMethod("stringCallArduinoToPc", "hello");
+            card.executeRemoteMethod("intCallArduinoToPc", 3, 4);
+        });
+        card.declareRemoteMethod("stringCallArduinoToPc");
+        card.declareRemoteMethod("intCallArduinoToPc");
+        rpc = fixture.getRpc();
+        rpc.setFunctionIds(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void textCallsById() throws Exception {
+        rpc.connect();
+
+        Assert.assertTrue(rpc.isFunctionIdsActive());
+        assertCalls();
+        // "@2 H6,7" in place of "Multiply H6,7"
+        Assert.assertEquals(7, rpc.getMetrics().getOutbound("Multiply", 'H').getBytesSent());
+    }
+
+    @Test
+    public void pipelinedBinaryCallsById() throws Exception {
+        rpc.setPipelineDepth(4);
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        rpc.connect();
+
+        Assert.assertEquals(WireProtocol.BINARY, rpc.getWireProtocol());
+        Assert.assertTrue(rpc.isFunctionIdsActive());
+        assertCalls();
+    }
+
+    @Test
+    public void notListedFunctionFailsWithoutRoundTrip() throws Exception {
+        rpc.connect();
+        long executed = card.getExecutedCalls();
+
+        assertFails(() -> rpc.executeRemoteFunction("Missing", 1, 2));
+        assertFails(() -> rpc.executeRemoteFunction("Twice", 1.5f));
+        Assert.assertEquals(executed, card.getExecutedCalls());
+        Assert.assertEquals("abab", rpc.executeRemoteFunction("Twice", "ab"));
+    }
+
+    @Test
+    public void sketchWithoutFunctionIds() throws Exception {
+        card.setFunctionIdsSupported(false);
+        rpc.connect();
+
+        Assert.assertFalse(rpc.isFunctionIdsActive());
+        assertCalls();
+    }
+
+    private interface RemoteCall {
+        void run() throws Exception;
+    }
+
+    private static void assertFails(final RemoteCall call) throws Exception {
+        try {
+            call.run();
+            Assert.fail("The call of a not listed function must fail");
+        } catch (ArduinoRpcJavaFailsException expected) {
+            // Failed on the host
+        }
+    }
+
+    private void assertCalls() throws Exception {
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        Assert.assertEquals("abab", rpc.executeRemoteFunction("Twice", "ab"));
+        Assert.assertEquals("Emulated", rpc.getCardName());
+
+        rpc.executeRemoteFunction("CallBack");
+        Assert.assertTrue(rpc.awaitCallbacks(2));
+        Assert.assertEquals("hello", rpc.getReceivedString());
+        Assert.assertEquals(7, rpc.getReceivedSum());
+    }
+}
@@ -0,0 +1,82 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.metrics.FunctionStats;
+import it.mauxilium.arduinojavaserialrpc.metrics.MetricsSnapshot;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class MetricsTest {
+
+    private EmulatedCardFixture fixture;
+    private EmulatedCardFixture.CardRpc rpc;
+
+    @Before
+    public void setup() throws Exception {
+        fixture = new EmulatedCardFixture("MetricsTest", "Measured");
+        ArduinoCardEmulator card = fixture.getCard();
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        card.registerVoidFunction("CallBack", () -> card.executeRemoteMethod("intCallArduinoToPc", 1, 2));
+        rpc = fixture.getRpc();
+        rpc.setPipelineDepth(2);
+        rpc.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void callsAreCounted() throws Exception {
+        for (int index = 0; index < 10; index++) {
+            rpc.executeRemoteFunction("Multiply", index, 2);
+        }
+        try {
+            rpc.executeRemoteFunction("Multiply", "not an int");
+            Assert.fail("The wrong signature must fail");
+        } catch (ArduinoRpcJavaFailsException expected) {
+        }
+        rpc.executeRemoteFunction("CallBack");
+        Assert.assertTrue(rpc.awaitCallbacks(1));
+
+        MetricsSnapshot snapshot = rpc.getMetrics();
+        FunctionStats multiply = snapshot.getOutbound("Multiply", 'H');
+        Assert.assertEquals(10, multiply.getCalls());
+        Assert.assertEquals(0, multiply.getErrors());
+        Assert.assertTrue(multiply.getBytesSent() > 0);
+        Assert.assertTrue(multiply.getBytesReceived() > 0);
+        Assert.assertTrue(multiply.getP50Micros() > 0);
+        Assert.assertTrue(multiply.getP50Micros() <= multiply.getMaxMicros());
+
+        Assert.assertEquals(1, snapshot.getOutbound("Multiply", 'S').getErrors());
+        Assert.assertNotNull(snapshot.getInbound("intCallArduinoToPc", 'H'));
+    }
+
+    @Test
+    public void metricsArePublishedWhileConnected() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("it.mauxilium.arduinojavaserialrpc:type=Connection,name=" +
+                ObjectName.quote("MetricsTest"));
+        rpc.executeRemoteFunction("Multiply", 6, 7);
+
+        Assert.assertEquals(1L, server.getAttribute(name, "Calls"));
+        rpc.resetMetrics();
+        Assert.assertEquals(0L, server.getAttribute(name, "Calls"));
+        rpc.disconnect();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
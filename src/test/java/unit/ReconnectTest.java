@@ -0,0 +1,215 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.CardDiscovery;
+import it.mauxilium.arduinojavaserialrpc.LinkState;
+import it.mauxilium.arduinojavaserialrpc.ReconnectPolicy;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import it.mauxilium.arduinojavaserialrpc.transport.LoopbackTransport;
+import it.mauxilium.arduinojavaserialrpc.transport.SerialTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class ReconnectTest {
+
+    private final List<LinkState> states = new CopyOnWriteArrayList<>();
+    private PluggableCard port;
+    private EmulatedCardFixture.CardRpc rpc;
+    private ReconnectPolicy policy;
+
+    /**
+     * A port which can be unplugged and plugged again: any opening starts a new emulated card
+     */
+    private static class PluggableCard implements SerialTransport {
+
+        private final String portName;
+        private volatile boolean plugged = true;
+        private volatile String cardName = "Supervised";
+        private LoopbackTransport link;
+        private ArduinoCardEmulator card;
+
+        PluggableCard(final String name) {
+            portName = name;
+        }
+
+        void unplug() {
+            plugged = false;
+            link.disconnectCard();
+        }
+
+        void plug() {
+            plugged = true;
+        }
+
+        /**
+         * The next openings find another card
+         */
+        void replaceCard(final String name) {
+            cardName = name;
+        }
+
+        ArduinoCardEmulator getCard() {
+            return card;
+        }
+
+        @Override
+        public synchronized void open(final Listener listener) throws IOException {
+            if (plugged == false) {
+                throw new IOException(portName + " not found");
+            }
+            card = createCard(cardName);
+            link = EmulatedCardFixture.attach(portName, card);
+            link.open(listener);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return link.getOutputStream();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (link != null) {
+                link.close();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return portName;
+        }
+
+        @Override
+        public int getBaudRate() {
+            return 0;
+        }
+    }
+
+    private static ArduinoCardEmulator createCard(final String cardName) {
+        ArduinoCardEmulator card = new ArduinoCardEmulator(cardName);
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        return card;
+    }
+
+    @Before
+    public void setup() {
+        port = new PluggableCard("portA");
+        rpc = new EmulatedCardFixture.CardRpc(port);
+        policy = new ReconnectPolicy();
+        policy.setBackoff(50, 200, TimeUnit.MILLISECONDS);
+        policy.setHeartbeat(0, 200, TimeUnit.MILLISECONDS);
+        rpc.addLinkStateListener((state, portName, cause) -> states.add(state));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rpc.disconnect();
+    }
+
+    @Test
+    public void unpluggedCardIsReconnected() throws Exception {
+        rpc.setAutoReconnect(policy);
+        rpc.connect();
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+
+        port.unplug();
+        awaitState(LinkState.RECONNECTING);
+        try {
+            rpc.executeRemoteFunction("Multiply", 6, 7);
+            Assert.fail("Call executed on a lost link");
+        } catch (ArduinoRpcJavaFailsException expected) {
+            // Fails at once
+        }
+
+        port.plug();
+        awaitState(LinkState.CONNECTED);
+        Assert.assertEquals(Integer.valueOf(12), rpc.executeRemoteFunction("Multiply", 3, 4));
+        Assert.assertEquals(LinkState.RECONNECTING, states.get(0));
+        Assert.assertEquals(LinkState.CONNECTED, states.get(1));
+    }
+
+    @Test
+    public void missedHeartbeatReconnects() throws Exception {
+        policy.setHeartbeat(100, 200, TimeUnit.MILLISECONDS);
+        rpc.setAutoReconnect(policy);
+        rpc.connect();
+        ArduinoCardEmulator hungCard = port.getCard();
+        hungCard.setComputeDelay(1, TimeUnit.MINUTES);
+
+        awaitState(LinkState.RECONNECTING);
+        awaitState(LinkState.CONNECTED);
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+    }
+
+    @Test
+    public void cardIsFoundOnAnotherPort() throws Exception {
+        CardDiscovery search = new CardDiscovery(() -> new String[] {"portA", "portB"}, portName ->
+                portName.equals("portB")
+                        ? EmulatedCardFixture.attach(portName, createCard("Supervised"))
+                        : new LoopbackTransport(portName));
+        search.setHandshakeTimeout(200, TimeUnit.MILLISECONDS);
+        policy.setCardSearch(search, PluggableCard::new);
+        rpc.setAutoReconnect(policy);
+        rpc.connect();
+
+        port.unplug();
+        awaitState(LinkState.CONNECTED);
+        Assert.assertEquals("portB", rpc.getPortName());
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+    }
+
+    @Test
+    public void otherCardIsReportedAndNotConnected() throws Exception {
+        rpc.setAutoReconnect(policy);
+        rpc.connect();
+
+        port.replaceCard("Intruder");
+        port.unplug();
+        port.plug();
+        awaitState(LinkState.RECONNECTING);
+        String report = "Reconnecting Supervised: the card on portA is Intruder";
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (rpc.getReceivingErrors().stream().noneMatch(ex -> report.equals(ex.getMessage()))) {
+            Assert.assertTrue("No report within 10 s: " + rpc.getReceivingErrors(), System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(LinkState.RECONNECTING, rpc.getLinkState());
+
+        port.replaceCard("Supervised");
+        awaitState(LinkState.CONNECTED);
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+    }
+
+    @Test
+    public void disconnectStopsTheSupervision() throws Exception {
+        rpc.setAutoReconnect(policy);
+        rpc.connect();
+        Assert.assertEquals(LinkState.CONNECTED, rpc.getLinkState());
+
+        rpc.disconnect();
+        Assert.assertEquals(LinkState.DISCONNECTED, rpc.getLinkState());
+        Assert.assertEquals(LinkState.DISCONNECTED, states.get(0));
+    }
+
+    private void awaitState(final LinkState state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (states.contains(state) == false) {
+            Assert.assertTrue("No " + state + " within 10 s: " + states, System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
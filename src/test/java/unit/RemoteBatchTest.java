@@ -0,0 +1,94 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.RemoteBatch;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteBatchTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private ArduinoJavaSerialRpc rpc;
+
+    @Before
+    public void setup() throws Exception {
+        fixture = new EmulatedCardFixture("RemoteBatchTest", "Batched");
+        card = fixture.getCard();
+        card.registerVoidFunction("Reset", () -> { });
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        card.registerFloatFunction("Half", arg -> arg / 2);
+        card.registerStringFunction("Twice", arg -> arg + arg);
+        rpc = fixture.getRpc();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void resultsAreInFunctionsOrder() throws Exception {
+        rpc.setPipelineDepth(4);
+        rpc.connect();
+        RemoteBatch batch = rpc.batch()
+                .executeRemoteFunction("Twice", "ab")
+                .executeRemoteFunction("Multiply", 6, 7)
+                .executeRemoteFunction("Reset")
+                .executeRemoteFunction("Half", 3.0f);
+
+        Assert.assertEquals(4, batch.size());
+        List<Object> expected = Arrays.asList("abab", 42, null, 1.5f);
+        Assert.assertEquals(expected, batch.execute());
+        // A batch can be executed more times
+        Assert.assertEquals(expected, batch.executeAsync().get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cachedResultsAreNotSent() throws Exception {
+        rpc.setPipelineDepth(4);
+        rpc.connect();
+        rpc.setCacheable("Multiply", 1, TimeUnit.MINUTES);
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        long executed = card.getExecutedCalls();
+
+        List<Object> results = rpc.batch()
+                .executeRemoteFunction("Multiply", 6, 7)
+                .executeRemoteFunction("Twice", "ab")
+                .execute();
+        Assert.assertEquals(Arrays.asList(42, "abab"), results);
+        Assert.assertEquals(executed + 1, card.getExecutedCalls());
+    }
+
+    @Test
+    public void batchLongerThanPipelineDepthFails() throws Exception {
+        rpc.connect();
+        Assert.assertEquals(Arrays.asList(42), rpc.batch().executeRemoteFunction("Multiply", 6, 7).execute());
+        long executed = card.getExecutedCalls();
+
+        RemoteBatch batch = rpc.batch()
+                .executeRemoteFunction("Multiply", 6, 7)
+                .executeRemoteFunction("Twice", "ab");
+        try {
+            batch.execute();
+            Assert.fail("Batch longer than the pipeline depth executed");
+        } catch (ArduinoRpcJavaFailsException expected) {
+            Assert.assertTrue(expected.getMessage().contains("pipeline depth"));
+        }
+        Assert.assertEquals(executed, card.getExecutedCalls());
+    }
+}
@@ -0,0 +1,105 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.exception.ArduinoRpcJavaFailsException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ResultCacheTest {
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private ArduinoJavaSerialRpc rpc;
+
+    @Before
+    public void setup() throws Exception {
+        fixture = new EmulatedCardFixture("ResultCacheTest", "Cached");
+        card = fixture.getCard();
+        card.registerIntFunction("Multiply", (arg1, arg2) -> arg1 * arg2);
+        card.registerStringFunction("Twice", arg -> arg + arg);
+        rpc = fixture.getRpc();
+        rpc.setPipelineDepth(4);
+        rpc.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void repeatedCallsAreAnsweredFromMemory() throws Exception {
+        rpc.setCacheable("Multiply", 1, TimeUnit.MINUTES);
+        rpc.setCacheable("GetCardName", 1, TimeUnit.MINUTES);
+        long executed = card.getExecutedCalls();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+            Assert.assertEquals("Cached", rpc.getCardName());
+        }
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunctionAsync("Multiply", 6, 7).get());
+        Assert.assertEquals(Integer.valueOf(12), rpc.executeRemoteFunction("Multiply", 3, 4));
+        Assert.assertEquals(executed + 3, card.getExecutedCalls());
+
+        // Not cacheable function
+        rpc.executeRemoteFunction("Twice", "a");
+        rpc.executeRemoteFunction("Twice", "a");
+        Assert.assertEquals(executed + 5, card.getExecutedCalls());
+
+        rpc.flushResultCache();
+        Assert.assertEquals(Integer.valueOf(42), rpc.executeRemoteFunction("Multiply", 6, 7));
+        Assert.assertEquals(executed + 6, card.getExecutedCalls());
+    }
+
+    @Test
+    public void expiredAndFailedResultsAreNotReused() throws Exception {
+        rpc.setCacheable("Multiply", 200, TimeUnit.MILLISECONDS);
+        rpc.setCacheable("Missing", 1, TimeUnit.MINUTES);
+        long executed = card.getExecutedCalls();
+
+        CompletableFuture<Integer> first = rpc.executeRemoteFunctionAsync("Multiply", 2, 3);
+        CompletableFuture<Integer> second = rpc.executeRemoteFunctionAsync("Multiply", 2, 3);
+        Assert.assertEquals(Integer.valueOf(6), first.get());
+        Assert.assertEquals(Integer.valueOf(6), second.get());
+        Assert.assertEquals(executed + 1, card.getExecutedCalls());
+
+        Thread.sleep(300);
+        rpc.executeRemoteFunction("Multiply", 2, 3);
+        Assert.assertEquals(executed + 2, card.getExecutedCalls());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                rpc.executeRemoteFunction("Missing", 1, 2);
+                Assert.fail("Not registered function executed");
+            } catch (ArduinoRpcJavaFailsException expected) {
+            }
+        }
+        Assert.assertEquals(executed + 4, card.getExecutedCalls());
+    }
+
+    @Test
+    public void resultsAfterCardErrorsAreNotReused() throws Exception {
+        fixture.reboot(0, TimeUnit.MILLISECONDS);
+        rpc = fixture.getRpc();
+        // Default pipeline depth: the card errors complete the calls without value
+        rpc.connect();
+        rpc.setCacheable("Missing", 1, TimeUnit.MINUTES);
+        long executed = card.getExecutedCalls();
+
+        Assert.assertNull(rpc.executeRemoteFunctionAsync("Missing", 1.5f).get());
+        Assert.assertNull(rpc.executeRemoteFunctionAsync("Missing", 1.5f).get());
+        Assert.assertEquals(executed + 2, card.getExecutedCalls());
+    }
+}
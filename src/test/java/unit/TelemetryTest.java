@@ -0,0 +1,123 @@
+//
+// ╔════════════════════════╗
+//   Author: Gabriele Maris
+//   Project: Mauxilium
+// ╚════════════════════════╝
+//  Copyright 2020 Gabriele Maris
+package unit;
+
+import it.mauxilium.arduinojavaserialrpc.ArduinoJavaSerialRpc;
+import it.mauxilium.arduinojavaserialrpc.WireProtocol;
+import it.mauxilium.arduinojavaserialrpc.emulator.ArduinoCardEmulator;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryBuffer;
+import it.mauxilium.arduinojavaserialrpc.telemetry.TelemetryOverflowPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TelemetryTest {
+
+    private static final int SAMPLES = 1000;
+
+    private EmulatedCardFixture fixture;
+    private ArduinoCardEmulator card;
+    private ArduinoJavaSerialRpc rpc;
+
+    @Before
+    public void setup() {
+        fixture = new EmulatedCardFixture("TelemetryTest", "Sampler");
+        card = fixture.getCard();
+        rpc = fixture.getRpc();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Test
+    public void textSamplesAreBuffered() throws Exception {
+        rpc.connect();
+        assertStreamedSamples();
+    }
+
+    @Test
+    public void binarySamplesAreBuffered() throws Exception {
+        rpc.setWireProtocol(WireProtocol.BINARY);
+        rpc.connect();
+        assertStreamedSamples();
+    }
+
+    @Test
+    public void overwriteOldestKeepsLastSamples() {
+        TelemetryBuffer buffer = new TelemetryBuffer(0, 4, TelemetryOverflowPolicy.OVERWRITE_OLDEST);
+        for (int sample = 0; sample < 10; sample++) {
+            Assert.assertTrue(buffer.offer(sample, sample));
+        }
+        float[] values = new float[8];
+        Assert.assertEquals(4, buffer.drain(values, null));
+        Assert.assertEquals(6.0f, values[0], 0);
+        Assert.assertEquals(9.0f, values[3], 0);
+        Assert.assertEquals(6, buffer.getDroppedSamples());
+    }
+
+    @Test
+    public void dropNewestKeepsFirstSamples() {
+        TelemetryBuffer buffer = new TelemetryBuffer(0, 4, TelemetryOverflowPolicy.DROP_NEWEST);
+        for (int sample = 0; sample < 10; sample++) {
+            buffer.offer(sample, sample);
+        }
+        float[] values = new float[8];
+        Assert.assertEquals(4, buffer.drain(values, null));
+        Assert.assertEquals(0.0f, values[0], 0);
+        Assert.assertEquals(3.0f, values[3], 0);
+        Assert.assertEquals(6, buffer.getDroppedSamples());
+    }
+
+    @Test
+    public void cardClockWrapAroundIsExtended() {
+        TelemetryBuffer buffer = new TelemetryBuffer(0, 4, TelemetryOverflowPolicy.DROP_NEWEST);
+        buffer.offer(0xFFFFFFF0L, 1);
+        buffer.offer(0x10L, 2);
+        float[] values = new float[2];
+        long[] timestamps = new long[2];
+        buffer.drain(values, timestamps);
+        Assert.assertEquals(0x20, timestamps[1] - timestamps[0]);
+    }
+
+    private void assertStreamedSamples() throws Exception {
+        TelemetryBuffer buffer = rpc.openTelemetryChannel(3, 2 * SAMPLES, TelemetryOverflowPolicy.DROP_NEWEST);
+        long[] cardTimes = new long[SAMPLES];
+        float[] samples = new float[SAMPLES];
+        for (int index = 0; index < SAMPLES; index++) {
+            cardTimes[index] = 1000L * index;
+            samples[index] = index / 4.0f;
+        }
+        card.sendTelemetry(3, cardTimes, samples, SAMPLES);
+        // Samples of a not opened channel are discarded
+        card.sendTelemetry(4, cardTimes, samples, 10);
+
+        float[] values = new float[SAMPLES];
+        long[] timestamps = new long[SAMPLES];
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((received < SAMPLES) && (System.nanoTime() < deadline)) {
+            float[] chunk = new float[SAMPLES];
+            long[] chunkTimes = new long[SAMPLES];
+            int count = buffer.drain(chunk, chunkTimes, 100, TimeUnit.MILLISECONDS);
+            System.arraycopy(chunk, 0, values, received, count);
+            System.arraycopy(chunkTimes, 0, timestamps, received, count);
+            received += count;
+        }
+
+        Assert.assertEquals(SAMPLES, received);
+        Assert.assertEquals(0, buffer.getDroppedSamples());
+        for (int index = 0; index < SAMPLES; index++) {
+            Assert.assertEquals(samples[index], values[index], 0.001f);
+            Assert.assertEquals(cardTimes[index], timestamps[index]);
+        }
+    }
+}